@@ -0,0 +1,76 @@
+package com.example.craftmessage;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Headless Hibernate bootstrap followed by a short training workload
+ * (saveMessage and findMessagesByPlayer), without a Minecraft server.
+ *
+ * Run by ./gradlew cdsArchive to record the classes it loads into an AppCDS
+ * archive, and by ./gradlew bootstrapTiming [-PuseCds] to measure startup
+ * with and without that archive.
+ *
+ * Options (all optional):
+ *   --target=T       h2 | postgres (h2), see LoadTestHarness
+ *   --config=PATH    database.properties for the postgres target
+ *   --messages=N     messages saved by the training workload (100)
+ */
+public class BootstrapTraining {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = LoadTestHarness.parseOptions(args);
+        LoadTestHarness.configureTarget(options);
+        int messages = Integer.parseInt(
+            options.getOrDefault("messages", "100")
+        );
+
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        long started = System.nanoTime();
+        DatabaseManager.initialize();
+        long bootstrapMillis = (System.nanoTime() - started) / 1_000_000L;
+        if (!DatabaseManager.isDatabaseAvailable()) {
+            System.err.println(
+                "Database not available at " + DatabaseConfig.getUrl()
+            );
+            System.exit(2);
+        }
+
+        started = System.nanoTime();
+        String player = UUID.randomUUID().toString();
+        for (int i = 0; i < messages; i++) {
+            DatabaseManager.saveMessage(player, "training message " + i);
+        }
+        List<MessageView> history = DatabaseManager.findMessagesByPlayer(
+            player
+        );
+        long trainingMillis = (System.nanoTime() - started) / 1_000_000L;
+
+        System.out.printf(
+            "CDS archive:         %s%n",
+            sharedArchive() != null ? sharedArchive() : "none"
+        );
+        System.out.printf("JVM start to main:   %d ms%n", jvmMillis);
+        System.out.printf("Hibernate bootstrap: %d ms%n", bootstrapMillis);
+        System.out.printf(
+            "Training workload:   %d ms (%d saves, %d read back)%n",
+            trainingMillis,
+            messages,
+            history.size()
+        );
+        DatabaseManager.close();
+    }
+
+    private static String sharedArchive() {
+        List<String> arguments = ManagementFactory.getRuntimeMXBean()
+            .getInputArguments();
+        for (String argument : arguments) {
+            if (argument.startsWith("-XX:SharedArchiveFile=")) {
+                return argument.substring(argument.indexOf('=') + 1);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,494 @@
+package com.example.craftmessage;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load generator and soak test for the message pipeline.
+ * Simulates virtual players sending messages through
+ * SimpleMessageHandler on a single "server thread" ticking at 20 TPS,
+ * without a Minecraft client or server.
+ *
+ * Usage: ./gradlew loadTest -PloadTestArgs="--players=2000 --rate=0.5"
+ *
+ * Options (all optional):
+ *   --players=N      virtual players (1000)
+ *   --rate=R         messages per player per second (0.2)
+ *   --duration=S     measured seconds (60)
+ *   --warmup=S       seconds excluded from results (5)
+ *   --size=SPEC      fixed:N | uniform:MIN:MAX | lognormal:MEDIAN:SIGMA
+ *                    (uniform:16:256)
+ *   --target=T       h2 (embedded, in memory) | postgres |
+ *                    segments (embedded segment log in a temp dir) (h2)
+ *   --config=PATH    database.properties for the postgres target
+ *   --report=S       seconds between progress reports (5)
+ *   --seed=N         random seed (42)
+ *   --writers=N      background writers for the h2 target, 0 for one per
+ *                    core (0)
+ *
+ * Ingest latency is the time the server thread spends handing a message
+ * off, enqueue to commit is measured by the background writers; "rejected"
+ * counts rate-limited messages and a full write queue.
+ */
+public class LoadTestHarness {
+
+    private static final long TICK_NANOS = 50_000_000L;
+    private static final int MAX_TEXT_LENGTH = 256;
+    private static final int TEXT_POOL_SIZE = 4096;
+
+    private final int players;
+    private final double ratePerPlayer;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int reportSeconds;
+    private final SplittableRandom random;
+    private final UUID[] playerIds;
+    private final String[] textPool;
+
+    // Written by the simulated server thread, read by the reporter; the
+    // server thread also resets them when the warmup ends, so no sample is
+    // recorded concurrently with the reset
+    private final LatencyHistogram ingestLatency = new LatencyHistogram();
+    private final LatencyHistogram tickWork = new LatencyHistogram();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong tickOverruns = new AtomicLong();
+    private volatile long serverThreadId = -1;
+    private volatile long serverAllocatedAtExit = -1;
+
+    private LoadTestHarness(Map<String, String> options) {
+        this.players = Integer.parseInt(options.getOrDefault("players", "1000"));
+        this.ratePerPlayer = Double.parseDouble(
+            options.getOrDefault("rate", "0.2")
+        );
+        this.durationSeconds = Integer.parseInt(
+            options.getOrDefault("duration", "60")
+        );
+        this.warmupSeconds = Integer.parseInt(
+            options.getOrDefault("warmup", "5")
+        );
+        this.reportSeconds = Integer.parseInt(
+            options.getOrDefault("report", "5")
+        );
+        this.random = new SplittableRandom(
+            Long.parseLong(options.getOrDefault("seed", "42"))
+        );
+
+        // Everything the generator needs is allocated up front so the
+        // measured allocation rate belongs to the pipeline, not the harness
+        this.playerIds = new UUID[players];
+        for (int i = 0; i < players; i++) {
+            playerIds[i] = new UUID(random.nextLong(), random.nextLong());
+        }
+        this.textPool = buildTextPool(
+            options.getOrDefault("size", "uniform:16:256")
+        );
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        configureTarget(options);
+
+        LoadTestHarness harness = new LoadTestHarness(options);
+        System.out.printf(
+            "Load test: %d players x %.3f msg/s = %.1f msg/s offered, %ds (+%ds warmup), target %s (%s)%n",
+            harness.players,
+            harness.ratePerPlayer,
+            harness.players * harness.ratePerPlayer,
+            harness.durationSeconds,
+            harness.warmupSeconds,
+            options.getOrDefault("target", "h2"),
+            DatabaseConfig.getUrl()
+        );
+
+        DatabaseManager.initialize();
+        if (!DatabaseManager.isDatabaseAvailable()) {
+            System.err.println(
+                "Database not available at " + DatabaseConfig.getUrl()
+            );
+            System.exit(2);
+        }
+
+        DatabaseManager.startWriter();
+        try {
+            harness.run();
+        } finally {
+            DatabaseManager.stopWriter(30_000L);
+            DatabaseManager.close();
+        }
+    }
+
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.isBlank()) {
+                continue;
+            }
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException(
+                    "Expected --name=value, got " + arg
+                );
+            }
+            int split = arg.indexOf('=');
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Point DatabaseConfig at the requested backend before it is first used
+     */
+    static void configureTarget(Map<String, String> options)
+        throws IOException {
+        String target = options.getOrDefault("target", "h2");
+        switch (target) {
+            case "postgres" -> {
+                String config = options.get("config");
+                if (config != null) {
+                    System.setProperty(DatabaseConfig.CONFIG_PROPERTY, config);
+                }
+            }
+            case "h2" -> {
+                Path config = Files.createTempFile(
+                    "craftmessage-loadtest",
+                    ".properties"
+                );
+                config.toFile().deleteOnExit();
+                Files.write(
+                    config,
+                    List.of(
+                        "database.url=jdbc:h2:mem:craftmessage;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+                        "database.username=sa",
+                        "database.password=",
+                        "jdbc.driver=org.h2.Driver",
+                        "hibernate.dialect=org.hibernate.dialect.H2Dialect",
+                        "hibernate.hbm2ddl.auto=create",
+                        "hibernate.show_sql=false",
+                        "messages.rateLimit.perSecond=0",
+                        "messages.dedup.action=off",
+                        "database.writers=" +
+                        options.getOrDefault("writers", "0")
+                    )
+                );
+                System.setProperty(
+                    DatabaseConfig.CONFIG_PROPERTY,
+                    config.toString()
+                );
+            }
+            case "segments" -> {
+                Path directory = Files.createTempDirectory(
+                    "craftmessage-loadtest-store"
+                );
+                Path config = Files.createTempFile(
+                    "craftmessage-loadtest",
+                    ".properties"
+                );
+                config.toFile().deleteOnExit();
+                Files.write(
+                    config,
+                    List.of(
+                        "database.store=embedded",
+                        "database.embedded.path=" +
+                        directory.toString().replace('\\', '/'),
+                        "messages.rateLimit.perSecond=0",
+                        "messages.dedup.action=off"
+                    )
+                );
+                System.setProperty(
+                    DatabaseConfig.CONFIG_PROPERTY,
+                    config.toString()
+                );
+            }
+            default -> throw new IllegalArgumentException(
+                "Unknown target " + target
+            );
+        }
+    }
+
+    private String[] buildTextPool(String spec) {
+        String[] parts = spec.split(":");
+        String[] pool = new String[TEXT_POOL_SIZE];
+        for (int i = 0; i < pool.length; i++) {
+            int length = switch (parts[0]) {
+                case "fixed" -> Integer.parseInt(parts[1]);
+                case "uniform" -> random.nextInt(
+                    Integer.parseInt(parts[1]),
+                    Integer.parseInt(parts[2]) + 1
+                );
+                case "lognormal" -> (int) Math.round(
+                    Double.parseDouble(parts[1]) *
+                    Math.exp(
+                        Double.parseDouble(parts[2]) * random.nextGaussian()
+                    )
+                );
+                default -> throw new IllegalArgumentException(
+                    "Unknown size distribution " + spec
+                );
+            };
+            pool[i] = randomText(
+                Math.max(1, Math.min(MAX_TEXT_LENGTH, length))
+            );
+        }
+        return pool;
+    }
+
+    private String randomText(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int r = random.nextInt(32);
+            text.append(r < 5 ? ' ' : (char) ('a' + r % 26));
+        }
+        return text.toString();
+    }
+
+    private int poisson(double lambda) {
+        if (lambda <= 0) {
+            return 0;
+        }
+        if (lambda > 30) {
+            return (int) Math.max(
+                0,
+                Math.round(lambda + Math.sqrt(lambda) * random.nextGaussian())
+            );
+        }
+        double limit = Math.exp(-lambda);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    private void run() throws InterruptedException {
+        Thread server = new Thread(this::serverLoop, "loadtest-server");
+        ScheduledExecutorService reporter =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "loadtest-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+        server.start();
+        serverThreadId = server.threadId();
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        Sample baseline = Sample.take(this);
+        DatabaseManager.getCommitLatency().reset();
+
+        Sample[] previous = { baseline };
+        reporter.scheduleAtFixedRate(
+            () -> {
+                Sample now = Sample.take(this);
+                print("progress", previous[0], now, false);
+                previous[0] = now;
+            },
+            reportSeconds,
+            reportSeconds,
+            TimeUnit.SECONDS
+        );
+
+        server.join();
+        reporter.shutdownNow();
+
+        // Let the database drain what is still queued before the summary
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (
+            DatabaseManager.getQueueDepth() > 0 &&
+            System.nanoTime() < drainDeadline
+        ) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        print("summary", baseline, Sample.take(this), true);
+    }
+
+    /**
+     * Simulated server thread: 20 ticks per second, Poisson arrivals
+     */
+    private void serverLoop() {
+        try {
+            generate();
+        } finally {
+            if (
+                ManagementFactory.getThreadMXBean() instanceof
+                    com.sun.management.ThreadMXBean threads
+            ) {
+                serverAllocatedAtExit = threads.getCurrentThreadAllocatedBytes();
+            }
+        }
+    }
+
+    private void generate() {
+        double perTick = players * ratePerPlayer * TICK_NANOS / 1e9;
+        long started = System.nanoTime();
+        long warm = started + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long end =
+            started + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+        boolean measuring = warmupSeconds == 0;
+        long nextTick = started;
+
+        while (nextTick < end) {
+            long tickStart = System.nanoTime();
+            if (!measuring && tickStart >= warm) {
+                ingestLatency.reset();
+                tickWork.reset();
+                measuring = true;
+            }
+            int arrivals = poisson(perTick);
+            for (int i = 0; i < arrivals; i++) {
+                UUID player = playerIds[random.nextInt(players)];
+                String text = textPool[random.nextInt(TEXT_POOL_SIZE)];
+                long start = System.nanoTime();
+                try {
+                    if (!SimpleMessageHandler.handleMessage(player, text)) {
+                        rejected.incrementAndGet();
+                    }
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+                ingestLatency.record(System.nanoTime() - start);
+                sent.incrementAndGet();
+            }
+            long work = System.nanoTime() - tickStart;
+            tickWork.record(work);
+            if (work > TICK_NANOS) {
+                tickOverruns.incrementAndGet();
+            }
+
+            // Like the vanilla server, skip sleeping when behind schedule
+            nextTick += TICK_NANOS;
+            long sleep = nextTick - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void print(String label, Sample from, Sample to, boolean full) {
+        double seconds = (to.nanos - from.nanos) / 1e9;
+        long messages = to.sent - from.sent;
+        long saved = to.saved - from.saved;
+        System.out.printf(
+            "[%s] %.0fs sent=%d (%.1f/s) saved=%d (%.1f/s) failed=%d rejected=%d errors=%d queue=%d%n",
+            label,
+            seconds,
+            messages,
+            messages / seconds,
+            saved,
+            saved / seconds,
+            to.failed - from.failed,
+            to.rejected - from.rejected,
+            to.errors - from.errors,
+            DatabaseManager.getQueueDepth()
+        );
+        System.out.printf(
+            "[%s] ingest %s%n",
+            label,
+            ingestLatency.summary()
+        );
+        System.out.printf(
+            "[%s] enqueue to commit %s%n",
+            label,
+            DatabaseManager.getCommitLatency().summary()
+        );
+        for (String line : DatabaseManager.writerReport()) {
+            System.out.printf("[%s] %s%n", label, line);
+        }
+        for (String line : DatabaseScheduler.report()) {
+            System.out.printf("[%s] %s%n", label, line);
+        }
+        System.out.printf(
+            "[%s] tick work %s overruns=%d%n",
+            label,
+            tickWork.summary(),
+            to.overruns - from.overruns
+        );
+        System.out.printf(
+            "[%s] gc count=%d time=%dms, server thread alloc=%s bytes/msg%n",
+            label,
+            to.gcCount - from.gcCount,
+            to.gcMillis - from.gcMillis,
+            messages == 0 || to.allocatedBytes < 0
+                ? "n/a"
+                : String.valueOf(
+                    (to.allocatedBytes - from.allocatedBytes) / messages
+                )
+        );
+        if (full) {
+            System.out.printf(
+                "[%s] totals saved=%d failed=%d%n",
+                label,
+                DatabaseManager.getSavedCount(),
+                DatabaseManager.getFailedCount()
+            );
+        }
+    }
+
+    /**
+     * Point-in-time copy of all counters for interval deltas
+     */
+    private record Sample(
+        long nanos,
+        long sent,
+        long saved,
+        long failed,
+        long rejected,
+        long errors,
+        long overruns,
+        long gcCount,
+        long gcMillis,
+        long allocatedBytes
+    ) {
+        static Sample take(LoadTestHarness harness) {
+            long gcCount = 0;
+            long gcMillis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory
+                .getGarbageCollectorMXBeans()) {
+                gcCount += Math.max(0, gc.getCollectionCount());
+                gcMillis += Math.max(0, gc.getCollectionTime());
+            }
+            long allocated = harness.serverAllocatedAtExit;
+            if (
+                allocated < 0 &&
+                ManagementFactory.getThreadMXBean() instanceof
+                    com.sun.management.ThreadMXBean threads &&
+                harness.serverThreadId >= 0
+            ) {
+                allocated = threads.getThreadAllocatedBytes(
+                    harness.serverThreadId
+                );
+            }
+            return new Sample(
+                System.nanoTime(),
+                harness.sent.get(),
+                DatabaseManager.getSavedCount(),
+                DatabaseManager.getFailedCount(),
+                harness.rejected.get(),
+                harness.errors.get(),
+                harness.tickOverruns.get(),
+                gcCount,
+                gcMillis,
+                allocated
+            );
+        }
+    }
+}
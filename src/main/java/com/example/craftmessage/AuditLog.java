@@ -0,0 +1,486 @@
+package com.example.craftmessage;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Structured audit trail of received, rejected and saved messages, written
+ * off the server thread.
+ *
+ * Producers copy a record into a preallocated ring of primitive columns
+ * and return; a slot is claimed with one CAS, so any thread may record.
+ * When the ring is full the record is dropped and counted instead of
+ * blocking. A single background thread drains the ring in batches and
+ * appends one JSON object per line to audit-<time>.ndjson (or .ndjson.gz,
+ * flushed after every batch so the file is readable while written) in
+ * audit.path. Files roll over at audit.maxFileMegabytes and only the newest
+ * audit.maxFiles are kept.
+ */
+public class AuditLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        AuditLog.class
+    );
+
+    private static final int DRAIN_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(
+        10
+    );
+    private static final DateTimeFormatter FILE_TIME =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(
+            ZoneOffset.UTC
+        );
+
+    public enum Event {
+        RECEIVED("received"),
+        REJECTED("rejected"),
+        SAVED("saved");
+
+        private final String label;
+
+        Event(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Event[] EVENTS = Event.values();
+
+    private static final AtomicLong recorded = new AtomicLong();
+    private static final AtomicLong written = new AtomicLong();
+    private static final AtomicLong droppedFull = new AtomicLong();
+    private static final AtomicLong droppedFailed = new AtomicLong();
+
+    private static volatile Ring ring;
+    private static volatile boolean running;
+    private static Thread thread;
+
+    /**
+     * Bounded multi-producer, single-consumer ring. A slot is writable for
+     * sequence s when it holds s and readable when it holds s + 1; the
+     * consumer releases it for the next lap with s + capacity.
+     */
+    private static final class Ring {
+
+        final int mask;
+        final AtomicLongArray slotSequences;
+        final AtomicLong claimed = new AtomicLong();
+        final byte[] events;
+        final long[] times;
+        final long[] playerMost;
+        final long[] playerLeast;
+        final long[] recipientMost;
+        final long[] recipientLeast;
+        final long[] ids;
+        final String[] channels;
+        final String[] texts;
+        // Consumer only
+        long consumed;
+
+        Ring(int requestedCapacity) {
+            int capacity = Integer.highestOneBit(
+                Math.max(2, requestedCapacity - 1) << 1
+            );
+            mask = capacity - 1;
+            slotSequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; i++) {
+                slotSequences.set(i, i);
+            }
+            events = new byte[capacity];
+            times = new long[capacity];
+            playerMost = new long[capacity];
+            playerLeast = new long[capacity];
+            recipientMost = new long[capacity];
+            recipientLeast = new long[capacity];
+            ids = new long[capacity];
+            channels = new String[capacity];
+            texts = new String[capacity];
+        }
+    }
+
+    /**
+     * Start the background writer if audit.enabled is set
+     */
+    public static synchronized void start() {
+        if (thread != null || !DatabaseConfig.isAuditEnabled()) {
+            return;
+        }
+        ring = new Ring(DatabaseConfig.getAuditBufferSize());
+        running = true;
+        thread = new Thread(AuditLog::run, "craftmessage-audit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Write what is buffered and stop the background writer
+     */
+    public static synchronized void stop(long timeoutMillis) {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+        ring = null;
+    }
+
+    /**
+     * A message was accepted for storage and delivery
+     */
+    public static void received(
+        UUID player,
+        UUID recipient,
+        String channel,
+        String text
+    ) {
+        publish(Event.RECEIVED, player, recipient, 0L, channel, text);
+    }
+
+    /**
+     * A message was not accepted, reason is a short keyword
+     */
+    public static void rejected(UUID player, String channel, String reason) {
+        publish(Event.REJECTED, player, null, 0L, channel, reason);
+    }
+
+    /**
+     * A message was committed with the given ID
+     */
+    public static void saved(UUID player, long id) {
+        publish(Event.SAVED, player, null, id, null, null);
+    }
+
+    private static void publish(
+        Event event,
+        UUID player,
+        UUID recipient,
+        long id,
+        String channel,
+        String text
+    ) {
+        Ring current = ring;
+        if (current == null || !running) {
+            return;
+        }
+        long sequence;
+        int index;
+        while (true) {
+            sequence = current.claimed.get();
+            index = (int) sequence & current.mask;
+            long slot = current.slotSequences.get(index);
+            if (slot < sequence) {
+                // Not released by the consumer since the last lap
+                droppedFull.incrementAndGet();
+                return;
+            }
+            if (
+                slot == sequence &&
+                current.claimed.compareAndSet(sequence, sequence + 1)
+            ) {
+                break;
+            }
+        }
+        current.events[index] = (byte) event.ordinal();
+        current.times[index] = System.currentTimeMillis();
+        current.playerMost[index] = player.getMostSignificantBits();
+        current.playerLeast[index] = player.getLeastSignificantBits();
+        current.recipientMost[index] = recipient != null
+            ? recipient.getMostSignificantBits()
+            : 0L;
+        current.recipientLeast[index] = recipient != null
+            ? recipient.getLeastSignificantBits()
+            : 0L;
+        current.ids[index] = id;
+        current.channels[index] = channel;
+        current.texts[index] = text;
+        current.slotSequences.set(index, sequence + 1);
+        recorded.incrementAndGet();
+    }
+
+    private static void run() {
+        Ring current = ring;
+        Output output = null;
+        boolean failing = false;
+        while (true) {
+            boolean stopping = !running;
+            int count = 0;
+            try {
+                while (count < DRAIN_SIZE) {
+                    long sequence = current.consumed;
+                    int index = (int) sequence & current.mask;
+                    if (current.slotSequences.get(index) != sequence + 1) {
+                        break;
+                    }
+                    if (output == null) {
+                        output = Output.open();
+                    }
+                    output.write(current, index);
+                    release(current, index, sequence);
+                    count++;
+                }
+                if (output != null && count > 0) {
+                    output.flush();
+                    written.addAndGet(count);
+                    if (output.bytes >= maxFileBytes()) {
+                        output.close();
+                        output = null;
+                        prune();
+                    }
+                }
+                failing = false;
+            } catch (IOException e) {
+                if (!failing) {
+                    LOGGER.warn(
+                        "Failed to write audit log: {}",
+                        e.getMessage()
+                    );
+                    failing = true;
+                }
+                // Skip what could not be written and start a new file
+                droppedFailed.addAndGet(count);
+                if (output != null) {
+                    output.closeQuietly();
+                    output = null;
+                }
+                droppedFailed.addAndGet(skip(current));
+                count = 0;
+            }
+            if (count == 0) {
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        if (output != null) {
+            output.closeQuietly();
+        }
+    }
+
+    private static void release(Ring current, int index, long sequence) {
+        current.channels[index] = null;
+        current.texts[index] = null;
+        current.slotSequences.set(index, sequence + current.mask + 1);
+        current.consumed = sequence + 1;
+    }
+
+    /**
+     * Release every readable slot without writing it
+     *
+     * @return number of records skipped
+     */
+    private static int skip(Ring current) {
+        int skipped = 0;
+        while (true) {
+            long sequence = current.consumed;
+            int index = (int) sequence & current.mask;
+            if (current.slotSequences.get(index) != sequence + 1) {
+                return skipped;
+            }
+            release(current, index, sequence);
+            skipped++;
+        }
+    }
+
+    private static long maxFileBytes() {
+        return Math.max(1, DatabaseConfig.getAuditMaxFileMegabytes()) << 20;
+    }
+
+    /**
+     * Delete the oldest audit files beyond audit.maxFiles
+     */
+    private static void prune() throws IOException {
+        int keep = Math.max(1, DatabaseConfig.getAuditMaxFiles());
+        List<Path> files;
+        Path directory = DatabaseConfig.getAuditPath();
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                .filter(file -> {
+                    String name = file.getFileName().toString();
+                    return (
+                        name.startsWith("audit-") && name.contains(".ndjson")
+                    );
+                })
+                .sorted()
+                .toList();
+        }
+        for (int i = 0; i < files.size() - keep; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /**
+     * One open audit file, counting the bytes that reach the disk
+     */
+    private static final class Output {
+
+        final OutputStream file;
+        final OutputStream compressed;
+        final Writer writer;
+        long bytes;
+
+        private Output(Path path, boolean compress) throws IOException {
+            file = new FilterOutputStream(Files.newOutputStream(path)) {
+                @Override
+                public void write(byte[] b, int off, int len)
+                    throws IOException {
+                    out.write(b, off, len);
+                    bytes += len;
+                }
+
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                    bytes++;
+                }
+            };
+            // Sync flush keeps every finished batch readable
+            compressed = compress
+                ? new GZIPOutputStream(file, 64 * 1024, true)
+                : file;
+            writer = new BufferedWriter(
+                new OutputStreamWriter(compressed, StandardCharsets.UTF_8),
+                64 * 1024
+            );
+        }
+
+        static Output open() throws IOException {
+            Path directory = DatabaseConfig.getAuditPath();
+            Files.createDirectories(directory);
+            boolean compress = DatabaseConfig.isAuditCompressed();
+            String base = "audit-" + FILE_TIME.format(Instant.now());
+            String suffix = compress ? ".ndjson.gz" : ".ndjson";
+            Path path = directory.resolve(base + suffix);
+            for (int i = 1; Files.exists(path); i++) {
+                path = directory.resolve(base + "-" + i + suffix);
+            }
+            LOGGER.debug("Writing audit log {}", path);
+            return new Output(path, compress);
+        }
+
+        void write(Ring ring, int index) throws IOException {
+            JsonWriter json = new JsonWriter(writer);
+            json.beginObject();
+            json.name("time").value(
+                Instant.ofEpochMilli(ring.times[index]).toString()
+            );
+            json.name("event").value(EVENTS[ring.events[index]].label());
+            json
+                .name("player")
+                .value(
+                    new UUID(
+                        ring.playerMost[index],
+                        ring.playerLeast[index]
+                    ).toString()
+                );
+            if (
+                ring.recipientMost[index] != 0L ||
+                ring.recipientLeast[index] != 0L
+            ) {
+                json
+                    .name("recipient")
+                    .value(
+                        new UUID(
+                            ring.recipientMost[index],
+                            ring.recipientLeast[index]
+                        ).toString()
+                    );
+            }
+            if (ring.ids[index] != 0L) {
+                json.name("id").value(ring.ids[index]);
+            }
+            if (ring.channels[index] != null) {
+                json.name("channel").value(ring.channels[index]);
+            }
+            if (ring.texts[index] != null) {
+                json
+                    .name(
+                        ring.events[index] == Event.REJECTED.ordinal()
+                            ? "reason"
+                            : "text"
+                    )
+                    .value(ring.texts[index]);
+            }
+            // JsonWriter writes straight into the buffered writer; it is
+            // flushed once per drained batch, not per record
+            json.endObject();
+            writer.write('\n');
+        }
+
+        void flush() throws IOException {
+            writer.flush();
+        }
+
+        void close() throws IOException {
+            writer.close();
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (IOException e) {
+                LOGGER.debug("Close failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get audit counters since the server started
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(
+            "Audit log: " +
+            (thread != null
+                    ? "writing to " + DatabaseConfig.getAuditPath()
+                    : "off")
+        );
+        lines.add(
+            "  " +
+            recorded.get() +
+            " recorded, " +
+            written.get() +
+            " written, " +
+            droppedFull.get() +
+            " dropped (buffer full), " +
+            droppedFailed.get() +
+            " dropped (write failed)"
+        );
+        return lines;
+    }
+
+    public static long getDroppedCount() {
+        return droppedFull.get() + droppedFailed.get();
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.craftmessage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Additive-increase, multiplicative-decrease controller for the batch size
+ * and linger time of one message writer.
+ *
+ * After every batch the writer reports how many messages it saved, how long
+ * saving took and how many were left queued. While saves stay under
+ * database.batch.targetMillis, the batch limit grows by a fixed step as
+ * long as messages are left over, and the writer waits a little longer for
+ * a batch to fill as long as batches hold more than one message. A save
+ * over the target halves both. A batch of one message means the server is
+ * quiet: the linger is halved and soon reaches zero, so a single message
+ * is saved as soon as it arrives.
+ *
+ * Only the writer thread calls {@link #onBatch}; the current values are
+ * read by other threads for metrics.
+ */
+public class BatchController {
+
+    // Additive steps per batch
+    private static final int SIZE_STEP = 16;
+    private static final long LINGER_STEP_NANOS = 250_000L;
+    // Shorter waits are not worth parking for
+    private static final long MIN_LINGER_NANOS = 100_000L;
+    // Weight of the latest save in the smoothed save time
+    private static final double SMOOTHING = 0.2;
+
+    private final int capacity;
+    private volatile int limit;
+    private volatile long lingerNanos;
+    private volatile long smoothedSaveNanos;
+    private final AtomicLong increases = new AtomicLong();
+    private final AtomicLong decreases = new AtomicLong();
+
+    /**
+     * @param capacity largest batch the writer can hold
+     */
+    public BatchController(int capacity) {
+        this.capacity = capacity;
+        this.limit = clamp(DatabaseConfig.getBatchSize());
+    }
+
+    /**
+     * Most messages to take into the next batch
+     */
+    public int batchLimit() {
+        if (!DatabaseConfig.isBatchAdaptive()) {
+            return clamp(DatabaseConfig.getBatchSize());
+        }
+        return Math.min(limit, maxSize());
+    }
+
+    /**
+     * How long to wait for a partial batch to fill up. Never more than the
+     * room the smoothed save time leaves below the target.
+     */
+    public long lingerNanos() {
+        if (!DatabaseConfig.isBatchAdaptive()) {
+            return 0L;
+        }
+        long room = targetNanos() - smoothedSaveNanos;
+        return Math.max(0L, Math.min(lingerNanos, room));
+    }
+
+    /**
+     * Adjust the limits after a batch was saved
+     *
+     * @param size messages in the batch
+     * @param queued messages left waiting when the batch was taken
+     * @param saveNanos time spent saving the batch
+     */
+    public void onBatch(int size, int queued, long saveNanos) {
+        long smoothed = smoothedSaveNanos;
+        smoothedSaveNanos = smoothed == 0
+            ? saveNanos
+            : smoothed + (long) (SMOOTHING * (saveNanos - smoothed));
+
+        if (!DatabaseConfig.isBatchAdaptive()) {
+            // Start from the configured size if adaptive batching returns
+            limit = clamp(DatabaseConfig.getBatchSize());
+            lingerNanos = 0L;
+            return;
+        }
+
+        if (saveNanos > targetNanos()) {
+            limit = Math.max(1, Math.min(limit, maxSize()) / 2);
+            lingerNanos = halve(lingerNanos);
+            decreases.incrementAndGet();
+            return;
+        }
+        if (queued > 0 && limit < maxSize()) {
+            limit = Math.min(maxSize(), limit + SIZE_STEP);
+            increases.incrementAndGet();
+        }
+        long maxLinger = DatabaseConfig.getBatchMaxLingerMillis() * 1_000_000L;
+        lingerNanos = size > 1
+            ? Math.min(maxLinger, lingerNanos + LINGER_STEP_NANOS)
+            : halve(Math.min(lingerNanos, maxLinger));
+    }
+
+    /**
+     * Current limits and how often they were raised and cut
+     */
+    public String report() {
+        return String.format(
+            "      batch limit %d, linger %.2f ms, save %.1f ms (target %d ms), %d up, %d down",
+            batchLimit(),
+            lingerNanos() / 1e6,
+            smoothedSaveNanos / 1e6,
+            DatabaseConfig.getBatchTargetMillis(),
+            increases.get(),
+            decreases.get()
+        );
+    }
+
+    public long getIncreaseCount() {
+        return increases.get();
+    }
+
+    public long getDecreaseCount() {
+        return decreases.get();
+    }
+
+    private int maxSize() {
+        return clamp(DatabaseConfig.getBatchMaxSize());
+    }
+
+    private int clamp(int size) {
+        return Math.max(1, Math.min(capacity, size));
+    }
+
+    private static long targetNanos() {
+        return Math.max(1, DatabaseConfig.getBatchTargetMillis()) * 1_000_000L;
+    }
+
+    private static long halve(long nanos) {
+        long half = nanos / 2;
+        return half < MIN_LINGER_NANOS ? 0L : half;
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.craftmessage;
+
+import java.util.UUID;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Public message sent live to the players subscribed to its channel. It is
+ * not stored yet when sent, so it carries no message ID.
+ */
+public record ChannelMessagePayload(
+    String channel,
+    UUID sender,
+    long createdAtMillis,
+    String text
+) implements CustomPayload {
+    public static final CustomPayload.Id<ChannelMessagePayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "channel_message"));
+
+    public static final PacketCodec<PacketByteBuf, ChannelMessagePayload> CODEC =
+        PacketCodec.of(ChannelMessagePayload::write, ChannelMessagePayload::read);
+
+    private static void write(ChannelMessagePayload payload, PacketByteBuf buf) {
+        buf.writeString(payload.channel, 32);
+        buf.writeUuid(payload.sender);
+        buf.writeLong(payload.createdAtMillis);
+        buf.writeString(payload.text);
+    }
+
+    private static ChannelMessagePayload read(PacketByteBuf buf) {
+        return new ChannelMessagePayload(
+            buf.readString(32),
+            buf.readUuid(),
+            buf.readLong(),
+            buf.readString()
+        );
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
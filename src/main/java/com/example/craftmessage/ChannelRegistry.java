@@ -0,0 +1,166 @@
+package com.example.craftmessage;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.network.listener.ClientCommonPacketListener;
+import net.minecraft.network.packet.Packet;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Channel subscriptions and live fan-out of public messages.
+ *
+ * Channels are the default channel plus those listed in messages.channels.
+ * Players start out subscribed to the default channel and join or leave
+ * others with /channel; subscriptions are kept in memory across reconnects
+ * until the server stops. Online subscribers are indexed per channel, so a
+ * message only visits the players that receive it, and its packet is built
+ * once and handed to every recipient's connection.
+ */
+public class ChannelRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        ChannelRegistry.class
+    );
+
+    // Channels of every player seen since the server started
+    private static final Map<UUID, Set<String>> SUBSCRIPTIONS =
+        new ConcurrentHashMap<>();
+    // Online subscribers per channel
+    private static final Map<String, Map<UUID, ServerPlayerEntity>> ONLINE =
+        new ConcurrentHashMap<>();
+
+    public static void register() {
+        PayloadTypeRegistry.playS2C().register(
+            ChannelMessagePayload.ID,
+            ChannelMessagePayload.CODEC
+        );
+
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, server) -> {
+            ServerPlayerEntity player = handler.player;
+            for (String channel : subscriptionsOf(player.getUuid())) {
+                ONLINE.computeIfAbsent(channel, name ->
+                    new ConcurrentHashMap<>()
+                ).put(player.getUuid(), player);
+            }
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+            for (Map<UUID, ServerPlayerEntity> subscribers : ONLINE.values()) {
+                subscribers.remove(handler.player.getUuid(), handler.player);
+            }
+        });
+        ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+            ONLINE.clear();
+            SUBSCRIPTIONS.clear();
+        });
+    }
+
+    /**
+     * Normalize a channel name sent by a client
+     *
+     * @return the channel, or null if it is not configured
+     */
+    public static String resolve(String channel) {
+        if (channel == null || channel.isBlank()) {
+            return MessageEntity.DEFAULT_CHANNEL;
+        }
+        String name = channel.trim().toLowerCase(Locale.ROOT);
+        return DatabaseConfig.getChannels().contains(name) ? name : null;
+    }
+
+    /**
+     * Channels the player is subscribed to
+     */
+    public static Set<String> subscriptions(UUID player) {
+        return Collections.unmodifiableSet(subscriptionsOf(player));
+    }
+
+    private static Set<String> subscriptionsOf(UUID player) {
+        return SUBSCRIPTIONS.computeIfAbsent(player, uuid -> {
+            Set<String> channels = ConcurrentHashMap.newKeySet();
+            channels.add(MessageEntity.DEFAULT_CHANNEL);
+            return channels;
+        });
+    }
+
+    /**
+     * Subscribe an online player to a configured channel
+     *
+     * @return false if the player was subscribed already
+     */
+    public static boolean join(ServerPlayerEntity player, String channel) {
+        if (!subscriptionsOf(player.getUuid()).add(channel)) {
+            return false;
+        }
+        ONLINE.computeIfAbsent(channel, name -> new ConcurrentHashMap<>()).put(
+            player.getUuid(),
+            player
+        );
+        return true;
+    }
+
+    /**
+     * Unsubscribe a player from a channel
+     *
+     * @return false if the player was not subscribed
+     */
+    public static boolean leave(ServerPlayerEntity player, String channel) {
+        if (!subscriptionsOf(player.getUuid()).remove(channel)) {
+            return false;
+        }
+        Map<UUID, ServerPlayerEntity> subscribers = ONLINE.get(channel);
+        if (subscribers != null) {
+            subscribers.remove(player.getUuid());
+        }
+        return true;
+    }
+
+    /**
+     * Online subscribers of a channel
+     */
+    public static int getSubscriberCount(String channel) {
+        Map<UUID, ServerPlayerEntity> subscribers = ONLINE.get(channel);
+        return subscribers != null ? subscribers.size() : 0;
+    }
+
+    /**
+     * Send a public message to the online subscribers of its channel.
+     * Called on the server thread.
+     *
+     * @return number of players it was sent to
+     */
+    public static int broadcast(UUID sender, String channel, String text) {
+        Map<UUID, ServerPlayerEntity> subscribers = ONLINE.get(channel);
+        if (subscribers == null || subscribers.isEmpty()) {
+            return 0;
+        }
+        // One packet for all recipients instead of one per connection
+        Packet<ClientCommonPacketListener> packet =
+            ServerPlayNetworking.createS2CPacket(
+                new ChannelMessagePayload(
+                    channel,
+                    sender,
+                    System.currentTimeMillis(),
+                    text
+                )
+            );
+        int sent = 0;
+        for (ServerPlayerEntity player : subscribers.values()) {
+            if (ServerPlayNetworking.canSend(player, ChannelMessagePayload.ID)) {
+                player.networkHandler.sendPacket(packet);
+                sent++;
+            }
+        }
+        LOGGER.debug("Sent message in {} to {} players", channel, sent);
+        return sent;
+    }
+}
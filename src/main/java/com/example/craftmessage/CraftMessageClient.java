@@ -1,10 +1,17 @@
 package com.example.craftmessage;
 
+import java.util.UUID;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.keybinding.v1.KeyBindingHelper;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.PlayerListEntry;
 import net.minecraft.client.option.KeyBinding;
 import net.minecraft.client.util.InputUtil;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
 import org.lwjgl.glfw.GLFW;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +38,87 @@ public class CraftMessageClient implements ClientModInitializer {
                 )
             );
 
+            // Route history pages to the open history screen
+            ClientPlayNetworking.registerGlobalReceiver(
+                HistoryPagePayload.ID,
+                (payload, context) -> {
+                    if (
+                        context.client().currentScreen instanceof
+                            MessageHistoryScreen screen
+                    ) {
+                        screen.onPage(payload);
+                    }
+                }
+            );
+
+            // Messages stored anywhere since the last server tick
+            ClientPlayNetworking.registerGlobalReceiver(
+                NewMessagesPayload.ID,
+                (payload, context) -> {
+                    if (
+                        context.client().currentScreen instanceof
+                            MessageHistoryScreen screen
+                    ) {
+                        screen.onNewMessages(payload.ids());
+                    }
+                }
+            );
+
+            // Direct messages go to the chat HUD, mailbox pages included
+            ClientPlayNetworking.registerGlobalReceiver(
+                DirectMessagePayload.ID,
+                (payload, context) -> {
+                    for (HistoryPagePayload.Entry entry : payload.messages()) {
+                        context
+                            .client()
+                            .inGameHud.getChatHud()
+                            .addMessage(
+                                Text.literal(
+                                    "[DM] " +
+                                    senderName(context.client(), entry.player()) +
+                                    ": " +
+                                    entry.text()
+                                ).formatted(Formatting.LIGHT_PURPLE)
+                            );
+                    }
+                }
+            );
+
+            // Public messages of subscribed channels go to the chat HUD
+            ClientPlayNetworking.registerGlobalReceiver(
+                ChannelMessagePayload.ID,
+                (payload, context) ->
+                    context
+                        .client()
+                        .inGameHud.getChatHud()
+                        .addMessage(
+                            Text.literal(
+                                "[" +
+                                payload.channel() +
+                                "] " +
+                                senderName(context.client(), payload.sender()) +
+                                ": " +
+                                payload.text()
+                            ).formatted(Formatting.AQUA)
+                        )
+            );
+
+            // Outcome of the last batch from the outbound queue
+            ClientPlayNetworking.registerGlobalReceiver(
+                MessageAckPayload.ID,
+                (payload, context) ->
+                    OutboundQueue.forCurrentServer(context.client()).onAck(
+                        payload
+                    )
+            );
+
+            ClientPlayConnectionEvents.DISCONNECT.register(
+                (handler, client) -> {
+                    HistoryDiskCache.release();
+                    OutboundQueue.release();
+                }
+            );
+
             // Register tick event to check for key press
             ClientTickEvents.END_CLIENT_TICK.register(client -> {
                 if (openMessageScreenKey.wasPressed()) {
@@ -38,6 +126,10 @@ public class CraftMessageClient implements ClientModInitializer {
                         client.setScreen(new MessageScreen());
                     }
                 }
+                // Everything queued since the last tick goes out together
+                if (client.getNetworkHandler() != null) {
+                    OutboundQueue.forCurrentServer(client).flush();
+                }
             });
 
             LOGGER.info("CraftMessage client initialized successfully");
@@ -45,4 +137,16 @@ public class CraftMessageClient implements ClientModInitializer {
             LOGGER.error("Failed to initialize CraftMessage client", e);
         }
     }
+
+    private static String senderName(MinecraftClient client, UUID sender) {
+        if (client.getNetworkHandler() != null) {
+            PlayerListEntry entry = client
+                .getNetworkHandler()
+                .getPlayerListEntry(sender);
+            if (entry != null) {
+                return entry.getProfile().getName();
+            }
+        }
+        return sender.toString().substring(0, 8);
+    }
 }
@@ -0,0 +1,881 @@
+package com.example.craftmessage;
+
+import com.mojang.authlib.GameProfile;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.arguments.LongArgumentType;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import net.minecraft.util.UserCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Server-side /craftmessage admin commands and the /channel command for
+ * players
+ */
+public class CraftMessageCommands {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        CraftMessageCommands.class
+    );
+
+    private static final DateTimeFormatter HOUR_FORMAT =
+        DateTimeFormatter.ofPattern("MM-dd HH:00").withZone(ZoneOffset.UTC);
+
+    public static void register() {
+        CommandRegistrationCallback.EVENT.register(
+            (dispatcher, registryAccess, environment) -> register(dispatcher)
+        );
+        LOGGER.debug("CraftMessage commands registered");
+    }
+
+    private static void register(
+        CommandDispatcher<ServerCommandSource> dispatcher
+    ) {
+        dispatcher.register(
+            CommandManager.literal("craftmessage")
+                .requires(source -> source.hasPermissionLevel(2))
+                .then(
+                    CommandManager.literal("config")
+                        .executes(context -> showConfig(context.getSource()))
+                        .then(
+                            CommandManager.literal("reload").executes(
+                                context -> reloadConfig(context.getSource())
+                            )
+                        )
+                )
+                .then(
+                    CommandManager.literal("tick").executes(context ->
+                        showTickBudget(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("errors").executes(context ->
+                        showErrors(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("duplicates").executes(context ->
+                        showDuplicates(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("audit").executes(context ->
+                        showAudit(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("writers").executes(context ->
+                        showWriters(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("lanes").executes(context ->
+                        showLanes(context.getSource())
+                    )
+                )
+                .then(
+                    CommandManager.literal("shards")
+                        .executes(context -> showShards(context.getSource()))
+                        .then(
+                            CommandManager.literal("rebalance").executes(
+                                context -> rebalanceShards(context.getSource())
+                            )
+                        )
+                )
+                .then(
+                    CommandManager.literal("export").then(
+                        CommandManager.argument(
+                            "file",
+                            StringArgumentType.word()
+                        )
+                            .then(
+                                CommandManager.literal("ids").then(
+                                    CommandManager.argument(
+                                        "from",
+                                        LongArgumentType.longArg(1)
+                                    ).then(
+                                        CommandManager.argument(
+                                            "to",
+                                            LongArgumentType.longArg(1)
+                                        ).executes(context ->
+                                            exportIds(context)
+                                        )
+                                    )
+                                )
+                            )
+                            .then(
+                                CommandManager.literal("time").then(
+                                    CommandManager.argument(
+                                        "from",
+                                        StringArgumentType.word()
+                                    ).then(
+                                        CommandManager.argument(
+                                            "until",
+                                            StringArgumentType.word()
+                                        ).executes(context ->
+                                            exportTime(context)
+                                        )
+                                    )
+                                )
+                            )
+                            .then(
+                                CommandManager.literal("resume").executes(
+                                    context -> resumeExport(context)
+                                )
+                            )
+                    )
+                )
+                .then(
+                    CommandManager.literal("import").then(
+                        CommandManager.argument(
+                            "file",
+                            StringArgumentType.word()
+                        ).executes(context -> importArchive(context))
+                    )
+                )
+                .then(
+                    CommandManager.literal("top")
+                        .executes(context ->
+                            showTopPlayers(context.getSource(), 10)
+                        )
+                        .then(
+                            CommandManager.argument(
+                                "limit",
+                                IntegerArgumentType.integer(1, 100)
+                            ).executes(context ->
+                                showTopPlayers(
+                                    context.getSource(),
+                                    IntegerArgumentType.getInteger(
+                                        context,
+                                        "limit"
+                                    )
+                                )
+                            )
+                        )
+                        .then(
+                            CommandManager.literal("activity")
+                                .executes(context ->
+                                    showActivity(context.getSource(), 24)
+                                )
+                                .then(
+                                    CommandManager.argument(
+                                        "hours",
+                                        IntegerArgumentType.integer(1, 168)
+                                    ).executes(context ->
+                                        showActivity(
+                                            context.getSource(),
+                                            IntegerArgumentType.getInteger(
+                                                context,
+                                                "hours"
+                                            )
+                                        )
+                                    )
+                                )
+                        )
+                        .then(
+                            CommandManager.literal("reconcile").executes(
+                                context -> reconcileStats(context.getSource())
+                            )
+                        )
+                )
+                .then(
+                    CommandManager.literal("purge")
+                        .then(
+                            CommandManager.literal("player").then(
+                                CommandManager.argument(
+                                    "uuid",
+                                    StringArgumentType.word()
+                                ).executes(context -> purgePlayer(context))
+                            )
+                        )
+                        .then(
+                            CommandManager.literal("before").then(
+                                CommandManager.argument(
+                                    "date",
+                                    StringArgumentType.word()
+                                ).executes(context -> purgeBefore(context))
+                            )
+                        )
+                )
+        );
+
+        dispatcher.register(
+            CommandManager.literal("channel")
+                .executes(context -> listChannels(context.getSource()))
+                .then(
+                    CommandManager.literal("join").then(
+                        CommandManager.argument(
+                            "name",
+                            StringArgumentType.word()
+                        ).executes(context -> joinChannel(context, true))
+                    )
+                )
+                .then(
+                    CommandManager.literal("leave").then(
+                        CommandManager.argument(
+                            "name",
+                            StringArgumentType.word()
+                        ).executes(context -> joinChannel(context, false))
+                    )
+                )
+        );
+    }
+
+    /**
+     * List the configured channels with their online subscribers, marking
+     * the ones the player is subscribed to
+     */
+    private static int listChannels(ServerCommandSource source) {
+        ServerPlayerEntity player = source.getPlayer();
+        Set<String> subscribed = player != null
+            ? ChannelRegistry.subscriptions(player.getUuid())
+            : Set.of();
+        Set<String> channels = DatabaseConfig.getChannels();
+        for (String channel : channels) {
+            boolean joined = subscribed.contains(channel);
+            source.sendFeedback(
+                () ->
+                    Text.literal(
+                        "#" +
+                        channel +
+                        " (" +
+                        ChannelRegistry.getSubscriberCount(channel) +
+                        " online)" +
+                        (joined ? " - joined" : "")
+                    ).formatted(joined ? Formatting.GREEN : Formatting.GRAY),
+                false
+            );
+        }
+        return channels.size();
+    }
+
+    private static int joinChannel(
+        CommandContext<ServerCommandSource> context,
+        boolean join
+    ) throws CommandSyntaxException {
+        ServerPlayerEntity player = context.getSource().getPlayerOrThrow();
+        String name = StringArgumentType.getString(context, "name");
+        String channel = ChannelRegistry.resolve(name);
+        if (channel == null) {
+            context
+                .getSource()
+                .sendError(Text.literal("Unknown channel: " + name));
+            return 0;
+        }
+        boolean changed = join
+            ? ChannelRegistry.join(player, channel)
+            : ChannelRegistry.leave(player, channel);
+        String message;
+        if (join) {
+            message = changed ? "Joined #" + channel : "Already in #" + channel;
+        } else {
+            message = changed ? "Left #" + channel : "Not in #" + channel;
+        }
+        context.getSource().sendFeedback(() -> Text.literal(message), false);
+        return changed ? 1 : 0;
+    }
+
+    /**
+     * Print the effective settings, marking the ones applied live
+     */
+    private static int showConfig(ServerCommandSource source) {
+        Map<String, String> settings = DatabaseConfig.getEffectiveSettings();
+        source.sendFeedback(
+            () ->
+                Text.literal(
+                    "CraftMessage config (" + DatabaseConfig.getSource() + ")"
+                ).formatted(Formatting.GOLD),
+            false
+        );
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            boolean live = DatabaseConfig.isLiveSetting(entry.getKey());
+            source.sendFeedback(
+                () ->
+                    Text.literal(entry.getKey() + " = ")
+                        .formatted(live ? Formatting.GREEN : Formatting.GRAY)
+                        .append(
+                            Text.literal(entry.getValue()).formatted(
+                                Formatting.WHITE
+                            )
+                        ),
+                false
+            );
+        }
+        return settings.size();
+    }
+
+    private static int reloadConfig(ServerCommandSource source) {
+        Set<String> changed = DatabaseConfig.reload();
+        source.sendFeedback(
+            () ->
+                Text.literal(
+                    changed.isEmpty()
+                        ? "No live settings changed"
+                        : "Applied: " + String.join(", ", changed)
+                ),
+            true
+        );
+        return changed.size();
+    }
+
+    private static int showTickBudget(ServerCommandSource source) {
+        for (String line : TickBudget.report()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print database failures and retries per error class
+     */
+    private static int showErrors(ServerCommandSource source) {
+        for (String line : RetryPolicy.report()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print how many repeated messages were suppressed
+     */
+    private static int showDuplicates(ServerCommandSource source) {
+        for (String line : DuplicateSuppressor.report()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print per-writer batch and queue metrics
+     */
+    private static int showWriters(ServerCommandSource source) {
+        for (String line : DatabaseManager.writerReport()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print per-lane permits, queues and latency of the database scheduler
+     */
+    private static int showLanes(ServerCommandSource source) {
+        for (String line : DatabaseScheduler.report()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print audit log counters, including records dropped under load
+     */
+    private static int showAudit(ServerCommandSource source) {
+        for (String line : AuditLog.report()) {
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return 1;
+    }
+
+    /**
+     * Print the number of messages stored on every shard
+     */
+    private static int showShards(ServerCommandSource source) {
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, store -> {
+            ShardedMessageRepository repository = sharded(store);
+            long[] counts = new long[repository.getShardCount()];
+            for (int shard = 0; shard < counts.length; shard++) {
+                counts[shard] = repository.getShard(shard).count();
+            }
+            return counts;
+        }).whenComplete((counts, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, "Shard status", error);
+                        return;
+                    }
+                    for (int shard = 0; shard < counts.length; shard++) {
+                        String line =
+                            "Shard " +
+                            shard +
+                            ": " +
+                            counts[shard] +
+                            " messages";
+                        source.sendFeedback(() -> Text.literal(line), false);
+                    }
+                })
+        );
+        return 1;
+    }
+
+    private static ShardedMessageRepository sharded(MessageStore store) {
+        if (store instanceof ShardedMessageRepository repository) {
+            return repository;
+        }
+        throw new IllegalStateException(
+            "Message store is not sharded (database.store=" +
+            DatabaseConfig.getStore() +
+            ")"
+        );
+    }
+
+    /**
+     * Move players to the shards that own them after shards were added
+     */
+    private static int rebalanceShards(ServerCommandSource source) {
+        source.sendFeedback(() -> Text.literal("Rebalance started"), true);
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.BULK, store ->
+            sharded(store).rebalance()
+        ).whenComplete((result, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, "Rebalance", error);
+                    } else {
+                        source.sendFeedback(
+                            () ->
+                                Text.literal(
+                                    "Rebalance finished: moved " +
+                                    result.messages() +
+                                    " messages of " +
+                                    result.players() +
+                                    " players"
+                                ),
+                            true
+                        );
+                    }
+                })
+        );
+        return 1;
+    }
+
+    /**
+     * Leaderboard of the players with the most messages, read from the
+     * player_stats rollup
+     */
+    private static int showTopPlayers(ServerCommandSource source, int limit) {
+        long started = System.nanoTime();
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, store ->
+            store.findTopPlayers(limit)
+        ).whenComplete((players, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, "Statistics", error);
+                        return;
+                    }
+                    long millis = (System.nanoTime() - started) / 1_000_000L;
+                    source.sendFeedback(
+                        () ->
+                            Text.literal(
+                                "Top " +
+                                players.size() +
+                                " players (" +
+                                millis +
+                                " ms)"
+                            ).formatted(Formatting.GOLD),
+                        false
+                    );
+                    for (int i = 0; i < players.size(); i++) {
+                        PlayerActivity player = players.get(i);
+                        String line =
+                            (i + 1) +
+                            ". " +
+                            playerName(source, player.player()) +
+                            ": " +
+                            player.messages() +
+                            " messages, " +
+                            player.characters() +
+                            " characters";
+                        source.sendFeedback(() -> Text.literal(line), false);
+                    }
+                })
+        );
+        return 1;
+    }
+
+    private static String playerName(ServerCommandSource source, UUID uuid) {
+        UserCache users = source.getServer().getUserCache();
+        Optional<GameProfile> profile = users != null
+            ? users.getByUuid(uuid)
+            : Optional.empty();
+        return profile
+            .map(GameProfile::getName)
+            .orElse(uuid.toString().substring(0, 8));
+    }
+
+    /**
+     * Bar graph of messages per hour over the last hours, read from the
+     * hourly_stats rollup. Longer ranges are drawn with several hours per
+     * bar so the graph stays at most 24 lines.
+     */
+    private static int showActivity(ServerCommandSource source, int hours) {
+        long started = System.nanoTime();
+        Instant until = Instant.now()
+            .truncatedTo(ChronoUnit.HOURS)
+            .plus(1, ChronoUnit.HOURS);
+        Instant from = until.minus(hours, ChronoUnit.HOURS);
+        int hoursPerBar = (hours + 23) / 24;
+        int barCount = (hours + hoursPerBar - 1) / hoursPerBar;
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, store ->
+            store.findHourlyActivity(from, until)
+        ).whenComplete((activity, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, "Statistics", error);
+                        return;
+                    }
+                    long[] bars = new long[barCount];
+                    long total = 0;
+                    for (HourlyActivity hour : activity) {
+                        long offset = ChronoUnit.HOURS.between(
+                            from,
+                            hour.hour()
+                        );
+                        bars[(int) (offset / hoursPerBar)] += hour.messages();
+                        total += hour.messages();
+                    }
+                    long max = Math.max(1, Arrays.stream(bars).max().orElse(0));
+                    long millis = (System.nanoTime() - started) / 1_000_000L;
+                    String title =
+                        total +
+                        " messages in the last " +
+                        hours +
+                        " hours (" +
+                        millis +
+                        " ms)";
+                    source.sendFeedback(
+                        () -> Text.literal(title).formatted(Formatting.GOLD),
+                        false
+                    );
+                    for (int i = 0; i < bars.length; i++) {
+                        String label = HOUR_FORMAT.format(
+                            from.plus((long) i * hoursPerBar, ChronoUnit.HOURS)
+                        );
+                        String bar = "|".repeat((int) (bars[i] * 40 / max));
+                        String count = " " + bars[i];
+                        source.sendFeedback(
+                            () ->
+                                Text.literal(label + " ")
+                                    .append(
+                                        Text.literal(bar).formatted(
+                                            Formatting.GREEN
+                                        )
+                                    )
+                                    .append(Text.literal(count)),
+                            false
+                        );
+                    }
+                })
+        );
+        return 1;
+    }
+
+    private static int reconcileStats(ServerCommandSource source) {
+        RollupReconciler.reconcile().whenComplete((corrected, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, "Reconcile", error);
+                    } else if (corrected < 0) {
+                        source.sendError(
+                            Text.literal("Reconcile is running already")
+                        );
+                    } else {
+                        source.sendFeedback(
+                            () ->
+                                Text.literal(
+                                    "Reconcile finished: corrected " +
+                                    corrected +
+                                    " entries"
+                                ),
+                            true
+                        );
+                    }
+                })
+        );
+        return 1;
+    }
+
+    private static int purgePlayer(
+        CommandContext<ServerCommandSource> context
+    ) {
+        UUID player;
+        try {
+            player = UUID.fromString(
+                StringArgumentType.getString(context, "uuid")
+            );
+        } catch (IllegalArgumentException e) {
+            context.getSource().sendError(Text.literal("Invalid player UUID"));
+            return 0;
+        }
+        return runPurge(context.getSource(), "Purge of " + player, store ->
+            store.deleteByPlayer(player)
+        );
+    }
+
+    /**
+     * Delete messages created before the start of the given UTC day
+     */
+    private static int purgeBefore(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Instant before;
+        try {
+            before = LocalDate.parse(StringArgumentType.getString(context, "date"))
+                .atStartOfDay(ZoneOffset.UTC)
+                .toInstant();
+        } catch (DateTimeParseException e) {
+            context
+                .getSource()
+                .sendError(Text.literal("Dates must look like 2025-01-31"));
+            return 0;
+        }
+        return runPurge(
+            context.getSource(),
+            "Purge before " + before,
+            store -> store.deleteOlderThan(before)
+        );
+    }
+
+    private static int runPurge(
+        ServerCommandSource source,
+        String description,
+        Function<MessageStore, Long> task
+    ) {
+        source.sendFeedback(
+            () -> Text.literal(description + " started"),
+            true
+        );
+        DatabaseManager.supplyAsync(
+            DatabaseScheduler.Lane.BULK,
+            task
+        ).whenComplete((deleted, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, description, error);
+                    } else {
+                        // Deletes leave the activity rollups behind
+                        RollupReconciler.reconcile();
+                        source.sendFeedback(
+                            () ->
+                                Text.literal(
+                                    description +
+                                    " finished: deleted " +
+                                    deleted +
+                                    " messages"
+                                ),
+                            true
+                        );
+                    }
+                })
+        );
+        return 1;
+    }
+
+    private static int exportIds(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Path file = archiveFile(context);
+        if (file == null) {
+            return 0;
+        }
+        MessageArchiver.Range range = MessageArchiver.Range.ids(
+            LongArgumentType.getLong(context, "from"),
+            LongArgumentType.getLong(context, "to")
+        );
+        return runArchiveTask(context.getSource(), "Export", repository -> {
+            try {
+                return MessageArchiver.export(repository, file, range);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Export whole UTC days, e.g. "time 2025-01-01 2025-01-31"
+     */
+    private static int exportTime(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Path file = archiveFile(context);
+        if (file == null) {
+            return 0;
+        }
+        Instant from;
+        Instant until;
+        try {
+            from = LocalDate.parse(StringArgumentType.getString(context, "from"))
+                .atStartOfDay(ZoneOffset.UTC)
+                .toInstant();
+            until = LocalDate.parse(
+                StringArgumentType.getString(context, "until")
+            )
+                .plusDays(1)
+                .atStartOfDay(ZoneOffset.UTC)
+                .toInstant();
+        } catch (DateTimeParseException e) {
+            context
+                .getSource()
+                .sendError(Text.literal("Dates must look like 2025-01-31"));
+            return 0;
+        }
+        MessageArchiver.Range range = MessageArchiver.Range.time(from, until);
+        return runArchiveTask(context.getSource(), "Export", repository -> {
+            try {
+                return MessageArchiver.export(repository, file, range);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static int resumeExport(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Path file = archiveFile(context);
+        if (file == null) {
+            return 0;
+        }
+        return runArchiveTask(context.getSource(), "Export", repository -> {
+            try {
+                return MessageArchiver.resume(repository, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static int importArchive(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Path file = archiveFile(context);
+        if (file == null) {
+            return 0;
+        }
+        return runArchiveTask(context.getSource(), "Import", repository -> {
+            try {
+                return MessageArchiver.importArchive(repository, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Resolve an archive name inside craftmessage/archive in the game dir
+     */
+    private static Path archiveFile(
+        CommandContext<ServerCommandSource> context
+    ) {
+        Path directory = FabricLoader.getInstance()
+            .getGameDir()
+            .resolve(CraftMessageMod.MOD_ID)
+            .resolve("archive")
+            .toAbsolutePath()
+            .normalize();
+        String name = StringArgumentType.getString(context, "file");
+        Path file = directory.resolve(name).normalize();
+        if (!file.getParent().equals(directory)) {
+            context
+                .getSource()
+                .sendError(Text.literal("Invalid archive name: " + name));
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Log a failed background task and report it to the command source
+     */
+    private static void reportFailure(
+        ServerCommandSource source,
+        String action,
+        Throwable error
+    ) {
+        Throwable cause = DatabaseScheduler.causeOf(error);
+        LOGGER.error("{} failed", action, cause);
+        source.sendError(
+            Text.literal(action + " failed: " + cause.getMessage())
+        );
+    }
+
+    /**
+     * Run an archive job in the bulk lane and report back on the server
+     * thread when it finishes
+     */
+    private static int runArchiveTask(
+        ServerCommandSource source,
+        String description,
+        Function<MessageStore, MessageArchiver.Result> task
+    ) {
+        source.sendFeedback(
+            () -> Text.literal(description + " started"),
+            true
+        );
+        DatabaseManager.supplyAsync(
+            DatabaseScheduler.Lane.BULK,
+            task
+        ).whenComplete((result, error) ->
+            source
+                .getServer()
+                .execute(() -> {
+                    if (error != null) {
+                        reportFailure(source, description, error);
+                    } else {
+                        source.sendFeedback(
+                            () ->
+                                Text.literal(
+                                    description +
+                                    " of " +
+                                    result.file().getFileName() +
+                                    " finished: " +
+                                    result.rows() +
+                                    " messages, last ID " +
+                                    result.lastId() +
+                                    (result.idsPast() >= 0
+                                        ? ", new IDs start after " +
+                                          result.idsPast()
+                                        : "")
+                                ),
+                            true
+                        );
+                    }
+                })
+        );
+        return 1;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.craftmessage;
 
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,11 +14,41 @@ public class CraftMessageMod implements ModInitializer {
     public void onInitialize() {
         LOGGER.info("CraftMessage mod initializing...");
 
-        // Hibernate will be initialized lazily when needed
+        // Hibernate is opened in the background while the server starts,
+        // or lazily on first use when database.bootstrap.eager=false
+
+        // Pick up edits to config/craftmessage/database.properties
+        DatabaseConfig.startWatching();
 
         // Register simple message handler
         try {
+            MessageFilter.register();
             SimpleMessageHandler.register();
+            MessageHistoryHandler.register();
+            MessageNotifier.register();
+            DirectMessageRouter.register();
+            ChannelRegistry.register();
+            RollupReconciler.register();
+            CraftMessageCommands.register();
+            TickBudget.register();
+
+            ServerLifecycleEvents.SERVER_STARTING.register(server -> {
+                if (DatabaseConfig.isEagerBootstrap()) {
+                    DatabaseManager.initializeAsync();
+                }
+            });
+
+            // Persist queued messages off the server thread, flush on stop;
+            // the audit log outlives the writer so its last saves are kept
+            ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+                AuditLog.start();
+                DatabaseManager.startWriter();
+            });
+            ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+                DatabaseManager.stopWriter(10_000L);
+                AuditLog.stop(5_000L);
+            });
+
             LOGGER.info("CraftMessage mod initialized successfully");
         } catch (Exception e) {
             LOGGER.error("Failed to initialize CraftMessage mod", e);
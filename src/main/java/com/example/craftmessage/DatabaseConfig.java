@@ -2,33 +2,419 @@ package com.example.craftmessage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import net.fabricmc.loader.api.FabricLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Utility class to read database configuration from database.properties file
+ * Utility class to read database configuration from database.properties file.
+ * The file is looked up in the server config directory
+ * (config/craftmessage/database.properties) and falls back to the copy
+ * bundled in the jar. The external file is watched and safe settings are
+ * applied live by swapping in a new immutable snapshot.
  */
 public class DatabaseConfig {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(
         DatabaseConfig.class
     );
-    private static final Properties properties = new Properties();
-    private static boolean loaded = false;
+    private static final String FILE_NAME = "database.properties";
+
+    /**
+     * System property that points at an explicit config file, used by tools
+     * running outside of Fabric
+     */
+    public static final String CONFIG_PROPERTY = "craftmessage.config";
+
+    /**
+     * Settings that can change while the server is running. Everything else
+     * (URL, credentials, dialect, ...) only takes effect after a restart.
+     */
+    private static final Set<String> LIVE_KEYS = Set.of(
+        "database.pool.maximumPoolSize",
+        "database.pool.minimumIdle",
+        "database.batch.size",
+        "database.batch.adaptive",
+        "database.batch.maxSize",
+        "database.batch.targetMillis",
+        "database.batch.maxLingerMillis",
+        "database.lanes.write.connections",
+        "database.lanes.read.connections",
+        "database.lanes.bulk.connections",
+        "database.lanes.write.weight",
+        "database.lanes.read.weight",
+        "database.lanes.bulk.weight",
+        "database.lanes.bulk.maxPauseMillis",
+        "messages.rateLimit.perSecond",
+        "messages.rateLimit.burst",
+        "cache.players.maxEntries",
+        "tick.budgetMicros",
+        "messages.filter.action",
+        "database.retry.maxAttempts",
+        "database.retry.baseDelayMillis",
+        "database.retry.maxDelayMillis",
+        "database.retry.budgetPercent",
+        "messages.channels",
+        "stats.reconcile.intervalMinutes",
+        "messages.dedup.action",
+        "messages.dedup.windowSeconds",
+        "messages.dedup.windowSize",
+        "audit.maxFileMegabytes",
+        "audit.maxFiles"
+    );
+
+    private static final Set<String> FILTER_ACTIONS = Set.of(
+        "block",
+        "mask",
+        "off"
+    );
+
+    private static final Set<String> DEDUP_ACTIONS = Set.of(
+        "drop",
+        "collapse",
+        "off"
+    );
+
+    private static final Set<String> STORES = Set.of("jpa", "embedded");
+
+    private static final Pattern CHANNEL_NAME = Pattern.compile(
+        "[a-z0-9_-]{1,32}"
+    );
+
+    private static final AtomicReference<Snapshot> current =
+        new AtomicReference<>();
+    private static final List<Consumer<Set<String>>> listeners =
+        new CopyOnWriteArrayList<>();
+    private static final Map<Path, Runnable> fileListeners =
+        new ConcurrentHashMap<>();
+    private static volatile Path externalFile;
+    private static volatile boolean loaded = false;
+    private static Thread watcherThread;
 
     static {
         loadProperties();
     }
 
     /**
-     * Load database properties from database.properties file
+     * Immutable, already validated view of one version of the config file
+     */
+    private static final class Snapshot {
+
+        final Properties properties;
+        final String source;
+        final int maximumPoolSize;
+        final int minimumIdle;
+        final int batchSize;
+        final int batchMaxSize;
+        final int batchTargetMillis;
+        final int batchMaxLingerMillis;
+        final int rateLimitPerSecond;
+        final int rateLimitBurst;
+        final int playerCacheSize;
+        final int queueCapacity;
+        final int writers;
+        final Map<String, Integer> laneConnections;
+        final Map<String, Integer> laneWeights;
+        final int bulkMaxPauseMillis;
+        final int tickBudgetMicros;
+        final String filterAction;
+        final int shardCount;
+        final String store;
+        final int retryMaxAttempts;
+        final int retryBaseDelayMillis;
+        final int retryMaxDelayMillis;
+        final int retryBudgetPercent;
+        final Set<String> channels;
+        final int reconcileIntervalMinutes;
+        final String dedupAction;
+        final int dedupWindowSeconds;
+        final int dedupWindowSize;
+        final int auditBufferSize;
+        final int auditMaxFileMegabytes;
+        final int auditMaxFiles;
+
+        Snapshot(Properties properties, String source) {
+            this.properties = properties;
+            this.source = source;
+            this.maximumPoolSize = intValue(
+                properties,
+                "database.pool.maximumPoolSize",
+                10
+            );
+            this.minimumIdle = intValue(
+                properties,
+                "database.pool.minimumIdle",
+                2
+            );
+            this.batchSize = intValue(properties, "database.batch.size", 50);
+            this.batchMaxSize = intValue(
+                properties,
+                "database.batch.maxSize",
+                1000
+            );
+            this.batchTargetMillis = intValue(
+                properties,
+                "database.batch.targetMillis",
+                50
+            );
+            this.batchMaxLingerMillis = intValue(
+                properties,
+                "database.batch.maxLingerMillis",
+                5
+            );
+            this.rateLimitPerSecond = intValue(
+                properties,
+                "messages.rateLimit.perSecond",
+                0
+            );
+            this.rateLimitBurst = intValue(
+                properties,
+                "messages.rateLimit.burst",
+                5
+            );
+            this.playerCacheSize = intValue(
+                properties,
+                "cache.players.maxEntries",
+                10000
+            );
+            this.queueCapacity = intValue(
+                properties,
+                "database.queue.capacity",
+                8192
+            );
+            this.writers = intValue(properties, "database.writers", 0);
+            this.laneConnections = Map.of(
+                "write",
+                intValue(properties, "database.lanes.write.connections", 0),
+                "read",
+                intValue(properties, "database.lanes.read.connections", 3),
+                "bulk",
+                intValue(properties, "database.lanes.bulk.connections", 1)
+            );
+            this.laneWeights = Map.of(
+                "write",
+                intValue(properties, "database.lanes.write.weight", 6),
+                "read",
+                intValue(properties, "database.lanes.read.weight", 3),
+                "bulk",
+                intValue(properties, "database.lanes.bulk.weight", 1)
+            );
+            this.bulkMaxPauseMillis = intValue(
+                properties,
+                "database.lanes.bulk.maxPauseMillis",
+                200
+            );
+            this.tickBudgetMicros = intValue(
+                properties,
+                "tick.budgetMicros",
+                2000
+            );
+            this.filterAction = properties
+                .getProperty("messages.filter.action", "block")
+                .trim()
+                .toLowerCase(Locale.ROOT);
+            if (!FILTER_ACTIONS.contains(filterAction)) {
+                throw new IllegalArgumentException(
+                    "messages.filter.action must be one of " +
+                    FILTER_ACTIONS +
+                    ": " +
+                    filterAction
+                );
+            }
+            this.shardCount = Math.max(
+                1,
+                intValue(properties, "database.shards", 1)
+            );
+            for (int shard = 1; shard < shardCount; shard++) {
+                String key = "database.shard." + shard + ".url";
+                String url = properties.getProperty(key);
+                if (url == null || url.isBlank()) {
+                    throw new IllegalArgumentException(
+                        key + " is required when database.shards=" + shardCount
+                    );
+                }
+            }
+            this.store = properties
+                .getProperty("database.store", "jpa")
+                .trim()
+                .toLowerCase(Locale.ROOT);
+            if (!STORES.contains(store)) {
+                throw new IllegalArgumentException(
+                    "database.store must be one of " + STORES + ": " + store
+                );
+            }
+            this.retryMaxAttempts = intValue(
+                properties,
+                "database.retry.maxAttempts",
+                3
+            );
+            this.retryBaseDelayMillis = intValue(
+                properties,
+                "database.retry.baseDelayMillis",
+                50
+            );
+            this.retryMaxDelayMillis = intValue(
+                properties,
+                "database.retry.maxDelayMillis",
+                2000
+            );
+            this.retryBudgetPercent = intValue(
+                properties,
+                "database.retry.budgetPercent",
+                10
+            );
+            Set<String> channels = new LinkedHashSet<>();
+            channels.add(MessageEntity.DEFAULT_CHANNEL);
+            String[] names = properties
+                .getProperty("messages.channels", "")
+                .split(",");
+            for (String name : names) {
+                String channel = name.trim().toLowerCase(Locale.ROOT);
+                if (channel.isEmpty()) {
+                    continue;
+                }
+                if (!CHANNEL_NAME.matcher(channel).matches()) {
+                    throw new IllegalArgumentException(
+                        "messages.channels entries must be 1-32 of a-z, 0-9, " +
+                        "_ or -: " +
+                        channel
+                    );
+                }
+                channels.add(channel);
+            }
+            this.channels = Collections.unmodifiableSet(channels);
+            this.reconcileIntervalMinutes = intValue(
+                properties,
+                "stats.reconcile.intervalMinutes",
+                1440
+            );
+            this.dedupAction = properties
+                .getProperty("messages.dedup.action", "drop")
+                .trim()
+                .toLowerCase(Locale.ROOT);
+            if (!DEDUP_ACTIONS.contains(dedupAction)) {
+                throw new IllegalArgumentException(
+                    "messages.dedup.action must be one of " +
+                    DEDUP_ACTIONS +
+                    ": " +
+                    dedupAction
+                );
+            }
+            this.dedupWindowSeconds = intValue(
+                properties,
+                "messages.dedup.windowSeconds",
+                30
+            );
+            this.dedupWindowSize = intValue(
+                properties,
+                "messages.dedup.windowSize",
+                8
+            );
+            this.auditBufferSize = intValue(
+                properties,
+                "audit.bufferSize",
+                65536
+            );
+            this.auditMaxFileMegabytes = intValue(
+                properties,
+                "audit.maxFileMegabytes",
+                64
+            );
+            this.auditMaxFiles = intValue(properties, "audit.maxFiles", 10);
+        }
+
+        private static int intValue(
+            Properties properties,
+            String key,
+            int defaultValue
+        ) {
+            String value = properties.getProperty(key);
+            if (value == null || value.isBlank()) {
+                return defaultValue;
+            }
+            try {
+                int parsed = Integer.parseInt(value.trim());
+                if (parsed < 0) {
+                    throw new IllegalArgumentException(
+                        key + " must not be negative: " + value
+                    );
+                }
+                return parsed;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                    key + " is not a number: " + value
+                );
+            }
+        }
+    }
+
+    /**
+     * Load database properties, preferring the external config file
      */
     private static void loadProperties() {
+        Properties defaults = loadClasspathDefaults();
+        externalFile = resolveExternalFile();
+
+        if (externalFile != null && !Files.exists(externalFile)) {
+            writeDefaultFile(externalFile);
+        }
+
+        try {
+            if (externalFile != null && Files.isReadable(externalFile)) {
+                current.set(
+                    new Snapshot(
+                        readExternal(defaults, externalFile),
+                        externalFile.toString()
+                    )
+                );
+            } else {
+                current.set(new Snapshot(defaults, "classpath"));
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error(
+                "Failed to load {}, using bundled defaults: {}",
+                externalFile,
+                e.getMessage()
+            );
+            current.set(new Snapshot(defaults, "classpath"));
+        }
+
+        loaded = true;
+        LOGGER.debug(
+            "Database properties loaded successfully from {}",
+            current.get().source
+        );
+        LOGGER.debug("Database URL: {}", getUrl());
+        LOGGER.debug("Database username: {}", getUsername());
+    }
+
+    private static Properties loadClasspathDefaults() {
         try (
             InputStream input =
                 DatabaseConfig.class.getClassLoader().getResourceAsStream(
-                    "database.properties"
+                    FILE_NAME
                 )
         ) {
             if (input == null) {
@@ -40,17 +426,9 @@ public class DatabaseConfig {
                 );
             }
 
+            Properties properties = new Properties();
             properties.load(input);
-            loaded = true;
-            LOGGER.debug("Database properties loaded successfully from file");
-            LOGGER.debug(
-                "Database URL: {}",
-                properties.getProperty("database.url")
-            );
-            LOGGER.debug(
-                "Database username: {}",
-                properties.getProperty("database.username")
-            );
+            return properties;
         } catch (IOException e) {
             LOGGER.error(
                 "Failed to load database.properties: {}",
@@ -62,46 +440,395 @@ public class DatabaseConfig {
         }
     }
 
+    private static Path resolveExternalFile() {
+        String override = System.getProperty(CONFIG_PROPERTY);
+        if (override != null && !override.isBlank()) {
+            return Path.of(override).toAbsolutePath();
+        }
+        try {
+            return FabricLoader.getInstance()
+                .getConfigDir()
+                .resolve(CraftMessageMod.MOD_ID)
+                .resolve(FILE_NAME);
+        } catch (Throwable t) {
+            // Not running inside Fabric (headless tools), classpath only
+            LOGGER.debug("No Fabric config directory: {}", t.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeDefaultFile(Path file) {
+        try (
+            InputStream input =
+                DatabaseConfig.class.getClassLoader().getResourceAsStream(
+                    FILE_NAME
+                )
+        ) {
+            if (input == null) {
+                return;
+            }
+            Files.createDirectories(file.getParent());
+            Files.copy(input, file);
+            LOGGER.info("Wrote default database configuration to {}", file);
+        } catch (IOException e) {
+            LOGGER.warn(
+                "Could not write default configuration to {}: {}",
+                file,
+                e.getMessage()
+            );
+        }
+    }
+
+    private static Properties readExternal(Properties defaults, Path file)
+        throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(defaults);
+        try (InputStream input = Files.newInputStream(file)) {
+            properties.load(input);
+        }
+        return properties;
+    }
+
+    /**
+     * Re-read the external config file and atomically publish the result.
+     * Settings that need a restart keep their current value.
+     *
+     * @return the live settings that changed
+     */
+    public static synchronized Set<String> reload() {
+        Path file = externalFile;
+        if (file == null || !Files.isReadable(file)) {
+            LOGGER.warn("No external configuration file to reload");
+            return Set.of();
+        }
+
+        Snapshot previous = current.get();
+        Snapshot next;
+        try {
+            Properties properties = readExternal(
+                loadClasspathDefaults(),
+                file
+            );
+
+            Set<String> keys = new LinkedHashSet<>(
+                properties.stringPropertyNames()
+            );
+            keys.addAll(previous.properties.stringPropertyNames());
+            for (String key : keys) {
+                if (LIVE_KEYS.contains(key)) {
+                    continue;
+                }
+                String oldValue = previous.properties.getProperty(key);
+                if (!Objects.equals(oldValue, properties.getProperty(key))) {
+                    LOGGER.warn(
+                        "Setting {} changed - restart the server to apply it",
+                        key
+                    );
+                    if (oldValue == null) {
+                        properties.remove(key);
+                    } else {
+                        properties.setProperty(key, oldValue);
+                    }
+                }
+            }
+            next = new Snapshot(properties, file.toString());
+        } catch (IOException | IllegalArgumentException e) {
+            LOGGER.error(
+                "Rejected configuration change in {}: {}",
+                file,
+                e.getMessage()
+            );
+            return Set.of();
+        }
+
+        Set<String> changed = new LinkedHashSet<>();
+        for (String key : LIVE_KEYS) {
+            if (
+                !Objects.equals(
+                    previous.properties.getProperty(key),
+                    next.properties.getProperty(key)
+                )
+            ) {
+                changed.add(key);
+            }
+        }
+
+        current.set(next);
+
+        if (!changed.isEmpty()) {
+            LOGGER.info("Applied configuration changes: {}", changed);
+            for (Consumer<Set<String>> listener : listeners) {
+                try {
+                    listener.accept(changed);
+                } catch (Exception e) {
+                    LOGGER.error("Configuration listener failed", e);
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Register a callback that receives the names of live settings after
+     * they changed
+     */
+    public static void addChangeListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Register a callback that runs after another file in the config
+     * directory was created or modified, e.g. a word list
+     */
+    public static void addFileListener(String fileName, Runnable listener) {
+        fileListeners.put(Path.of(fileName), listener);
+    }
+
+    /**
+     * Get the directory the external config file lives in, null when only
+     * the bundled defaults are used
+     */
+    public static Path getConfigDirectory() {
+        Path file = externalFile;
+        return file != null ? file.getParent() : null;
+    }
+
+    /**
+     * Start watching the external config file and registered files next to
+     * it for changes
+     */
+    public static synchronized void startWatching() {
+        Path file = externalFile;
+        if (watcherThread != null || file == null || file.getParent() == null) {
+            return;
+        }
+
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            file
+                .getParent()
+                .register(
+                    watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY
+                );
+        } catch (IOException e) {
+            LOGGER.warn(
+                "Cannot watch {} for changes: {}",
+                file,
+                e.getMessage()
+            );
+            return;
+        }
+
+        watcherThread = new Thread(
+            () -> watchLoop(watchService, file),
+            "craftmessage-config-watcher"
+        );
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        LOGGER.debug("Watching {} for changes", file);
+    }
+
+    private static void watchLoop(WatchService watchService, Path file) {
+        Path fileName = file.getFileName();
+        try (watchService) {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean relevant = false;
+                Set<Runnable> changedFiles = new LinkedHashSet<>();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (fileName.equals(event.context())) {
+                        relevant = true;
+                    }
+                    Runnable listener = fileListeners.get(event.context());
+                    if (listener != null) {
+                        changedFiles.add(listener);
+                    }
+                }
+                key.reset();
+
+                if (relevant || !changedFiles.isEmpty()) {
+                    // Editors often write in several steps, let them finish
+                    Thread.sleep(200);
+                    WatchKey pending;
+                    while ((pending = watchService.poll()) != null) {
+                        for (WatchEvent<?> event : pending.pollEvents()) {
+                            if (fileName.equals(event.context())) {
+                                relevant = true;
+                            }
+                            Runnable listener = fileListeners.get(
+                                event.context()
+                            );
+                            if (listener != null) {
+                                changedFiles.add(listener);
+                            }
+                        }
+                        pending.reset();
+                    }
+                    if (relevant) {
+                        reload();
+                    }
+                    for (Runnable listener : changedFiles) {
+                        try {
+                            listener.run();
+                        } catch (Exception e) {
+                            LOGGER.error("File change listener failed", e);
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.warn("Config watcher stopped: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Get the effective settings with secrets masked, sorted by key
+     */
+    public static Map<String, String> getEffectiveSettings() {
+        Properties properties = current.get().properties;
+        Map<String, String> settings = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = key.contains("password")
+                ? "********"
+                : properties.getProperty(key);
+            settings.put(key, value);
+        }
+        return settings;
+    }
+
+    /**
+     * Get where the current settings were loaded from
+     */
+    public static String getSource() {
+        return current.get().source;
+    }
+
+    /**
+     * Check whether a setting is applied without a restart
+     */
+    public static boolean isLiveSetting(String key) {
+        return LIVE_KEYS.contains(key);
+    }
+
     /**
      * Get database connection URL
      */
     public static String getUrl() {
-        return properties.getProperty("database.url");
+        return current.get().properties.getProperty("database.url");
+    }
+
+    /**
+     * Get the message store backend: jpa or embedded
+     */
+    public static String getStore() {
+        return current.get().store;
+    }
+
+    /**
+     * Get the directory of the embedded store, by default
+     * craftmessage/store in the game directory
+     */
+    public static Path getEmbeddedPath() {
+        String path = current.get().properties.getProperty(
+            "database.embedded.path"
+        );
+        if (path != null && !path.isBlank()) {
+            return Path.of(path.trim()).toAbsolutePath();
+        }
+        try {
+            return FabricLoader.getInstance()
+                .getGameDir()
+                .resolve(CraftMessageMod.MOD_ID)
+                .resolve("store");
+        } catch (Throwable t) {
+            // Not running inside Fabric, relative to the working directory
+            return Path.of(CraftMessageMod.MOD_ID, "store").toAbsolutePath();
+        }
+    }
+
+    /**
+     * Get number of databases messages are spread over
+     */
+    public static int getShardCount() {
+        return current.get().shardCount;
+    }
+
+    /**
+     * Get connection URL of a shard, shard 0 is database.url
+     */
+    public static String getShardUrl(int shard) {
+        return shard == 0 ? getUrl() : shardProperty(shard, "url", null);
+    }
+
+    /**
+     * Get username of a shard, defaults to database.username
+     */
+    public static String getShardUsername(int shard) {
+        return shard == 0
+            ? getUsername()
+            : shardProperty(shard, "username", getUsername());
+    }
+
+    /**
+     * Get password of a shard, defaults to database.password
+     */
+    public static String getShardPassword(int shard) {
+        return shard == 0
+            ? getPassword()
+            : shardProperty(shard, "password", getPassword());
+    }
+
+    private static String shardProperty(
+        int shard,
+        String name,
+        String defaultValue
+    ) {
+        return current
+            .get()
+            .properties.getProperty(
+                "database.shard." + shard + "." + name,
+                defaultValue
+            );
     }
 
     /**
      * Get database username
      */
     public static String getUsername() {
-        return properties.getProperty("database.username");
+        return current.get().properties.getProperty("database.username");
     }
 
     /**
      * Get database password
      */
     public static String getPassword() {
-        return properties.getProperty("database.password");
+        return current.get().properties.getProperty("database.password");
     }
 
     /**
      * Get JDBC driver class
      */
     public static String getDriver() {
-        return properties.getProperty("jdbc.driver");
+        return current.get().properties.getProperty("jdbc.driver");
     }
 
     /**
      * Get Hibernate dialect
      */
     public static String getDialect() {
-        return properties.getProperty("hibernate.dialect");
+        return current.get().properties.getProperty("hibernate.dialect");
     }
 
     /**
      * Get Hibernate DDL auto setting
      */
     public static String getHbm2ddlAuto() {
-        return properties.getProperty("hibernate.hbm2ddl.auto");
+        return current.get().properties.getProperty("hibernate.hbm2ddl.auto");
     }
 
     /**
@@ -109,7 +836,7 @@ public class DatabaseConfig {
      */
     public static boolean getShowSql() {
         return Boolean.parseBoolean(
-            properties.getProperty("hibernate.show_sql")
+            current.get().properties.getProperty("hibernate.show_sql")
         );
     }
 
@@ -117,17 +844,291 @@ public class DatabaseConfig {
      * Get connection pool maximum size
      */
     public static int getMaximumPoolSize() {
-        return Integer.parseInt(
-            properties.getProperty("database.pool.maximumPoolSize")
-        );
+        return current.get().maximumPoolSize;
     }
 
     /**
      * Get connection pool minimum idle connections
      */
     public static int getMinimumIdle() {
-        return Integer.parseInt(
-            properties.getProperty("database.pool.minimumIdle")
+        return current.get().minimumIdle;
+    }
+
+    /**
+     * Get JDBC batch size used for writes
+     */
+    public static int getBatchSize() {
+        return current.get().batchSize;
+    }
+
+    /**
+     * Check whether the writers tune their batch size and linger time to
+     * the observed commit latency, starting from the batch size
+     */
+    public static boolean isBatchAdaptive() {
+        return Boolean.parseBoolean(
+            current
+                .get()
+                .properties.getProperty("database.batch.adaptive", "true")
+                .trim()
+        );
+    }
+
+    /**
+     * Get the largest batch the adaptive writers may grow to
+     */
+    public static int getBatchMaxSize() {
+        return current.get().batchMaxSize;
+    }
+
+    /**
+     * Get the commit time in milliseconds adaptive batches should stay under
+     */
+    public static int getBatchTargetMillis() {
+        return current.get().batchTargetMillis;
+    }
+
+    /**
+     * Get the longest time in milliseconds a writer waits for a batch to
+     * fill up under load
+     */
+    public static int getBatchMaxLingerMillis() {
+        return current.get().batchMaxLingerMillis;
+    }
+
+    /**
+     * Get how often a database operation is tried before a transient error
+     * is given up on, including the first attempt
+     */
+    public static int getRetryMaxAttempts() {
+        return current.get().retryMaxAttempts;
+    }
+
+    /**
+     * Get the delay ceiling of the first retry in milliseconds
+     */
+    public static int getRetryBaseDelayMillis() {
+        return current.get().retryBaseDelayMillis;
+    }
+
+    /**
+     * Get the largest delay ceiling between retries in milliseconds
+     */
+    public static int getRetryMaxDelayMillis() {
+        return current.get().retryMaxDelayMillis;
+    }
+
+    /**
+     * Get the share of calls, in percent, that may be retried on average
+     */
+    public static int getRetryBudgetPercent() {
+        return current.get().retryBudgetPercent;
+    }
+
+    /**
+     * Get how many messages can wait for the database writer
+     */
+    public static int getQueueCapacity() {
+        return current.get().queueCapacity;
+    }
+
+    /**
+     * Get the number of background writer threads, 0 to size them from the
+     * write lane's connections and the available cores
+     */
+    public static int getWriters() {
+        return current.get().writers;
+    }
+
+    /**
+     * Get how many connections a scheduler lane (write, read or bulk) may
+     * use at once, 0 for whatever the other lanes leave of the pool
+     */
+    public static int getLaneConnections(String lane) {
+        return current.get().laneConnections.getOrDefault(lane, 0);
+    }
+
+    /**
+     * Get a scheduler lane's share of dequeues when several lanes wait
+     */
+    public static int getLaneWeight(String lane) {
+        return current.get().laneWeights.getOrDefault(lane, 1);
+    }
+
+    /**
+     * Get the longest time in milliseconds a bulk job pauses between chunks
+     * while interactive database work waits
+     */
+    public static int getBulkMaxPauseMillis() {
+        return current.get().bulkMaxPauseMillis;
+    }
+
+    /**
+     * Get messages allowed per player per second, 0 disables the limit
+     */
+    public static int getRateLimitPerSecond() {
+        return current.get().rateLimitPerSecond;
+    }
+
+    /**
+     * Get how many messages a player may send in a burst above the rate
+     */
+    public static int getRateLimitBurst() {
+        return current.get().rateLimitBurst;
+    }
+
+    /**
+     * Get how many player UUID to key mappings are cached
+     */
+    public static int getPlayerCacheSize() {
+        return current.get().playerCacheSize;
+    }
+
+    /**
+     * Get how much server tick time CraftMessage may use before warning,
+     * 0 disables the warning
+     */
+    public static int getTickBudgetMicros() {
+        return current.get().tickBudgetMicros;
+    }
+
+    /**
+     * Get what happens to messages matching the word filter: block, mask
+     * or off
+     */
+    public static String getFilterAction() {
+        return current.get().filterAction;
+    }
+
+    /**
+     * Get the channels players may send to and subscribe to, always
+     * including the default channel
+     */
+    public static Set<String> getChannels() {
+        return current.get().channels;
+    }
+
+    /**
+     * Get how often the activity statistics are checked against the stored
+     * messages, in minutes, 0 to only do it after purges
+     */
+    public static int getReconcileIntervalMinutes() {
+        return current.get().reconcileIntervalMinutes;
+    }
+
+    /**
+     * Get what happens to a player's repeated messages: drop, collapse or
+     * off
+     */
+    public static String getDedupAction() {
+        return current.get().dedupAction;
+    }
+
+    /**
+     * Get how long a message counts as recent for duplicate suppression,
+     * in seconds
+     */
+    public static int getDedupWindowSeconds() {
+        return current.get().dedupWindowSeconds;
+    }
+
+    /**
+     * Get how many recent messages per player are compared
+     */
+    public static int getDedupWindowSize() {
+        return current.get().dedupWindowSize;
+    }
+
+    /**
+     * Check whether received, rejected and saved messages are written to the
+     * audit log
+     */
+    public static boolean isAuditEnabled() {
+        return Boolean.parseBoolean(
+            current
+                .get()
+                .properties.getProperty("audit.enabled", "true")
+                .trim()
+        );
+    }
+
+    /**
+     * Check whether audit log files are gzip compressed
+     */
+    public static boolean isAuditCompressed() {
+        return Boolean.parseBoolean(
+            current
+                .get()
+                .properties.getProperty("audit.compress", "true")
+                .trim()
+        );
+    }
+
+    /**
+     * Get how many audit records can wait for the writer before new ones
+     * are dropped
+     */
+    public static int getAuditBufferSize() {
+        return current.get().auditBufferSize;
+    }
+
+    /**
+     * Get the size at which an audit log file is closed and a new one
+     * started, in megabytes
+     */
+    public static int getAuditMaxFileMegabytes() {
+        return current.get().auditMaxFileMegabytes;
+    }
+
+    /**
+     * Get how many audit log files are kept
+     */
+    public static int getAuditMaxFiles() {
+        return current.get().auditMaxFiles;
+    }
+
+    /**
+     * Get the directory audit log files are written to
+     */
+    public static Path getAuditPath() {
+        String path = current.get().properties.getProperty("audit.path");
+        if (path != null && !path.isBlank()) {
+            return Path.of(path.trim()).toAbsolutePath();
+        }
+        try {
+            return FabricLoader.getInstance()
+                .getGameDir()
+                .resolve(CraftMessageMod.MOD_ID)
+                .resolve("audit");
+        } catch (Throwable t) {
+            // Not running inside Fabric, relative to the working directory
+            return Path.of(CraftMessageMod.MOD_ID, "audit").toAbsolutePath();
+        }
+    }
+
+    /**
+     * Check whether the message store is opened in the background while the
+     * server starts instead of on first use
+     */
+    public static boolean isEagerBootstrap() {
+        return Boolean.parseBoolean(
+            current
+                .get()
+                .properties.getProperty("database.bootstrap.eager", "true")
+                .trim()
+        );
+    }
+
+    /**
+     * Check whether new messages are announced to other servers with
+     * LISTEN/NOTIFY
+     */
+    public static boolean isNotifyEnabled() {
+        return Boolean.parseBoolean(
+            current
+                .get()
+                .properties.getProperty("messages.notify.enabled", "true")
+                .trim()
         );
     }
 
@@ -0,0 +1,162 @@
+package com.example.craftmessage;
+
+import jakarta.persistence.LockTimeoutException;
+import jakarta.persistence.PessimisticLockException;
+import jakarta.persistence.QueryTimeoutException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import org.hibernate.exception.JDBCConnectionException;
+
+/**
+ * Sorts database failures by what the caller should do about them, based on
+ * the SQLState and exception type rather than the (localized) message text.
+ *
+ * The whole cause chain is inspected, including the next exceptions of a
+ * failed JDBC batch, and the most severe class found wins.
+ */
+public class DatabaseErrors {
+
+    public enum ErrorClass {
+        /** Worth retrying on the same connection pool, e.g. a deadlock */
+        TRANSIENT("transient"),
+        /** The connection or server is gone, the pool must be rebuilt */
+        CONNECTION_LOST("connection lost"),
+        /** Retrying will fail the same way, e.g. a constraint violation */
+        PERMANENT("permanent");
+
+        private final String label;
+
+        ErrorClass(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    // Beyond this many links the chain is assumed to be cyclic garbage
+    private static final int MAX_CHAIN = 32;
+
+    /**
+     * Classify a failure, PERMANENT when nothing in the chain is known
+     */
+    public static ErrorClass classify(Throwable error) {
+        Set<Throwable> seen = Collections.newSetFromMap(
+            new IdentityHashMap<>()
+        );
+        boolean transientSeen = false;
+        Throwable current = error;
+        while (current != null && seen.size() < MAX_CHAIN && seen.add(current)) {
+            ErrorClass found = classifyOne(current);
+            if (found == ErrorClass.CONNECTION_LOST) {
+                return found;
+            }
+            if (found == ErrorClass.TRANSIENT) {
+                transientSeen = true;
+            }
+            if (current instanceof SQLException sql) {
+                // Batch failures carry the server's reason as next exception
+                for (
+                    SQLException next = sql.getNextException();
+                    next != null && seen.size() < MAX_CHAIN && seen.add(next);
+                    next = next.getNextException()
+                ) {
+                    ErrorClass nextFound = classifyOne(next);
+                    if (nextFound == ErrorClass.CONNECTION_LOST) {
+                        return nextFound;
+                    }
+                    if (nextFound == ErrorClass.TRANSIENT) {
+                        transientSeen = true;
+                    }
+                }
+            }
+            current = current.getCause();
+        }
+        return transientSeen ? ErrorClass.TRANSIENT : ErrorClass.PERMANENT;
+    }
+
+    /**
+     * Check whether the pool has to be rebuilt after this failure
+     */
+    public static boolean isConnectionLost(Throwable error) {
+        return classify(error) == ErrorClass.CONNECTION_LOST;
+    }
+
+    /**
+     * Classify a single exception without looking at its causes
+     *
+     * @return null when the exception says nothing on its own
+     */
+    private static ErrorClass classifyOne(Throwable error) {
+        if (error instanceof SQLException sql && sql.getSQLState() != null) {
+            ErrorClass bySqlState = classifySqlState(sql.getSQLState());
+            if (bySqlState != null) {
+                return bySqlState;
+            }
+        }
+        if (
+            error instanceof SQLNonTransientConnectionException ||
+            error instanceof SQLTransientConnectionException ||
+            error instanceof SQLRecoverableException ||
+            error instanceof JDBCConnectionException ||
+            (error instanceof SocketException &&
+                !(error instanceof SocketTimeoutException))
+        ) {
+            return ErrorClass.CONNECTION_LOST;
+        }
+        if (
+            error instanceof SQLTransientException ||
+            error instanceof SocketTimeoutException ||
+            error instanceof LockTimeoutException ||
+            error instanceof PessimisticLockException ||
+            error instanceof QueryTimeoutException
+        ) {
+            return ErrorClass.TRANSIENT;
+        }
+        return null;
+    }
+
+    /**
+     * PostgreSQL error codes, see Appendix A of the PostgreSQL manual
+     */
+    static ErrorClass classifySqlState(String sqlState) {
+        if (sqlState.length() != 5) {
+            return null;
+        }
+        switch (sqlState) {
+            case "57P01": // admin_shutdown
+            case "57P02": // crash_shutdown
+            case "57P03": // cannot_connect_now
+            case "57P05": // idle_session_timeout
+                return ErrorClass.CONNECTION_LOST;
+            case "40001": // serialization_failure
+            case "40P01": // deadlock_detected
+            case "55P03": // lock_not_available
+            case "57014": // query_canceled, e.g. statement_timeout
+                return ErrorClass.TRANSIENT;
+            default:
+                break;
+        }
+        switch (sqlState.substring(0, 2)) {
+            case "08": // connection exception
+                return ErrorClass.CONNECTION_LOST;
+            case "53": // insufficient resources, e.g. too many connections
+                return ErrorClass.TRANSIENT;
+            case "22": // data exception
+            case "23": // integrity constraint violation
+            case "42": // syntax error or access rule violation
+                return ErrorClass.PERMANENT;
+            default:
+                return null;
+        }
+    }
+}
@@ -1,11 +1,22 @@
 package com.example.craftmessage;
 
 import jakarta.persistence.EntityManagerFactory;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.Transaction;
@@ -18,6 +29,11 @@ import org.slf4j.LoggerFactory;
 /**
  * Hibernate 6.x Database Manager using JPA with Repository pattern
  * Modern implementation with better performance and cleaner architecture
+ *
+ * The factories, store and availability are one immutable {@link State},
+ * replaced as a whole, so every thread sees a consistent snapshot. Messages
+ * are persisted by database.writers background writers, each draining its
+ * own queue; a player's messages always go to the same writer.
  */
 public class DatabaseManager {
 
@@ -25,181 +41,331 @@ public class DatabaseManager {
         DatabaseManager.class
     );
 
-    // Single thread executor for database operations
-    private static final ExecutorService DATABASE_EXECUTOR =
-        Executors.newSingleThreadExecutor(r -> {
-            Thread thread = new Thread(r, "craftmessage-hibernate6");
-            thread.setDaemon(true);
-            return thread;
-        });
+    // Server thread -> writer hand-off, sized once at startup
+    private static final MessageWriter[] WRITERS = createWriters();
+
+    // Write outcome counters, read by the load test harness
+    private static final AtomicLong SAVED_MESSAGES = new AtomicLong();
+    private static final AtomicLong FAILED_MESSAGES = new AtomicLong();
+    private static final LatencyHistogram COMMIT_LATENCY =
+        new LatencyHistogram();
+
+    /**
+     * Factories (one connection pool per shard, index = shard), the store
+     * on top of them and whether it is reachable
+     */
+    private record State(
+        List<EntityManagerFactory> factories,
+        MessageStore store,
+        boolean initialized,
+        boolean available
+    ) {
+        static final State UNINITIALIZED = new State(
+            List.of(),
+            null,
+            false,
+            false
+        );
+
+        State withAvailable(boolean available) {
+            return available == this.available
+                ? this
+                : new State(factories, store, initialized, available);
+        }
+
+        boolean usable() {
+            return available && store != null;
+        }
+    }
 
-    private static EntityManagerFactory entityManagerFactory;
-    private static MessageRepository messageRepository;
-    private static boolean initialized = false;
-    private static boolean databaseAvailable = false;
+    private static final AtomicReference<State> STATE = new AtomicReference<>(
+        State.UNINITIALIZED
+    );
+    private static final AtomicInteger FACTORY_GENERATION = new AtomicInteger();
+    // Writers hold the read lock while using the store, closing it takes
+    // the write lock so no batch runs on a closed connection pool
+    private static final ReadWriteLock STORE_LOCK =
+        new ReentrantReadWriteLock();
+
+    static {
+        // Pool settings are baked into the EntityManagerFactory; the batch
+        // size is read by saveAll and the writers on every batch
+        DatabaseConfig.addChangeListener(changed -> {
+            if (
+                changed.contains("database.pool.maximumPoolSize") ||
+                changed.contains("database.pool.minimumIdle")
+            ) {
+                reconfigure();
+            }
+        });
+    }
 
     /**
      * Initialize Hibernate with JPA configuration
      */
-    public static synchronized void initialize() {
-        if (initialized) {
+    public static void initialize() {
+        long token = TickBudget.enter();
+        try {
+            initializeHibernate();
+        } finally {
+            TickBudget.exit(TickBudget.Operation.DATABASE, token);
+        }
+    }
+
+    /**
+     * Start initialization in the background, so Hibernate's class loading
+     * and metadata building overlap world loading instead of delaying the
+     * first message. Tasks started meanwhile wait for it.
+     */
+    public static void initializeAsync() {
+        try {
+            DatabaseScheduler.execute(
+                DatabaseScheduler.Lane.WRITE,
+                DatabaseManager::initialize
+            );
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Database scheduler stopped, skipping bootstrap");
+        }
+    }
+
+    private static synchronized void initializeHibernate() {
+        if (STATE.get().initialized()) {
             LOGGER.debug("Hibernate already initialized, skipping");
             return;
         }
 
-        // First check if database connection is even possible
-        if (!canConnectToDatabase()) {
-            LOGGER.debug(
-                "Database connection not available, skipping Hibernate initialization"
-            );
-            initialized = true;
-            databaseAvailable = false;
+        if ("embedded".equals(DatabaseConfig.getStore())) {
+            initializeEmbedded();
             return;
         }
 
-        LOGGER.debug("Starting Hibernate initialization...");
+        int shardCount = DatabaseConfig.getShardCount();
 
-        try {
-            // Use database.properties for configuration
-            Map<String, Object> properties = new HashMap<>();
+        // First check if database connection is even possible
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (!canConnectToDatabase(shard)) {
+                LOGGER.debug(
+                    "Database connection to shard {} not available, skipping Hibernate initialization",
+                    shard
+                );
+                STATE.set(new State(List.of(), null, true, false));
+                return;
+            }
+        }
 
-            // Database connection settings from properties file
-            properties.put(
-                "jakarta.persistence.jdbc.url",
-                DatabaseConfig.getUrl()
-            );
-            properties.put(
-                "jakarta.persistence.jdbc.user",
-                DatabaseConfig.getUsername()
-            );
-            properties.put(
-                "jakarta.persistence.jdbc.password",
-                DatabaseConfig.getPassword()
-            );
-            properties.put(
-                "jakarta.persistence.jdbc.driver",
-                DatabaseConfig.getDriver()
-            );
+        // Data migrations hbm2ddl cannot do, before Hibernate inspects the schema
+        for (int shard = 0; shard < shardCount; shard++) {
+            SchemaMigrations.run(shard);
+        }
 
-            // Hibernate settings from properties file
-            properties.put("hibernate.dialect", DatabaseConfig.getDialect());
-            properties.put(
-                "hibernate.hbm2ddl.auto",
-                DatabaseConfig.getHbm2ddlAuto()
-            );
-            properties.put(
-                "hibernate.show_sql",
-                String.valueOf(DatabaseConfig.getShowSql())
+        LOGGER.debug("Starting Hibernate initialization...");
+        long started = System.nanoTime();
+
+        // Published once, fully built
+        State state = openJpaState(shardCount);
+        STATE.set(state);
+
+        if (state.available()) {
+            LOGGER.info(
+                "Hibernate initialization completed successfully ({} shards) in {} ms",
+                shardCount,
+                (System.nanoTime() - started) / 1_000_000L
             );
-            properties.put("hibernate.format_sql", "true");
-
-            // Hibernate logging settings to reduce verbosity
-            properties.put("hibernate.log.level", "WARN");
-            properties.put("hibernate.show_sql", "false");
-            properties.put("hibernate.format_sql", "false");
-            properties.put("hibernate.generate_statistics", "false");
-
-            // PostgreSQL driver logging settings to reduce verbosity
-            properties.put("org.postgresql.level", "WARN");
-            properties.put("org.postgresql.util", "WARN");
-            properties.put("org.postgresql.core", "WARN");
-            properties.put("org.postgresql.jdbc", "WARN");
-
-            // Connection pool settings from properties file
-            properties.put(
-                "hibernate.connection.pool_size",
-                String.valueOf(DatabaseConfig.getMaximumPoolSize())
+        } else {
+            LOGGER.debug(
+                "Hibernate initialized but database connection unavailable"
             );
+        }
+    }
 
-            // Create EntityManagerFactory using HibernatePersistenceProvider
-            try {
-                HibernatePersistenceProvider persistenceProvider =
-                    new HibernatePersistenceProvider();
-
-                // Add explicit entity classes to properties
-                properties.put(
-                    "hibernate.ejb.entitymanager_factory_name",
-                    "craftmessage"
+    /**
+     * Create the EntityManagerFactories and the store on top of them without
+     * publishing anything, so a new state can be built while the old one
+     * keeps serving
+     */
+    private static State openJpaState(int shardCount) {
+        int generation = FACTORY_GENERATION.getAndIncrement();
+        List<EntityManagerFactory> factories = new ArrayList<>();
+        try {
+            List<MessageRepository> repositories = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                EntityManagerFactory factory = createEntityManagerFactory(
+                    shard,
+                    generation
                 );
+                factories.add(factory);
+                repositories.add(new MessageRepository(factory));
+            }
 
-                LOGGER.debug(
-                    "Using database configuration: {}",
-                    DatabaseConfig.getUrl()
-                );
+            // Tables exist now, keep IDs unique across shards
+            SchemaMigrations.alignIdSequences(shardCount);
 
-                try {
-                    entityManagerFactory =
-                        persistenceProvider.createEntityManagerFactory(
-                            "craftmessage",
-                            properties
-                        );
-
-                    if (entityManagerFactory == null) {
-                        throw new RuntimeException(
-                            "No persistence units found - EntityManagerFactory is null"
-                        );
-                    }
-                } catch (Exception e) {
-                    LOGGER.error(
-                        "Failed to create EntityManagerFactory: {}",
-                        e.getMessage()
-                    );
-                    throw e;
-                }
+            MessageStore store = new ShardedMessageRepository(repositories);
+
+            // Test database connection
+            boolean available;
+            try {
+                store.count();
+                available = true;
             } catch (Exception e) {
-                LOGGER.error(
-                    "Failed to create EntityManagerFactory: {}",
+                LOGGER.debug(
+                    "Database connection test failed: {}",
                     e.getMessage()
                 );
-                throw e;
+                available = false;
             }
+            return new State(List.copyOf(factories), store, true, available);
+        } catch (Exception e) {
+            LOGGER.debug("Failed to initialize Hibernate: {}", e.getMessage());
+            closeResources(new State(factories, null, false, false));
+            return new State(List.of(), null, true, false);
+        }
+    }
 
-            // Create repository only if EntityManagerFactory was created successfully
-            if (entityManagerFactory != null) {
-                messageRepository = new MessageRepository(entityManagerFactory);
-
-                // Test database connection
-                try {
-                    messageRepository.count();
-                    databaseAvailable = true;
-                } catch (Exception e) {
-                    LOGGER.debug(
-                        "Database connection test failed: {}",
-                        e.getMessage()
-                    );
-                    databaseAvailable = false;
-                }
-            } else {
-                databaseAvailable = false;
-            }
+    /**
+     * Open the local segment log store instead of Hibernate
+     */
+    private static void initializeEmbedded() {
+        Path directory = DatabaseConfig.getEmbeddedPath();
+        try {
+            MessageStore store = SegmentLogStore.open(directory);
+            STATE.set(new State(List.of(), store, true, true));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error(
+                "Failed to open embedded message store {}: {}",
+                directory,
+                e.getMessage()
+            );
+            STATE.set(new State(List.of(), null, true, false));
+        }
+    }
 
-            initialized = true;
+    /**
+     * Create the EntityManagerFactory and connection pool of one shard
+     *
+     * @param generation how many states were built before, for the name
+     */
+    private static EntityManagerFactory createEntityManagerFactory(
+        int shard,
+        int generation
+    ) {
+        Map<String, Object> properties = buildHibernateProperties(shard);
 
-            if (databaseAvailable) {
-                LOGGER.info("Hibernate initialization completed successfully");
-            } else {
-                LOGGER.debug(
-                    "Hibernate initialized but database connection unavailable"
+        // Create EntityManagerFactory using HibernatePersistenceProvider
+        HibernatePersistenceProvider persistenceProvider =
+            new HibernatePersistenceProvider();
+
+        // Factory names must be unique per JVM, also while a reconfigure
+        // builds new factories next to the old ones
+        properties.put(
+            "hibernate.ejb.entitymanager_factory_name",
+            (shard == 0 ? "craftmessage" : "craftmessage-shard-" + shard) +
+            (generation == 0 ? "" : "-" + generation)
+        );
+
+        LOGGER.debug(
+            "Using database configuration: {}",
+            DatabaseConfig.getShardUrl(shard)
+        );
+
+        try {
+            EntityManagerFactory factory =
+                persistenceProvider.createEntityManagerFactory(
+                    "craftmessage",
+                    properties
+                );
+
+            if (factory == null) {
+                throw new RuntimeException(
+                    "No persistence units found - EntityManagerFactory is null"
                 );
             }
+            return factory;
         } catch (Exception e) {
-            LOGGER.debug("Failed to initialize Hibernate: {}", e.getMessage());
-            entityManagerFactory = null;
-            messageRepository = null;
-            initialized = true;
-            databaseAvailable = false;
+            LOGGER.error(
+                "Failed to create EntityManagerFactory for shard {}: {}",
+                shard,
+                e.getMessage()
+            );
+            throw e;
         }
     }
 
+    /**
+     * Build Hibernate properties for one shard from the current database
+     * configuration
+     */
+    private static Map<String, Object> buildHibernateProperties(int shard) {
+        // Use database.properties for configuration
+        Map<String, Object> properties = new HashMap<>();
+
+        // Database connection settings from properties file
+        properties.put(
+            "jakarta.persistence.jdbc.url",
+            DatabaseConfig.getShardUrl(shard)
+        );
+        properties.put(
+            "jakarta.persistence.jdbc.user",
+            DatabaseConfig.getShardUsername(shard)
+        );
+        properties.put(
+            "jakarta.persistence.jdbc.password",
+            DatabaseConfig.getShardPassword(shard)
+        );
+        properties.put(
+            "jakarta.persistence.jdbc.driver",
+            DatabaseConfig.getDriver()
+        );
+
+        // Hibernate settings from properties file
+        properties.put("hibernate.dialect", DatabaseConfig.getDialect());
+        properties.put(
+            "hibernate.hbm2ddl.auto",
+            DatabaseConfig.getHbm2ddlAuto()
+        );
+        properties.put(
+            "hibernate.show_sql",
+            String.valueOf(DatabaseConfig.getShowSql())
+        );
+        properties.put("hibernate.format_sql", "true");
+
+        // Hibernate logging settings to reduce verbosity
+        properties.put("hibernate.log.level", "WARN");
+        properties.put("hibernate.show_sql", "false");
+        properties.put("hibernate.format_sql", "false");
+        properties.put("hibernate.generate_statistics", "false");
+
+        // PostgreSQL driver logging settings to reduce verbosity
+        properties.put("org.postgresql.level", "WARN");
+        properties.put("org.postgresql.util", "WARN");
+        properties.put("org.postgresql.core", "WARN");
+        properties.put("org.postgresql.jdbc", "WARN");
+
+        // Connection pool settings from properties file
+        properties.put(
+            "hibernate.connection.pool_size",
+            String.valueOf(DatabaseConfig.getMaximumPoolSize())
+        );
+
+        // JDBC batching for writes from properties file
+        properties.put(
+            "hibernate.jdbc.batch_size",
+            String.valueOf(DatabaseConfig.getBatchSize())
+        );
+        properties.put("hibernate.order_inserts", "true");
+
+        return properties;
+    }
+
     /**
      * Simple connection test without Hibernate initialization
      */
-    private static boolean canConnectToDatabase() {
+    private static boolean canConnectToDatabase(int shard) {
         try {
             java.sql.DriverManager.getConnection(
-                DatabaseConfig.getUrl(),
-                DatabaseConfig.getUsername(),
-                DatabaseConfig.getPassword()
+                DatabaseConfig.getShardUrl(shard),
+                DatabaseConfig.getShardUsername(shard),
+                DatabaseConfig.getShardPassword(shard)
             ).close();
             return true;
         } catch (Exception e) {
@@ -215,24 +381,53 @@ public class DatabaseManager {
      * Test database connection and update availability status
      */
     public static boolean testConnection() {
-        if (!initialized) {
-            initialize();
-        }
-
-        if (messageRepository == null) {
-            databaseAvailable = false;
+        State state = initializedState();
+        if (state.store() == null) {
             return false;
         }
 
+        boolean available;
         try {
-            messageRepository.count();
-            databaseAvailable = true;
-            return true;
+            state.store().count();
+            available = true;
         } catch (Exception e) {
             LOGGER.debug("Database connection test failed: {}", e.getMessage());
-            databaseAvailable = false;
-            return false;
+            available = false;
         }
+        // Unless another thread replaced the state meanwhile
+        STATE.compareAndSet(state, state.withAvailable(available));
+        return available;
+    }
+
+    /**
+     * Current state, initializing Hibernate first if needed
+     */
+    private static State initializedState() {
+        State state = STATE.get();
+        if (!state.initialized()) {
+            initialize();
+            state = STATE.get();
+        }
+        return state;
+    }
+
+    /**
+     * Current state if the store can be used, testing the connection again
+     * if it was unavailable
+     *
+     * @return the usable state, or null
+     */
+    private static State availableState() {
+        State state = initializedState();
+        if (state.usable()) {
+            return state;
+        }
+        if (testConnection()) {
+            LOGGER.info("Database connection restored");
+            state = STATE.get();
+            return state.usable() ? state : null;
+        }
+        return null;
     }
 
     /**
@@ -246,38 +441,295 @@ public class DatabaseManager {
             "Scheduling async message save for player: {}",
             playerUuid
         );
-        return CompletableFuture.supplyAsync(
-            () -> saveMessage(playerUuid, messageText),
-            DATABASE_EXECUTOR
+        return DatabaseScheduler.supplyAsync(
+            DatabaseScheduler.Lane.WRITE,
+            () -> saveMessage(playerUuid, messageText)
         );
     }
 
     /**
-     * Synchronous save method using JPA Repository
+     * Queue a message for the background writer. Called on the server
+     * thread; copies the UUID bits and text reference into a preallocated
+     * slot and allocates nothing.
+     *
+     * @return false if the queue is full and the message was dropped
      */
-    public static boolean saveMessage(String playerUuid, String messageText) {
-        // Ensure initialization
-        if (!initialized) {
-            initialize();
+    public static boolean enqueueMessage(UUID playerUuid, String messageText) {
+        return enqueueMessage(
+            playerUuid,
+            null,
+            false,
+            MessageEntity.DEFAULT_CHANNEL,
+            messageText
+        );
+    }
+
+    /**
+     * Queue a public (recipient null) or direct message for the background
+     * writer; undelivered direct messages also go to the mailbox
+     */
+    public static boolean enqueueMessage(
+        UUID playerUuid,
+        UUID recipient,
+        boolean delivered,
+        String channel,
+        String messageText
+    ) {
+        MessageWriter writer = WRITERS[writerIndex(playerUuid)];
+        if (!writer.isRunning()) {
+            startWriter();
         }
+        if (
+            writer.getBuffer().tryPublish(
+                playerUuid,
+                recipient,
+                delivered,
+                channel,
+                messageText
+            )
+        ) {
+            return true;
+        }
+        FAILED_MESSAGES.incrementAndGet();
+        return false;
+    }
 
-        if (!databaseAvailable || messageRepository == null) {
-            // Re-test connection if previously unavailable
-            if (testConnection()) {
-                LOGGER.info("Database connection restored, retrying save");
-            } else {
-                LOGGER.warn("Cannot save message - database unavailable");
-                // Close Hibernate to stop background threads
-                close();
-                return false;
+    /**
+     * Writer of a player's messages; one per player keeps them in order
+     */
+    private static int writerIndex(UUID playerUuid) {
+        long bits =
+            playerUuid.getMostSignificantBits() ^
+            playerUuid.getLeastSignificantBits();
+        return (int) Math.floorMod(bits ^ (bits >>> 32), WRITERS.length);
+    }
+
+    /**
+     * One writer per core, at most one per write lane connection. Segment
+     * log writes are serialized by the store, so it gets a single writer.
+     */
+    private static MessageWriter[] createWriters() {
+        int count = DatabaseConfig.getWriters();
+        if (count <= 0) {
+            count = "embedded".equals(DatabaseConfig.getStore())
+                ? 1
+                : Math.min(
+                    Runtime.getRuntime().availableProcessors(),
+                    DatabaseScheduler.Lane.WRITE.connections()
+                );
+        }
+        count = Math.max(1, count);
+        int capacity = Math.max(64, DatabaseConfig.getQueueCapacity() / count);
+        MessageWriter[] writers = new MessageWriter[count];
+        for (int i = 0; i < count; i++) {
+            writers[i] = new MessageWriter(i, new MessageRingBuffer(capacity));
+        }
+        return writers;
+    }
+
+    /**
+     * Start the background message writers
+     */
+    public static void startWriter() {
+        for (MessageWriter writer : WRITERS) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Stop the background writers after they wrote what is still queued
+     */
+    public static void stopWriter(long timeoutMillis) {
+        long deadline = System.nanoTime() + timeoutMillis * 1_000_000L;
+        for (MessageWriter writer : WRITERS) {
+            writer.stop(
+                Math.max(1, (deadline - System.nanoTime()) / 1_000_000L)
+            );
+        }
+    }
+
+    /**
+     * Per-writer batches, saved and failed messages, queue depth and the
+     * batch size and linger time chosen by each writer
+     */
+    public static List<String> writerReport() {
+        List<String> lines = new ArrayList<>();
+        lines.add(
+            "Writers: " +
+            WRITERS.length +
+            ", " +
+            SAVED_MESSAGES.get() +
+            " saved, " +
+            FAILED_MESSAGES.get() +
+            " failed, enqueue to commit " +
+            COMMIT_LATENCY.summary()
+        );
+        for (MessageWriter writer : WRITERS) {
+            lines.add(writer.report());
+            lines.add(writer.getBatchController().report());
+        }
+        return lines;
+    }
+
+    /**
+     * Persist a batch drained by the message writer in one transaction
+     */
+    static boolean saveBatch(List<MessageEntity> messages) {
+        if (availableState() == null) {
+            LOGGER.warn(
+                "Cannot save {} messages - database unavailable",
+                messages.size()
+            );
+            FAILED_MESSAGES.addAndGet(messages.size());
+            return false;
+        }
+
+        State state = null;
+        Exception failure = null;
+        STORE_LOCK.readLock().lock();
+        try {
+            // Read under the lock, nobody closes this state meanwhile
+            state = STATE.get();
+            if (!state.usable()) {
+                throw new IllegalStateException("Database was closed");
             }
+            MessageStore store = state.store();
+            // A retry only writes what is still unsaved, shards that
+            // committed already have set the IDs of their messages
+            RetryPolicy.call("Save batch", () ->
+                store.saveAll(unsaved(messages))
+            );
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            STORE_LOCK.readLock().unlock();
         }
 
-        // Additional safety check - if we know database is unavailable, don't even try Hibernate operations
-        if (!databaseAvailable) {
+        if (failure == null) {
+            SAVED_MESSAGES.addAndGet(messages.size());
+            LOGGER.debug("Saved batch of {} messages", messages.size());
+            MessageNotifier.publish(messages);
+            return true;
+        }
+
+        // Failed saves leave the IDs of their messages unset
+        int saved = messages.size() - unsaved(messages).size();
+        SAVED_MESSAGES.addAndGet(saved);
+        FAILED_MESSAGES.addAndGet(messages.size() - saved);
+        if (saved > 0) {
+            MessageNotifier.publish(messages);
+        }
+        if (DatabaseErrors.isConnectionLost(failure)) {
+            // Reset Hibernate state, the next batch reconnects. Only the
+            // first writer to notice closes the lost pools.
+            reset(state);
             LOGGER.warn(
-                "Cannot save message - database unavailable (safety check)"
+                "Failed to save {} messages - database connection lost",
+                messages.size()
             );
+        } else {
+            LOGGER.error(
+                "Failed to save {} messages: {}",
+                messages.size(),
+                failure.getMessage()
+            );
+        }
+        return false;
+    }
+
+    /**
+     * Classify a failure outside the retry policy and count it there. These
+     * calls may run on the server thread, which must never sleep for a retry.
+     */
+    private static boolean connectionLost(Exception e) {
+        DatabaseErrors.ErrorClass errorClass = DatabaseErrors.classify(e);
+        RetryPolicy.recordFailure(errorClass);
+        return errorClass == DatabaseErrors.ErrorClass.CONNECTION_LOST;
+    }
+
+    private static List<MessageEntity> unsaved(List<MessageEntity> messages) {
+        List<MessageEntity> unsaved = new ArrayList<>();
+        for (MessageEntity message : messages) {
+            if (message.getId() == null) {
+                unsaved.add(message);
+            }
+        }
+        return unsaved.size() == messages.size() ? messages : unsaved;
+    }
+
+    /**
+     * Put saved direct messages into their recipients' mailboxes, called by
+     * the message writer after the batch was saved
+     */
+    static void saveMailbox(List<MessageEntity> messages) {
+        STORE_LOCK.readLock().lock();
+        try {
+            State state = STATE.get();
+            if (!state.usable()) {
+                LOGGER.warn(
+                    "Cannot queue {} direct messages - database unavailable",
+                    messages.size()
+                );
+                return;
+            }
+            MessageStore store = state.store();
+            RetryPolicy.call("Queue direct messages", () ->
+                store.addToMailbox(messages)
+            );
+        } catch (Exception e) {
+            LOGGER.error(
+                "Failed to queue {} direct messages: {}",
+                messages.size(),
+                e.getMessage()
+            );
+            return;
+        } finally {
+            STORE_LOCK.readLock().unlock();
+        }
+        Set<UUID> recipients = new HashSet<>();
+        for (MessageEntity message : messages) {
+            recipients.add(message.getRecipient());
+        }
+        DirectMessageRouter.afterQueued(recipients);
+    }
+
+    /**
+     * Run a repository task in a scheduler lane, e.g. history reads or
+     * exports that must not block the server thread
+     */
+    public static <T> CompletableFuture<T> supplyAsync(
+        DatabaseScheduler.Lane lane,
+        java.util.function.Function<MessageStore, T> task
+    ) {
+        return DatabaseScheduler.supplyAsync(lane, () ->
+            task.apply(getMessageStore())
+        );
+    }
+
+    /**
+     * Synchronous save method using JPA Repository
+     */
+    public static boolean saveMessage(String playerUuid, String messageText) {
+        long token = TickBudget.enter();
+        try {
+            boolean saved = doSaveMessage(playerUuid, messageText);
+            (saved ? SAVED_MESSAGES : FAILED_MESSAGES).incrementAndGet();
+            return saved;
+        } finally {
+            TickBudget.exit(TickBudget.Operation.DATABASE, token);
+        }
+    }
+
+    private static boolean doSaveMessage(
+        String playerUuid,
+        String messageText
+    ) {
+        // Ensure initialization, re-test connection if previously unavailable
+        State state = availableState();
+        if (state == null) {
+            LOGGER.warn("Cannot save message - database unavailable");
+            // Close the pools, the next call initializes again
+            resetUnavailable();
             return false;
         }
 
@@ -287,13 +739,14 @@ public class DatabaseManager {
             message.setUuid(java.util.UUID.fromString(playerUuid));
             message.setText(messageText);
 
-            var savedMessage = messageRepository.save(message);
+            var savedMessage = state.store().save(message);
 
             if (savedMessage.isPresent()) {
-                LOGGER.info(
+                LOGGER.debug(
                     "Message saved successfully. ID: {}",
                     savedMessage.get().getId()
                 );
+                AuditLog.saved(message.getUuid(), message.getId());
                 return true;
             } else {
                 LOGGER.warn(
@@ -303,15 +756,9 @@ public class DatabaseManager {
             }
         } catch (Exception e) {
             // Test connection and update availability on failure
-            if (
-                e.getMessage() != null &&
-                (e.getMessage().contains("FATAL: terminating connection") ||
-                    e.getMessage().contains("SQL Error") ||
-                    e.getMessage().contains("could not execute statement"))
-            ) {
+            if (connectionLost(e)) {
                 // Reset Hibernate state when database connection is lost
-                close();
-                databaseAvailable = false;
+                reset(state);
                 LOGGER.warn(
                     "Failed to save message - database connection lost"
                 );
@@ -323,40 +770,39 @@ public class DatabaseManager {
     }
 
     /**
-     * Find messages by player UUID using JPA Repository
+     * Find read-only copies of a player's messages, newest first
      */
-    public static java.util.List<MessageEntity> findMessagesByPlayer(
+    public static List<MessageView> findMessagesByPlayer(
         String playerUuid
     ) {
-        if (!initialized) {
-            initialize();
+        long token = TickBudget.enter();
+        try {
+            return doFindMessagesByPlayer(playerUuid);
+        } finally {
+            TickBudget.exit(TickBudget.Operation.DATABASE, token);
         }
+    }
 
-        if (!databaseAvailable || messageRepository == null) {
-            // Re-test connection if previously unavailable
-            if (testConnection()) {
-                LOGGER.info("Database connection restored, retrying find");
-            } else {
-                LOGGER.warn("Cannot find messages - database unavailable");
-                // Close Hibernate to stop background threads
-                close();
-                return java.util.List.of();
-            }
+    private static List<MessageView> doFindMessagesByPlayer(
+        String playerUuid
+    ) {
+        // Re-test connection if previously unavailable
+        State state = availableState();
+        if (state == null) {
+            LOGGER.warn("Cannot find messages - database unavailable");
+            // Close the pools, the next call initializes again
+            resetUnavailable();
+            return java.util.List.of();
         }
 
         try {
-            return messageRepository.findByPlayerUuid(
-                java.util.UUID.fromString(playerUuid)
-            );
+            return state
+                .store()
+                .findViewsByPlayer(UUID.fromString(playerUuid));
         } catch (Exception e) {
             LOGGER.error("Failed to find messages: {}", e.getMessage());
             // Test connection and update availability on failure
-            if (
-                e.getMessage() != null &&
-                (e.getMessage().contains("FATAL: terminating connection") ||
-                    e.getMessage().contains("SQL Error") ||
-                    e.getMessage().contains("could not execute statement"))
-            ) {
+            if (connectionLost(e)) {
                 testConnection(); // Update availability status
             }
             return java.util.List.of();
@@ -364,32 +810,31 @@ public class DatabaseManager {
     }
 
     /**
-     * Get all messages using JPA Repository
+     * Get read-only copies of all messages, newest first
      */
-    public static java.util.List<MessageEntity> findAllMessages() {
-        if (!initialized) {
-            initialize();
+    public static List<MessageView> findAllMessages() {
+        long token = TickBudget.enter();
+        try {
+            return doFindAllMessages();
+        } finally {
+            TickBudget.exit(TickBudget.Operation.DATABASE, token);
         }
+    }
 
-        if (!databaseAvailable || messageRepository == null) {
-            // Re-test connection if previously unavailable
-            if (!testConnection()) {
-                // Close Hibernate to stop background threads
-                close();
-                return java.util.List.of();
-            }
+    private static List<MessageView> doFindAllMessages() {
+        // Re-test connection if previously unavailable
+        State state = availableState();
+        if (state == null) {
+            // Close the pools, the next call initializes again
+            resetUnavailable();
+            return java.util.List.of();
         }
 
         try {
-            return messageRepository.findAll();
+            return state.store().findAllViews();
         } catch (Exception e) {
             // Test connection and update availability on failure
-            if (
-                e.getMessage() != null &&
-                (e.getMessage().contains("FATAL: terminating connection") ||
-                    e.getMessage().contains("SQL Error") ||
-                    e.getMessage().contains("could not execute statement"))
-            ) {
+            if (connectionLost(e)) {
                 testConnection(); // Update availability status
             }
             return java.util.List.of();
@@ -400,88 +845,196 @@ public class DatabaseManager {
      * Get message count using JPA Repository
      */
     public static long getMessageCount() {
-        if (!initialized) {
-            initialize();
+        long token = TickBudget.enter();
+        try {
+            return doGetMessageCount();
+        } finally {
+            TickBudget.exit(TickBudget.Operation.DATABASE, token);
         }
+    }
 
-        if (!databaseAvailable || messageRepository == null) {
-            // Re-test connection if previously unavailable
-            if (!testConnection()) {
-                // Close Hibernate to stop background threads
-                close();
-                return 0L;
-            }
+    private static long doGetMessageCount() {
+        // Re-test connection if previously unavailable
+        State state = availableState();
+        if (state == null) {
+            // Close the pools, the next call initializes again
+            resetUnavailable();
+            return 0L;
         }
 
         try {
-            return messageRepository.count();
+            return state.store().count();
         } catch (Exception e) {
             // Test connection and update availability on failure
-            if (
-                e.getMessage() != null &&
-                (e.getMessage().contains("FATAL: terminating connection") ||
-                    e.getMessage().contains("SQL Error") ||
-                    e.getMessage().contains("could not execute statement"))
-            ) {
+            if (connectionLost(e)) {
                 testConnection(); // Update availability status
             }
             return 0L;
         }
     }
 
+    /**
+     * Get number of messages written successfully since startup
+     */
+    public static long getSavedCount() {
+        return SAVED_MESSAGES.get();
+    }
+
+    /**
+     * Get number of messages that could not be written since startup
+     */
+    public static long getFailedCount() {
+        return FAILED_MESSAGES.get();
+    }
+
+    /**
+     * Get time from enqueue on the server thread to committed in the database
+     */
+    public static LatencyHistogram getCommitLatency() {
+        return COMMIT_LATENCY;
+    }
+
+    /**
+     * Get number of messages and database tasks waiting to be processed
+     */
+    public static int getQueueDepth() {
+        int depth = DatabaseScheduler.getQueuedCount();
+        for (MessageWriter writer : WRITERS) {
+            depth += writer.getBuffer().size();
+        }
+        return depth;
+    }
+
     /**
      * Check if database is available
      * This will initialize Hibernate if not already initialized
      */
     public static boolean isDatabaseAvailable() {
-        if (!initialized) {
-            initialize();
-        }
-        return databaseAvailable && entityManagerFactory != null;
+        return initializedState().usable();
     }
 
     /**
-     * Get the message repository for advanced operations
+     * Get the message store for advanced operations
      */
-    public static MessageRepository getMessageRepository() {
-        if (!initialized) {
-            initialize();
-        }
-        if (messageRepository == null) {
+    public static MessageStore getMessageStore() {
+        MessageStore store = initializedState().store();
+        if (store == null) {
             throw new IllegalStateException(
-                "MessageRepository not available - Hibernate initialization failed"
+                "MessageStore not available - initialization failed"
             );
         }
-        return messageRepository;
+        return store;
+    }
+
+    /**
+     * Rebuild the EntityManagerFactories so changed pool settings take
+     * effect. The new state is built while the old one keeps serving, then
+     * swapped in; the old pools are closed once saves in progress finish.
+     */
+    public static void reconfigure() {
+        try {
+            DatabaseScheduler.execute(DatabaseScheduler.Lane.WRITE, () -> {
+                State state = STATE.get();
+                if (!state.initialized() || state.factories().isEmpty()) {
+                    // Picked up by the next initialize(), or no pool
+                    return;
+                }
+                LOGGER.info("Applying new connection pool settings");
+                State next = openJpaState(state.factories().size());
+                if (next.store() == null) {
+                    // Keep the working pools rather than none
+                    LOGGER.warn("New connection pool settings not applied");
+                    return;
+                }
+                if (!replace(state, next)) {
+                    // Reset or replaced meanwhile
+                    closeResources(next);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Database scheduler stopped, skipping reconfigure");
+        }
     }
 
     /**
-     * Close resources
+     * Close resources and stop the scheduler for good, on server stop
      */
     public static void close() {
         LOGGER.info("Closing Hibernate resources...");
 
-        if (entityManagerFactory != null) {
+        reset(null);
+
+        // Stop accepting database tasks
+        DatabaseScheduler.shutdown();
+        LOGGER.info("Database scheduler shutdown initiated");
+    }
+
+    /**
+     * Replace the state with an uninitialized one and close its resources,
+     * once no writer is using them. Nothing happens if the state is no
+     * longer the expected one, e.g. another writer reset it first.
+     *
+     * @param expected state to reset, or null for whatever is current
+     */
+    private static void reset(State expected) {
+        State previous;
+        STORE_LOCK.writeLock().lock();
+        try {
+            previous = STATE.get();
+            if (expected != null && previous != expected) {
+                return;
+            }
+            STATE.set(State.UNINITIALIZED);
+        } finally {
+            STORE_LOCK.writeLock().unlock();
+        }
+        closeResources(previous);
+    }
+
+    /**
+     * Swap in a fully built state and close the expected one once no writer
+     * is using it
+     *
+     * @return false if the state is no longer the expected one
+     */
+    private static boolean replace(State expected, State next) {
+        STORE_LOCK.writeLock().lock();
+        try {
+            if (!STATE.compareAndSet(expected, next)) {
+                return false;
+            }
+        } finally {
+            STORE_LOCK.writeLock().unlock();
+        }
+        closeResources(expected);
+        return true;
+    }
+
+    /**
+     * Reset the state if the database is still unavailable. Unlike close()
+     * this keeps the scheduler running, so an outage is not permanent.
+     */
+    private static void resetUnavailable() {
+        State state = STATE.get();
+        if (!state.usable()) {
+            reset(state);
+        }
+    }
+
+    private static void closeResources(State state) {
+        if (state.store() != null) {
+            state.store().close();
+        }
+        for (EntityManagerFactory factory : state.factories()) {
             try {
-                entityManagerFactory.close();
+                factory.close();
                 LOGGER.info("EntityManagerFactory closed successfully");
             } catch (Exception e) {
                 LOGGER.error(
                     "Failed to close EntityManagerFactory: {}",
                     e.getMessage()
                 );
-            } finally {
-                entityManagerFactory = null;
             }
         }
-
-        // Reset state
-        initialized = false;
-        databaseAvailable = false;
-        messageRepository = null;
-
-        // Shutdown executor
-        DATABASE_EXECUTOR.shutdown();
-        LOGGER.info("Database executor shutdown initiated");
     }
 }
@@ -0,0 +1,456 @@
+package com.example.craftmessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules database work in three lanes so bulk jobs cannot starve chat.
+ *
+ * Every piece of work needs a permit of its lane. A lane may hold
+ * database.lanes.&lt;lane&gt;.connections permits at once and all lanes
+ * together no more than the connection pool size. Each shard has a pool of
+ * that size and work holding a permit uses at most one connection per
+ * shard, for example a sharded batch fanned out to every shard. So the
+ * quotas hold for every shard's pool, and across N shards a lane uses at
+ * most N times its quota in connections. When permits free up and
+ * several lanes have work queued, they take turns in proportion to
+ * database.lanes.&lt;lane&gt;.weight (stride scheduling), so a lane with
+ * twice the weight gets twice the dequeues.
+ *
+ * Background writers hold a write permit per batch ({@link #enter} and
+ * {@link #exit}), everything else is submitted as a task. Bulk jobs work in
+ * chunks and call {@link #yieldToInteractive} between them: while write or
+ * read work is queued, the job gives its permit back and pauses, at most
+ * database.lanes.bulk.maxPauseMillis per chunk.
+ */
+public class DatabaseScheduler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DatabaseScheduler.class
+    );
+
+    private static final long STRIDE = 1L << 20;
+
+    public enum Lane {
+        /** Chat messages and mailbox updates */
+        WRITE("write"),
+        /** History pages, mailboxes, statistics */
+        READ("read"),
+        /** Exports, imports, purges, rebalancing, reconciles */
+        BULK("bulk");
+
+        private final String key;
+        private final LatencyHistogram waitLatency = new LatencyHistogram();
+        private final LatencyHistogram runLatency = new LatencyHistogram();
+        private final AtomicLong preemptions = new AtomicLong();
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Permits this lane may hold at once, each worth one connection on
+         * every shard
+         */
+        public int connections() {
+            int configured = DatabaseConfig.getLaneConnections(key);
+            if (configured > 0 || this != WRITE) {
+                return Math.max(1, configured);
+            }
+            return Math.max(
+                1,
+                DatabaseConfig.getMaximumPoolSize() -
+                READ.connections() -
+                BULK.connections()
+            );
+        }
+
+        int weight() {
+            return Math.max(1, DatabaseConfig.getLaneWeight(key));
+        }
+
+        /**
+         * Time from submit to start
+         */
+        public LatencyHistogram getWaitLatency() {
+            return waitLatency;
+        }
+
+        /**
+         * Time from start to finish
+         */
+        public LatencyHistogram getRunLatency() {
+            return runLatency;
+        }
+    }
+
+    /**
+     * Work waiting for a permit: a task, or a thread blocked in enter
+     */
+    private static final class Ticket {
+
+        final Lane lane;
+        final Runnable task;
+        final long queuedNanos = System.nanoTime();
+        boolean granted;
+
+        Ticket(Lane lane, Runnable task) {
+            this.lane = lane;
+            this.task = task;
+        }
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    // All scheduling state is guarded by LOCK
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Condition CHANGED = LOCK.newCondition();
+    @SuppressWarnings("unchecked")
+    private static final ArrayDeque<Ticket>[] QUEUES =
+        new ArrayDeque[LANES.length];
+    private static final int[] RUNNING = new int[LANES.length];
+    private static final long[] PASS = new long[LANES.length];
+    private static long virtualTime;
+    private static int totalRunning;
+    private static boolean shutdown;
+
+    private static final ThreadLocal<Lane> CURRENT = new ThreadLocal<>();
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    // Concurrency is bounded by the permits, idle threads time out
+    private static final ExecutorService EXECUTOR =
+        Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(
+                runnable,
+                "craftmessage-db-" + THREADS.incrementAndGet()
+            );
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    static {
+        for (int i = 0; i < QUEUES.length; i++) {
+            QUEUES[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Run a task in a lane once it gets a permit
+     *
+     * @throws RejectedExecutionException after {@link #shutdown}
+     */
+    public static void execute(Lane lane, Runnable task) {
+        LOCK.lock();
+        try {
+            if (shutdown) {
+                throw new RejectedExecutionException(
+                    "Database scheduler stopped"
+                );
+            }
+            enqueue(new Ticket(lane, task));
+            dispatch();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Compute a value in a lane. Failures complete the future with a
+     * CompletionException, as CompletableFuture.supplyAsync does.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(
+        Lane lane,
+        Supplier<T> supplier
+    ) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            execute(lane, () -> {
+                T value;
+                try {
+                    value = supplier.get();
+                } catch (Throwable e) {
+                    future.completeExceptionally(new CompletionException(e));
+                    return;
+                }
+                future.complete(value);
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * The error behind a failed supplyAsync future, without its
+     * CompletionException
+     */
+    public static Throwable causeOf(Throwable error) {
+        return error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * Block until the calling thread holds a permit of the lane, e.g. a
+     * writer before saving a batch. Works after shutdown so writers can
+     * flush.
+     *
+     * @return token for {@link #exit}
+     */
+    public static long enter(Lane lane) {
+        LOCK.lock();
+        try {
+            acquire(new Ticket(lane, null), false);
+        } finally {
+            LOCK.unlock();
+        }
+        CURRENT.set(lane);
+        return System.nanoTime();
+    }
+
+    /**
+     * Give back the permit taken by {@link #enter}
+     */
+    public static void exit(Lane lane, long token) {
+        CURRENT.remove();
+        lane.runLatency.record(System.nanoTime() - token);
+        release(lane);
+    }
+
+    /**
+     * Whether the calling thread does bulk work, which should not tie up
+     * shared resources such as the shard fan-out threads
+     */
+    public static boolean isBulk() {
+        return CURRENT.get() == Lane.BULK;
+    }
+
+    /**
+     * Preemption point for chunked bulk jobs, called between chunks while
+     * no connection is held. If write or read work is queued, the permit is
+     * given to it and the job waits its turn again.
+     */
+    public static void yieldToInteractive() {
+        if (!isBulk()) {
+            return;
+        }
+        long deadline =
+            System.nanoTime() +
+            Math.max(0, DatabaseConfig.getBulkMaxPauseMillis()) * 1_000_000L;
+        LOCK.lock();
+        try {
+            if (!interactiveQueued()) {
+                return;
+            }
+            Lane.BULK.preemptions.incrementAndGet();
+            releaseLocked(Lane.BULK);
+            // Let the interactive work through, but not forever
+            while (interactiveQueued()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                try {
+                    CHANGED.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            // Resumes ahead of other bulk work, it already waited
+            acquire(new Ticket(Lane.BULK, null), true);
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reject new tasks; queued ones still run
+     */
+    public static void shutdown() {
+        LOCK.lock();
+        try {
+            shutdown = true;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Tasks and writers waiting for a permit
+     */
+    public static int getQueuedCount() {
+        LOCK.lock();
+        try {
+            int queued = 0;
+            for (ArrayDeque<Ticket> queue : QUEUES) {
+                queued += queue.size();
+            }
+            return queued;
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    /**
+     * Permits, queue, wait and run latency per lane
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        LOCK.lock();
+        try {
+            lines.add(
+                "Lanes: " +
+                totalRunning +
+                " of " +
+                DatabaseConfig.getMaximumPoolSize() +
+                " permits in use, one connection per shard each (" +
+                DatabaseConfig.getShardCount() +
+                " shards)"
+            );
+            for (Lane lane : LANES) {
+                int index = lane.ordinal();
+                lines.add(
+                    "  " +
+                    lane.key +
+                    ": " +
+                    RUNNING[index] +
+                    "/" +
+                    lane.connections() +
+                    " running, " +
+                    QUEUES[index].size() +
+                    " queued, weight " +
+                    lane.weight() +
+                    (lane == Lane.BULK
+                        ? ", " + lane.preemptions.get() + " preemptions"
+                        : "")
+                );
+            }
+        } finally {
+            LOCK.unlock();
+        }
+        for (Lane lane : LANES) {
+            lines.add("    wait " + lane.waitLatency.summary());
+            lines.add("    run " + lane.runLatency.summary());
+        }
+        return lines;
+    }
+
+    /**
+     * Queue a ticket for the calling thread and wait until it is granted
+     *
+     * @param resume queue at the front of its lane
+     */
+    private static void acquire(Ticket ticket, boolean resume) {
+        if (resume) {
+            QUEUES[ticket.lane.ordinal()].addFirst(ticket);
+        } else {
+            enqueue(ticket);
+        }
+        dispatch();
+        while (!ticket.granted) {
+            CHANGED.awaitUninterruptibly();
+        }
+    }
+
+    private static void enqueue(Ticket ticket) {
+        int index = ticket.lane.ordinal();
+        if (QUEUES[index].isEmpty() && RUNNING[index] == 0) {
+            // An idle lane does not bank turns it did not use
+            PASS[index] = Math.max(PASS[index], virtualTime);
+        }
+        QUEUES[index].addLast(ticket);
+    }
+
+    /**
+     * Hand out free permits, lowest pass first among lanes with work and
+     * room under their quota
+     */
+    private static void dispatch() {
+        int limit = Math.max(1, DatabaseConfig.getMaximumPoolSize());
+        while (totalRunning < limit) {
+            Lane next = null;
+            for (Lane lane : LANES) {
+                int index = lane.ordinal();
+                if (
+                    !QUEUES[index].isEmpty() &&
+                    RUNNING[index] < lane.connections() &&
+                    (next == null || PASS[index] < PASS[next.ordinal()])
+                ) {
+                    next = lane;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            int index = next.ordinal();
+            Ticket ticket = QUEUES[index].pollFirst();
+            RUNNING[index]++;
+            totalRunning++;
+            virtualTime = PASS[index];
+            PASS[index] += STRIDE / next.weight();
+            next.waitLatency.record(System.nanoTime() - ticket.queuedNanos);
+
+            // Wakes granted threads and bulk jobs waiting for this queue
+            CHANGED.signalAll();
+            if (ticket.task == null) {
+                ticket.granted = true;
+                continue;
+            }
+            try {
+                EXECUTOR.execute(() -> run(ticket));
+            } catch (RejectedExecutionException e) {
+                LOGGER.error("Database task could not be started", e);
+                RUNNING[index]--;
+                totalRunning--;
+            }
+        }
+    }
+
+    private static void run(Ticket ticket) {
+        CURRENT.set(ticket.lane);
+        long started = System.nanoTime();
+        try {
+            ticket.task.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Database task failed", e);
+        } finally {
+            CURRENT.remove();
+            ticket.lane.runLatency.record(System.nanoTime() - started);
+            release(ticket.lane);
+        }
+    }
+
+    private static void release(Lane lane) {
+        LOCK.lock();
+        try {
+            releaseLocked(lane);
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static void releaseLocked(Lane lane) {
+        RUNNING[lane.ordinal()]--;
+        totalRunning--;
+        dispatch();
+        CHANGED.signalAll();
+    }
+
+    private static boolean interactiveQueued() {
+        return (
+            !QUEUES[Lane.WRITE.ordinal()].isEmpty() ||
+            !QUEUES[Lane.READ.ordinal()].isEmpty()
+        );
+    }
+}
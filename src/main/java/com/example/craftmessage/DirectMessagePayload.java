@@ -0,0 +1,53 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Direct messages for the receiving player, oldest first. Live deliveries
+ * carry a single entry with ID 0 because the message is not stored yet;
+ * mailbox drains carry up to a page of stored messages.
+ */
+public record DirectMessagePayload(List<HistoryPagePayload.Entry> messages)
+    implements CustomPayload {
+    public static final CustomPayload.Id<DirectMessagePayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "direct_message"));
+
+    public static final PacketCodec<PacketByteBuf, DirectMessagePayload> CODEC =
+        PacketCodec.of(DirectMessagePayload::write, DirectMessagePayload::read);
+
+    private static void write(DirectMessagePayload payload, PacketByteBuf buf) {
+        buf.writeVarInt(payload.messages.size());
+        for (HistoryPagePayload.Entry entry : payload.messages) {
+            buf.writeLong(entry.id());
+            buf.writeUuid(entry.player());
+            buf.writeLong(entry.createdAtMillis());
+            buf.writeString(entry.text());
+        }
+    }
+
+    private static DirectMessagePayload read(PacketByteBuf buf) {
+        int size = buf.readVarInt();
+        List<HistoryPagePayload.Entry> messages = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            messages.add(
+                new HistoryPagePayload.Entry(
+                    buf.readLong(),
+                    buf.readUuid(),
+                    buf.readLong(),
+                    buf.readString()
+                )
+            );
+        }
+        return new DirectMessagePayload(messages);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
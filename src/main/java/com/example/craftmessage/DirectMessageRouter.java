@@ -0,0 +1,204 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Routes direct messages between players.
+ *
+ * Online players are kept in a routing table maintained on join and
+ * disconnect, so a message to an online recipient is sent from the receive
+ * handler in the same tick without touching the database. Messages for
+ * offline recipients are queued in their mailbox by the writer; the mailbox
+ * is drained page by page when the recipient joins, and entries are only
+ * marked delivered after the page was sent.
+ */
+public class DirectMessageRouter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        DirectMessageRouter.class
+    );
+
+    private static final int MAILBOX_PAGE_SIZE = 100;
+
+    private static final Map<UUID, ServerPlayerEntity> ONLINE =
+        new ConcurrentHashMap<>();
+    // Recipients with a drain running; true if another one was requested
+    private static final Map<UUID, Boolean> DRAINING =
+        new ConcurrentHashMap<>();
+    private static volatile MinecraftServer server;
+
+    public static void register() {
+        PayloadTypeRegistry.playS2C().register(
+            DirectMessagePayload.ID,
+            DirectMessagePayload.CODEC
+        );
+
+        ServerLifecycleEvents.SERVER_STARTED.register(started ->
+            server = started
+        );
+        ServerLifecycleEvents.SERVER_STOPPED.register(stopped -> {
+            server = null;
+            ONLINE.clear();
+        });
+        ServerPlayConnectionEvents.JOIN.register((handler, sender, joined) -> {
+            ONLINE.put(handler.player.getUuid(), handler.player);
+            drainMailbox(handler.player.getUuid());
+        });
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, stopped) ->
+            ONLINE.remove(handler.player.getUuid(), handler.player)
+        );
+    }
+
+    /**
+     * Send a direct message right away if the recipient is online here.
+     * Called on the server thread.
+     *
+     * @return true if the message was delivered
+     */
+    public static boolean deliver(UUID sender, UUID recipient, String text) {
+        ServerPlayerEntity target = ONLINE.get(recipient);
+        if (
+            target == null ||
+            !ServerPlayNetworking.canSend(target, DirectMessagePayload.ID)
+        ) {
+            return false;
+        }
+        ServerPlayNetworking.send(
+            target,
+            new DirectMessagePayload(
+                List.of(
+                    new HistoryPagePayload.Entry(
+                        0L,
+                        sender,
+                        System.currentTimeMillis(),
+                        text
+                    )
+                )
+            )
+        );
+        return true;
+    }
+
+    /**
+     * Called by the writer after messages were put into mailboxes. A
+     * recipient who joined while the message was queued is not in the join
+     * drain, so drain again for recipients that are online now.
+     */
+    static void afterQueued(Collection<UUID> recipients) {
+        for (UUID recipient : recipients) {
+            if (ONLINE.containsKey(recipient)) {
+                drainMailbox(recipient);
+            }
+        }
+    }
+
+    /**
+     * Send the recipient's undelivered messages, one page per round trip
+     */
+    public static void drainMailbox(UUID recipient) {
+        // Start a drain, or atomically flag the running one so finish()
+        // cannot remove the entry between the check and the flag
+        Boolean requested = DRAINING.merge(
+            recipient,
+            Boolean.FALSE,
+            (running, ignored) -> Boolean.TRUE
+        );
+        if (requested) {
+            // Picked up when the running drain finishes
+            return;
+        }
+        fetchPage(recipient);
+    }
+
+    private static void fetchPage(UUID recipient) {
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, store ->
+            store.findMailbox(recipient, MAILBOX_PAGE_SIZE)
+        ).whenComplete((messages, error) -> {
+            MinecraftServer current = server;
+            if (error != null || current == null) {
+                if (error != null) {
+                    LOGGER.warn(
+                        "Failed to read mailbox of {}: {}",
+                        recipient,
+                        error.getMessage()
+                    );
+                }
+                DRAINING.remove(recipient);
+                return;
+            }
+            current.execute(() -> sendPage(recipient, messages));
+        });
+    }
+
+    private static void sendPage(UUID recipient, List<MessageEntity> messages) {
+        ServerPlayerEntity player = ONLINE.get(recipient);
+        if (player == null || messages.isEmpty()) {
+            finish(recipient);
+            return;
+        }
+
+        List<HistoryPagePayload.Entry> entries = new ArrayList<>(
+            messages.size()
+        );
+        for (MessageEntity message : messages) {
+            entries.add(
+                new HistoryPagePayload.Entry(
+                    message.getId(),
+                    message.getUuid(),
+                    message.getCreatedAt() != null
+                        ? message.getCreatedAt().toEpochMilli()
+                        : 0L,
+                    message.getText()
+                )
+            );
+        }
+        ServerPlayNetworking.send(player, new DirectMessagePayload(entries));
+
+        long upToId = messages.get(messages.size() - 1).getId();
+        boolean fullPage = messages.size() == MAILBOX_PAGE_SIZE;
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.WRITE, store ->
+            store.markDelivered(recipient, upToId)
+        ).whenComplete((marked, error) -> {
+            if (error != null) {
+                LOGGER.warn(
+                    "Failed to mark mailbox of {} delivered: {}",
+                    recipient,
+                    error.getMessage()
+                );
+                DRAINING.remove(recipient);
+            } else if (fullPage) {
+                fetchPage(recipient);
+            } else {
+                finish(recipient);
+            }
+        });
+        LOGGER.debug(
+            "Delivered {} mailbox messages to {}",
+            messages.size(),
+            recipient
+        );
+    }
+
+    private static void finish(UUID recipient) {
+        if (DRAINING.remove(recipient, Boolean.FALSE)) {
+            return;
+        }
+        if (DRAINING.replace(recipient, Boolean.TRUE, Boolean.FALSE)) {
+            // Another drain was requested meanwhile
+            fetchPage(recipient);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses repeated messages before they are persisted.
+ *
+ * Every player has a small ring of 64-bit hashes of their recent messages
+ * with the time each was last seen, in primitive arrays. Text is normalized
+ * before hashing: letters are folded as in the word filter, everything but
+ * letters and digits is skipped and runs of the same letter count once, so
+ * "GG!!", "gg" and "g g g" are the same line. Digits are kept as written,
+ * so "10" and "100" differ, and text without letters or digits (":)", "?")
+ * is hashed as it is. The channel or recipient is part of the hash. A message whose hash was seen
+ * within messages.dedup.windowSeconds is a repeat; seeing it again slides
+ * the window forward.
+ *
+ * With messages.dedup.action=drop repeats are rejected. With collapse,
+ * repeats of the player's last message are accepted but not stored; once
+ * the player moves on (or disconnects) one summary line with the number
+ * of repeats is stored in their place.
+ */
+public class DuplicateSuppressor {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Map<UUID, Window> WINDOWS = new ConcurrentHashMap<>();
+    private static final AtomicLong droppedMessages = new AtomicLong();
+    private static final AtomicLong collapsedMessages = new AtomicLong();
+    private static final AtomicLong summaryMessages = new AtomicLong();
+
+    public enum Verdict {
+        NEW,
+        DROP,
+        COLLAPSE
+    }
+
+    /**
+     * Repeats collapsed into one stored line
+     *
+     * @param count repeats after the message that was stored
+     */
+    public record Repeats(
+        UUID recipient,
+        String channel,
+        String text,
+        int count
+    ) {
+        /**
+         * The line stored for the repeats, within the 256 character limit
+         */
+        public String summaryText() {
+            String suffix = " (repeated " + count + "x)";
+            int room = 256 - suffix.length();
+            return (text.length() > room ? text.substring(0, room) : text) +
+                suffix;
+        }
+    }
+
+    /**
+     * Recent message hashes of one player, a ring buffer
+     */
+    private static final class Window {
+
+        final long[] hashes;
+        final long[] seenNanos;
+        int filled;
+        int next;
+        int lastIndex;
+
+        // Last stored message and how many repeats of it were collapsed
+        long lastHash;
+        UUID lastRecipient;
+        String lastChannel;
+        String lastText;
+        int repeats;
+        Repeats ended;
+
+        Window(int size) {
+            hashes = new long[size];
+            seenNanos = new long[size];
+        }
+    }
+
+    /**
+     * Check a message against the player's recent ones and remember it
+     */
+    public static Verdict check(
+        UUID player,
+        UUID recipient,
+        String channel,
+        String text
+    ) {
+        String action = DatabaseConfig.getDedupAction();
+        int seconds = DatabaseConfig.getDedupWindowSeconds();
+        if (action.equals("off") || seconds <= 0) {
+            return Verdict.NEW;
+        }
+        int size = Math.max(1, DatabaseConfig.getDedupWindowSize());
+        Window window = WINDOWS.compute(player, (uuid, existing) ->
+            existing != null && existing.hashes.length == size
+                ? existing
+                : new Window(size)
+        );
+
+        long hash = hash(recipient, channel, text);
+        long now = System.nanoTime();
+        long windowNanos = seconds * 1_000_000_000L;
+        synchronized (window) {
+            for (int i = 0; i < window.filled; i++) {
+                if (
+                    window.hashes[i] == hash &&
+                    now - window.seenNanos[i] <= windowNanos
+                ) {
+                    window.seenNanos[i] = now;
+                    if (action.equals("collapse") && hash == window.lastHash) {
+                        window.repeats++;
+                        collapsedMessages.incrementAndGet();
+                        return Verdict.COLLAPSE;
+                    }
+                    droppedMessages.incrementAndGet();
+                    return Verdict.DROP;
+                }
+            }
+
+            window.hashes[window.next] = hash;
+            window.seenNanos[window.next] = now;
+            window.lastIndex = window.next;
+            window.next = (window.next + 1) % window.hashes.length;
+            if (window.filled < window.hashes.length) {
+                window.filled++;
+            }
+            endRun(window);
+            window.lastHash = hash;
+            window.lastRecipient = recipient;
+            window.lastChannel = channel;
+            window.lastText = text;
+            return Verdict.NEW;
+        }
+    }
+
+    /**
+     * Forget the player's last new message because it was not stored, so
+     * sending it again is not a repeat
+     */
+    public static void retract(UUID player) {
+        Window window = WINDOWS.get(player);
+        if (window == null) {
+            return;
+        }
+        synchronized (window) {
+            // Far enough in the past for any window length
+            window.seenNanos[window.lastIndex] =
+                System.nanoTime() - Long.MAX_VALUE / 2;
+            window.lastHash = 0;
+        }
+    }
+
+    /**
+     * Take the collapsed repeats that ended with the player's last new
+     * message, to be stored before it
+     *
+     * @return the repeats, or null if there are none
+     */
+    public static Repeats takeEnded(UUID player) {
+        Window window = WINDOWS.get(player);
+        if (window == null) {
+            return null;
+        }
+        synchronized (window) {
+            Repeats ended = window.ended;
+            window.ended = null;
+            return ended;
+        }
+    }
+
+    /**
+     * Drop the player's window when they leave
+     *
+     * @return collapsed repeats not stored yet, or null
+     */
+    public static Repeats forget(UUID player) {
+        Window window = WINDOWS.remove(player);
+        if (window == null) {
+            return null;
+        }
+        synchronized (window) {
+            endRun(window);
+            return window.ended;
+        }
+    }
+
+    private static void endRun(Window window) {
+        if (window.repeats > 0) {
+            window.ended = new Repeats(
+                window.lastRecipient,
+                window.lastChannel,
+                window.lastText,
+                window.repeats
+            );
+            window.repeats = 0;
+            summaryMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * FNV-1a over the normalized text, or over the raw text if nothing is
+     * left after normalizing, seeded with the channel or recipient
+     */
+    static long hash(UUID recipient, String channel, String text) {
+        long seed = recipient != null
+            ? recipient.getMostSignificantBits() ^
+              recipient.getLeastSignificantBits()
+            : channel.hashCode();
+        long hash = (FNV_OFFSET ^ seed) * FNV_PRIME;
+        boolean empty = true;
+        char previous = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c)) {
+                c = MessageFilter.fold(c);
+                if (c == previous) {
+                    continue;
+                }
+            } else if (!Character.isDigit(c)) {
+                continue;
+            }
+            hash = (hash ^ c) * FNV_PRIME;
+            previous = c;
+            empty = false;
+        }
+        if (empty) {
+            for (int i = 0; i < text.length(); i++) {
+                hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Get suppression counters since the server started
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        lines.add(
+            "Duplicates: action " +
+            DatabaseConfig.getDedupAction() +
+            ", window " +
+            DatabaseConfig.getDedupWindowSeconds() +
+            " s over the last " +
+            DatabaseConfig.getDedupWindowSize() +
+            " messages per player"
+        );
+        lines.add(
+            "  " +
+            droppedMessages.get() +
+            " dropped, " +
+            collapsedMessages.get() +
+            " collapsed into " +
+            summaryMessages.get() +
+            " summary lines, " +
+            WINDOWS.size() +
+            " players tracked"
+        );
+        return lines;
+    }
+
+    public static long getDroppedCount() {
+        return droppedMessages.get();
+    }
+
+    public static long getCollapsedCount() {
+        return collapsedMessages.get();
+    }
+}
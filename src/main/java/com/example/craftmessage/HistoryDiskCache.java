@@ -0,0 +1,550 @@
+package com.example.craftmessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ServerInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side on-disk cache of message history, one per server address and
+ * channel.
+ *
+ * Messages are appended to a log file as length-prefixed records, and each
+ * record's (id, offset) pair is appended to an index file. The index is
+ * read on first use and kept in memory sorted by ID; a log tail missing
+ * from the index (e.g. after a crash) is recovered by scanning it. Every
+ * indexed offset must hold the record with that ID, otherwise (e.g. after
+ * a crash between replacing the log and the index while compacting) the
+ * cache is dropped and refilled from the server.
+ *
+ * The cache only holds one contiguous range of the server's history: a
+ * page is accepted when it starts right next to the cached range, so after
+ * opening the history screen only messages newer than the high-water mark
+ * have to be fetched. Once the log holds twice MAX_ENTRIES records it is
+ * compacted to the newest MAX_ENTRIES.
+ */
+public class HistoryDiskCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        HistoryDiskCache.class
+    );
+
+    private static final int MAGIC = 0x434d4843; // "CMHC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_ENTRIES = 5000;
+
+    private static HistoryDiskCache current;
+
+    private final String serverKey;
+    private final String channel;
+    private final Path logFile;
+    private final Path indexFile;
+
+    // Sorted by ID
+    private long[] ids = new long[0];
+    private long[] offsets = new long[0];
+    private int size;
+    private long logLength;
+    private boolean loaded;
+    private boolean broken;
+
+    private HistoryDiskCache(String serverKey, String channel, Path directory) {
+        this.serverKey = serverKey;
+        this.channel = channel;
+        // The default channel keeps the file names from before channels
+        String name = channel.equals(MessageEntity.DEFAULT_CHANNEL)
+            ? serverKey
+            : serverKey + "@" + channel;
+        this.logFile = directory.resolve(name + ".log");
+        this.indexFile = directory.resolve(name + ".idx");
+    }
+
+    /**
+     * Cache of a channel on the server the client is connected to, opened
+     * lazily
+     */
+    public static synchronized HistoryDiskCache forCurrentServer(
+        MinecraftClient client,
+        String channel
+    ) {
+        String key = serverKey(client);
+        if (
+            current == null ||
+            !current.serverKey.equals(key) ||
+            !current.channel.equals(channel)
+        ) {
+            current = new HistoryDiskCache(
+                key,
+                channel,
+                FabricLoader.getInstance()
+                    .getGameDir()
+                    .resolve(CraftMessageMod.MOD_ID)
+                    .resolve("cache")
+            );
+        }
+        return current;
+    }
+
+    /**
+     * Forget the open cache, e.g. on disconnect
+     */
+    public static synchronized void release() {
+        current = null;
+    }
+
+    static String serverKey(MinecraftClient client) {
+        ServerInfo server = client.getCurrentServerEntry();
+        String key;
+        if (server != null) {
+            key = server.address;
+        } else if (client.getServer() != null) {
+            key =
+                "singleplayer-" +
+                client.getServer().getSaveProperties().getLevelName();
+        } else {
+            key = "unknown";
+        }
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * Highest cached message ID, 0 if the cache is empty
+     */
+    public long getHighWaterMark() {
+        ensureLoaded();
+        return size == 0 ? 0L : ids[size - 1];
+    }
+
+    /**
+     * Lowest cached message ID, 0 if the cache is empty
+     */
+    public long getLowWaterMark() {
+        ensureLoaded();
+        return size == 0 ? 0L : ids[0];
+    }
+
+    /**
+     * Newest cached messages, newest first
+     */
+    public List<HistoryPagePayload.Entry> newest(int limit) {
+        ensureLoaded();
+        int count = Math.min(limit, size);
+        if (count == 0) {
+            return List.of();
+        }
+
+        long start = Long.MAX_VALUE;
+        for (int i = size - count; i < size; i++) {
+            start = Math.min(start, offsets[i]);
+        }
+        try (FileChannel channel = FileChannel.open(logFile)) {
+            ByteBuffer region = ByteBuffer.allocate(
+                (int) (logLength - start)
+            );
+            while (region.hasRemaining()) {
+                if (channel.read(region, start + region.position()) < 0) {
+                    throw new EOFException("Cache log shorter than index");
+                }
+            }
+            byte[] bytes = region.array();
+
+            List<HistoryPagePayload.Entry> entries = new ArrayList<>(count);
+            for (int i = size - 1; i >= size - count; i--) {
+                int position = (int) (offsets[i] - start);
+                entries.add(
+                    readRecord(
+                        new DataInputStream(
+                            new ByteArrayInputStream(
+                                bytes,
+                                position + 4,
+                                bytes.length - position - 4
+                            )
+                        )
+                    )
+                );
+            }
+            return entries;
+        } catch (IOException e) {
+            disable("read", e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Store a page received from the server if it extends the cached range
+     */
+    public void accept(HistoryPagePayload page) {
+        ensureLoaded();
+        if (broken || page.entries().isEmpty()) {
+            return;
+        }
+        boolean adjacent;
+        if (size == 0) {
+            adjacent = page.older() && page.anchorId() == Long.MAX_VALUE;
+        } else if (page.older()) {
+            adjacent = page.anchorId() == ids[0] && size < MAX_ENTRIES;
+        } else {
+            adjacent = page.anchorId() == ids[size - 1];
+        }
+        if (!adjacent) {
+            return;
+        }
+
+        try {
+            append(page.entries());
+            if (size >= 2 * MAX_ENTRIES) {
+                compact();
+            }
+        } catch (IOException e) {
+            disable("write", e);
+        }
+    }
+
+    private void append(List<HistoryPagePayload.Entry> entries)
+        throws IOException {
+        ByteArrayOutputStream logBytes = new ByteArrayOutputStream();
+        DataOutputStream log = new DataOutputStream(logBytes);
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+
+        long[] newIds = new long[entries.size()];
+        long[] newOffsets = new long[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            long offset = logLength + logBytes.size();
+            writeRecord(log, entries.get(i));
+            index.writeLong(entries.get(i).id());
+            index.writeLong(offset);
+            newIds[i] = entries.get(i).id();
+            newOffsets[i] = offset;
+        }
+
+        // Log first, so the index never points past the end of the log
+        try (
+            OutputStream output = Files.newOutputStream(
+                logFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            )
+        ) {
+            output.write(logBytes.toByteArray());
+        }
+        try (
+            OutputStream output = Files.newOutputStream(
+                indexFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            )
+        ) {
+            output.write(indexBytes.toByteArray());
+        }
+        logLength += logBytes.size();
+
+        for (int i = 0; i < newIds.length; i++) {
+            insert(newIds[i], newOffsets[i]);
+        }
+    }
+
+    /**
+     * Rewrite the log with only the newest MAX_ENTRIES messages
+     */
+    private void compact() throws IOException {
+        List<HistoryPagePayload.Entry> keep = new ArrayList<>(
+            newest(MAX_ENTRIES)
+        );
+        Collections.reverse(keep);
+
+        Path tempLog = logFile.resolveSibling(logFile.getFileName() + ".tmp");
+        Path tempIndex = indexFile.resolveSibling(
+            indexFile.getFileName() + ".tmp"
+        );
+        try (
+            DataOutputStream log = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempLog))
+            );
+            DataOutputStream index = new DataOutputStream(
+                new BufferedOutputStream(
+                    Files.newOutputStream(tempIndex)
+                )
+            )
+        ) {
+            log.writeInt(MAGIC);
+            log.writeInt(VERSION);
+            for (HistoryPagePayload.Entry entry : keep) {
+                index.writeLong(entry.id());
+                index.writeLong(log.size());
+                writeRecord(log, entry);
+            }
+        }
+        Files.move(
+            tempLog,
+            logFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+        Files.move(
+            tempIndex,
+            indexFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+        LOGGER.debug(
+            "Compacted history cache {} from {} to {} messages",
+            serverKey,
+            size,
+            keep.size()
+        );
+        loaded = false;
+        ensureLoaded();
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        size = 0;
+        ids = new long[256];
+        offsets = new long[256];
+        try {
+            load();
+        } catch (IOException e) {
+            disable("load", e);
+        }
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(logFile.getParent());
+        if (!Files.exists(logFile) || Files.size(logFile) < HEADER_SIZE) {
+            try (
+                DataOutputStream log = new DataOutputStream(
+                    Files.newOutputStream(logFile)
+                )
+            ) {
+                log.writeInt(MAGIC);
+                log.writeInt(VERSION);
+            }
+            Files.deleteIfExists(indexFile);
+            logLength = HEADER_SIZE;
+            return;
+        }
+
+        logLength = Files.size(logFile);
+        try (
+            DataInputStream log = new DataInputStream(
+                Files.newInputStream(logFile)
+            )
+        ) {
+            if (log.readInt() != MAGIC || log.readInt() != VERSION) {
+                throw new IOException("Unsupported history cache " + logFile);
+            }
+        }
+
+        // Index entries pointing past the end of the log are dropped
+        long indexedEnd = HEADER_SIZE;
+        if (Files.exists(indexFile)) {
+            try (
+                DataInputStream index = new DataInputStream(
+                    new BufferedInputStream(
+                        Files.newInputStream(indexFile)
+                    )
+                )
+            ) {
+                while (true) {
+                    long id;
+                    long offset;
+                    try {
+                        id = index.readLong();
+                        offset = index.readLong();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (offset + 4 > logLength) {
+                        break;
+                    }
+                    insert(id, offset);
+                    indexedEnd = Math.max(indexedEnd, offset);
+                }
+            }
+        }
+        if (!indexMatchesLog()) {
+            LOGGER.warn(
+                "History cache {} index does not match its log, dropping it",
+                serverKey
+            );
+            size = 0;
+            Files.deleteIfExists(indexFile);
+            Files.deleteIfExists(logFile);
+            load();
+            return;
+        }
+        recoverTail(indexedEnd);
+        LOGGER.debug(
+            "Loaded history cache {} with {} messages",
+            serverKey,
+            size
+        );
+    }
+
+    /**
+     * Check that every indexed offset starts the record with its ID
+     */
+    private boolean indexMatchesLog() throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            for (int i = 0; i < size; i++) {
+                if (offsets[i] + header.capacity() > logLength) {
+                    return false;
+                }
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (
+                        channel.read(header, offsets[i] + header.position()) < 0
+                    ) {
+                        return false;
+                    }
+                }
+                if (header.getInt(0) <= 0 || header.getLong(4) != ids[i]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Index records after the last indexed one and cut off a torn record at
+     * the end of the log
+     */
+    private void recoverTail(long from) throws IOException {
+        ByteArrayOutputStream recovered = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(recovered);
+        try (FileChannel channel = FileChannel.open(logFile)) {
+            ByteBuffer header = ByteBuffer.allocate(12);
+            long position = from;
+            // The record at from is already indexed unless the index was empty
+            boolean indexed = size > 0;
+            while (position + header.capacity() <= logLength) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                int length = header.getInt();
+                long end = position + 4 + length;
+                if (length <= 0 || end > logLength) {
+                    break;
+                }
+                if (!indexed) {
+                    long id = header.getLong();
+                    insert(id, position);
+                    index.writeLong(id);
+                    index.writeLong(position);
+                }
+                indexed = false;
+                position = end;
+            }
+            if (position < logLength) {
+                LOGGER.warn(
+                    "Dropping {} bytes of incomplete history cache data",
+                    logLength - position
+                );
+                try (
+                    FileChannel writable = FileChannel.open(
+                        logFile,
+                        StandardOpenOption.WRITE
+                    )
+                ) {
+                    writable.truncate(position);
+                }
+                logLength = position;
+            }
+        }
+        if (recovered.size() > 0) {
+            Files.write(
+                indexFile,
+                recovered.toByteArray(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            );
+        }
+    }
+
+    private void insert(long id, long offset) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position >= 0) {
+            offsets[position] = offset;
+            return;
+        }
+        position = -position - 1;
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        System.arraycopy(
+            offsets,
+            position,
+            offsets,
+            position + 1,
+            size - position
+        );
+        ids[position] = id;
+        offsets[position] = offset;
+        size++;
+    }
+
+    private static void writeRecord(
+        DataOutputStream output,
+        HistoryPagePayload.Entry entry
+    ) throws IOException {
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(64);
+        DataOutputStream record = new DataOutputStream(recordBytes);
+        record.writeLong(entry.id());
+        record.writeLong(entry.player().getMostSignificantBits());
+        record.writeLong(entry.player().getLeastSignificantBits());
+        record.writeLong(entry.createdAtMillis());
+        record.writeUTF(entry.text());
+        output.writeInt(recordBytes.size());
+        recordBytes.writeTo(output);
+    }
+
+    private static HistoryPagePayload.Entry readRecord(DataInputStream record)
+        throws IOException {
+        long id = record.readLong();
+        UUID player = new UUID(record.readLong(), record.readLong());
+        long createdAtMillis = record.readLong();
+        String text = record.readUTF();
+        return new HistoryPagePayload.Entry(id, player, createdAtMillis, text);
+    }
+
+    private void disable(String action, IOException e) {
+        LOGGER.warn(
+            "History cache {} failed to {}, disabling it: {}",
+            serverKey,
+            action,
+            e.getMessage()
+        );
+        broken = true;
+        size = 0;
+    }
+}
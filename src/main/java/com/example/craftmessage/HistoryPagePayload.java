@@ -0,0 +1,82 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Server reply with one page of a channel's history. Entries are ordered
+ * starting next to the requested anchor; hasMore is false once the end of
+ * the history in that direction was reached.
+ */
+public record HistoryPagePayload(
+    long anchorId,
+    boolean older,
+    List<Entry> entries,
+    boolean hasMore,
+    String channel
+) implements CustomPayload {
+    public static final CustomPayload.Id<HistoryPagePayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "history_page"));
+
+    public static final PacketCodec<PacketByteBuf, HistoryPagePayload> CODEC =
+        PacketCodec.of(HistoryPagePayload::write, HistoryPagePayload::read);
+
+    public record Entry(
+        long id,
+        UUID player,
+        long createdAtMillis,
+        String text
+    ) {}
+
+    private static void write(HistoryPagePayload payload, PacketByteBuf buf) {
+        buf.writeLong(payload.anchorId);
+        buf.writeBoolean(payload.older);
+        buf.writeBoolean(payload.hasMore);
+        buf.writeVarInt(payload.entries.size());
+        for (Entry entry : payload.entries) {
+            buf.writeLong(entry.id);
+            buf.writeUuid(entry.player);
+            buf.writeLong(entry.createdAtMillis);
+            buf.writeString(entry.text);
+        }
+        buf.writeString(payload.channel, 32);
+    }
+
+    private static HistoryPagePayload read(PacketByteBuf buf) {
+        long anchorId = buf.readLong();
+        boolean older = buf.readBoolean();
+        boolean hasMore = buf.readBoolean();
+        int size = buf.readVarInt();
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(
+                new Entry(
+                    buf.readLong(),
+                    buf.readUuid(),
+                    buf.readLong(),
+                    buf.readString()
+                )
+            );
+        }
+        String channel = buf.isReadable()
+            ? buf.readString(32)
+            : MessageEntity.DEFAULT_CHANNEL;
+        return new HistoryPagePayload(
+            anchorId,
+            older,
+            entries,
+            hasMore,
+            channel
+        );
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
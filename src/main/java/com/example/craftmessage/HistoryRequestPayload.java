@@ -0,0 +1,46 @@
+package com.example.craftmessage;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Client request for one page of a channel's history next to anchorId.
+ * Requests from older clients end before the channel and ask for the
+ * default channel.
+ */
+public record HistoryRequestPayload(
+    long anchorId,
+    boolean older,
+    int limit,
+    String channel
+) implements CustomPayload {
+    public static final CustomPayload.Id<HistoryRequestPayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "history_request"));
+
+    public static final PacketCodec<PacketByteBuf, HistoryRequestPayload> CODEC =
+        PacketCodec.of(HistoryRequestPayload::write, HistoryRequestPayload::read);
+
+    private static void write(HistoryRequestPayload payload, PacketByteBuf buf) {
+        buf.writeLong(payload.anchorId);
+        buf.writeBoolean(payload.older);
+        buf.writeVarInt(payload.limit);
+        buf.writeString(payload.channel, 32);
+    }
+
+    private static HistoryRequestPayload read(PacketByteBuf buf) {
+        long anchorId = buf.readLong();
+        boolean older = buf.readBoolean();
+        int limit = buf.readVarInt();
+        String channel = buf.isReadable()
+            ? buf.readString(32)
+            : MessageEntity.DEFAULT_CHANNEL;
+        return new HistoryRequestPayload(anchorId, older, limit, channel);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
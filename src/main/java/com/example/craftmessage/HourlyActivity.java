@@ -0,0 +1,11 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+
+/**
+ * Read-only activity rollup of one hour
+ *
+ * @param hour start of the hour in UTC
+ * @param characters total length of the hour's messages in characters
+ */
+public record HourlyActivity(Instant hour, long messages, long characters) {}
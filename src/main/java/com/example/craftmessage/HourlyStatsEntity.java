@@ -0,0 +1,38 @@
+package com.example.craftmessage;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Activity rollup of one hour (UTC, by created_at): messages sent and their
+ * total length in characters. Maintained like {@link PlayerStatsEntity}.
+ */
+@Entity
+@Table(name = "hourly_stats")
+public class HourlyStatsEntity {
+
+    @Id
+    @Column(name = "hour_start")
+    private Instant hour;
+
+    @Column(name = "message_count", nullable = false)
+    private long messageCount;
+
+    @Column(name = "total_chars", nullable = false)
+    private long totalChars;
+
+    // Default constructor required by JPA
+    public HourlyStatsEntity() {}
+
+    public Instant getHour() {
+        return hour;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getTotalChars() {
+        return totalChars;
+    }
+}
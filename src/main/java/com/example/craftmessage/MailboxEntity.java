@@ -0,0 +1,70 @@
+package com.example.craftmessage;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Direct message waiting for an offline recipient. Stored on the
+ * recipient's shard with a copy of the message, so draining a mailbox is a
+ * single index range scan without joining messages on other shards. The ID
+ * is the ID of the message in the messages table.
+ */
+@Entity
+@Table(
+    name = "mailbox",
+    indexes = {
+        @Index(
+            name = "idx_mailbox_recipient",
+            columnList = "recipient, delivered, id"
+        ),
+    }
+)
+public class MailboxEntity {
+
+    @Id
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "recipient", nullable = false)
+    private UUID recipient;
+
+    @Column(name = "sender", nullable = false)
+    private UUID sender;
+
+    @Column(name = "text", nullable = false, length = 256)
+    private String text;
+
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+    @Column(name = "delivered", nullable = false)
+    private boolean delivered;
+
+    // Default constructor required by JPA
+    public MailboxEntity() {}
+
+    public Long getId() {
+        return id;
+    }
+
+    public UUID getRecipient() {
+        return recipient;
+    }
+
+    public UUID getSender() {
+        return sender;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public boolean isDelivered() {
+        return delivered;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.craftmessage;
+
+import io.netty.handler.codec.DecoderException;
+import java.util.ArrayList;
+import java.util.List;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Server reply to a {@link MessageBatchPayload} with the outcome of each
+ * message, in batch order
+ */
+public record MessageAckPayload(List<Ack> acks) implements CustomPayload {
+    public static final CustomPayload.Id<MessageAckPayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "message_ack"));
+
+    public static final PacketCodec<PacketByteBuf, MessageAckPayload> CODEC =
+        PacketCodec.of(MessageAckPayload::write, MessageAckPayload::read);
+
+    private static final SimpleMessageHandler.Outcome[] OUTCOMES =
+        SimpleMessageHandler.Outcome.values();
+
+    public record Ack(long clientId, SimpleMessageHandler.Outcome outcome) {}
+
+    private static void write(MessageAckPayload payload, PacketByteBuf buf) {
+        buf.writeVarInt(payload.acks.size());
+        for (Ack ack : payload.acks) {
+            buf.writeVarLong(ack.clientId);
+            buf.writeByte(ack.outcome.ordinal());
+        }
+    }
+
+    private static MessageAckPayload read(PacketByteBuf buf) {
+        int count = buf.readVarInt();
+        if (count < 0 || count > MessageBatchPayload.MAX_MESSAGES) {
+            throw new DecoderException("Too many acks: " + count);
+        }
+        List<Ack> acks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long clientId = buf.readVarLong();
+            int outcome = buf.readUnsignedByte();
+            if (outcome >= OUTCOMES.length) {
+                throw new DecoderException("Unknown outcome " + outcome);
+            }
+            acks.add(new Ack(clientId, OUTCOMES[outcome]));
+        }
+        return new MessageAckPayload(acks);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
@@ -0,0 +1,487 @@
+package com.example.craftmessage;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streaming export and import of the messages table.
+ *
+ * Rows are read in ID order in fixed-size chunks, so memory use does not
+ * depend on the size of the range. Every chunk is written as its own gzip
+ * member and followed by a checkpoint (last exported ID and file length)
+ * next to the archive; an interrupted export is resumed by truncating to
+ * the last checkpoint and continuing after its ID. Concatenated gzip
+ * members read back as a single stream.
+ *
+ * Formats are chosen by file extension: ".ndjson.gz" writes one JSON object
+ * per line, ".bin.gz" writes a compact binary record stream.
+ */
+public class MessageArchiver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        MessageArchiver.class
+    );
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int BINARY_MAGIC = 0x434d5347; // "CMSG"
+    // Version 2 added the recipient of direct messages, 3 the channel
+    private static final int BINARY_VERSION = 3;
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    public enum Format {
+        NDJSON,
+        BINARY;
+
+        static Format of(Path file) {
+            String name = file.getFileName().toString();
+            if (name.endsWith(".ndjson.gz")) {
+                return NDJSON;
+            }
+            if (name.endsWith(".bin.gz")) {
+                return BINARY;
+            }
+            throw new IllegalArgumentException(
+                "Archive name must end with .ndjson.gz or .bin.gz: " + name
+            );
+        }
+    }
+
+    /**
+     * Rows to export: IDs in (afterId, toId], optionally limited to
+     * created_at in [from, until)
+     */
+    public record Range(long afterId, long toId, Instant from, Instant until) {
+        public static Range ids(long fromId, long toId) {
+            return new Range(fromId - 1, toId, null, null);
+        }
+
+        public static Range time(Instant from, Instant until) {
+            return new Range(0L, Long.MAX_VALUE, from, until);
+        }
+    }
+
+    /**
+     * Outcome of an export or import; idsPast is the highest ID new saves
+     * are past after an import, -1 for exports
+     */
+    public record Result(long rows, long lastId, Path file, long idsPast) {}
+
+    /**
+     * Export a range into a new archive, replacing any existing file
+     */
+    public static Result export(
+        MessageStore repository,
+        Path file,
+        Range range
+    ) throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(checkpointOf(file));
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        return exportFrom(repository, file, range, range.afterId(), 0L);
+    }
+
+    /**
+     * Continue an export after the last checkpoint written for this file
+     */
+    public static Result resume(
+        MessageStore repository,
+        Path file
+    ) throws IOException {
+        Path checkpointFile = checkpointOf(file);
+        if (!Files.exists(checkpointFile)) {
+            throw new IOException("No checkpoint for " + file.getFileName());
+        }
+        Properties checkpoint = new Properties();
+        try (InputStream input = Files.newInputStream(checkpointFile)) {
+            checkpoint.load(input);
+        }
+
+        Range range = new Range(
+            Long.parseLong(checkpoint.getProperty("afterId")),
+            Long.parseLong(checkpoint.getProperty("toId")),
+            parseInstant(checkpoint.getProperty("from")),
+            parseInstant(checkpoint.getProperty("until"))
+        );
+        long lastId = Long.parseLong(checkpoint.getProperty("lastId"));
+        long length = Long.parseLong(checkpoint.getProperty("length"));
+
+        if (Format.of(file) == Format.BINARY && length > 0) {
+            try (
+                DataInputStream data = new DataInputStream(
+                    new GZIPInputStream(Files.newInputStream(file))
+                )
+            ) {
+                data.readInt();
+                if (data.readInt() != BINARY_VERSION) {
+                    throw new IOException(
+                        file.getFileName() +
+                        " was started by an older version, export it again"
+                    );
+                }
+            }
+        }
+
+        // Drop anything written after the last complete chunk
+        try (
+            FileChannel channel = FileChannel.open(
+                file,
+                StandardOpenOption.WRITE
+            )
+        ) {
+            channel.truncate(length);
+        }
+        LOGGER.info(
+            "Resuming export of {} after message ID {}",
+            file.getFileName(),
+            lastId
+        );
+        return exportFrom(repository, file, range, lastId, length);
+    }
+
+    private static Result exportFrom(
+        MessageStore repository,
+        Path file,
+        Range range,
+        long lastId,
+        long length
+    ) throws IOException {
+        Format format = Format.of(file);
+        long rows = 0;
+
+        try (
+            OutputStream output = Files.newOutputStream(
+                file,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND
+            )
+        ) {
+            if (length == 0 && format == Format.BINARY) {
+                writeChunk(output, out -> {
+                    DataOutputStream data = new DataOutputStream(out);
+                    data.writeInt(BINARY_MAGIC);
+                    data.writeInt(BINARY_VERSION);
+                    data.flush();
+                });
+                length = Files.size(file);
+            }
+
+            while (true) {
+                List<MessageEntity> chunk = repository.findRangeAfter(
+                    lastId,
+                    range.toId(),
+                    range.from(),
+                    range.until(),
+                    CHUNK_SIZE
+                );
+                if (chunk.isEmpty()) {
+                    break;
+                }
+
+                writeChunk(output, out -> {
+                    if (format == Format.NDJSON) {
+                        writeNdjson(out, chunk);
+                    } else {
+                        writeBinary(out, chunk);
+                    }
+                });
+                output.flush();
+
+                lastId = chunk.get(chunk.size() - 1).getId();
+                rows += chunk.size();
+                length = Files.size(file);
+                writeCheckpoint(file, range, lastId, length);
+
+                if (chunk.size() < CHUNK_SIZE) {
+                    break;
+                }
+                DatabaseScheduler.yieldToInteractive();
+            }
+        }
+
+        LOGGER.info(
+            "Exported {} messages to {} (last ID {})",
+            rows,
+            file.getFileName(),
+            lastId
+        );
+        return new Result(rows, lastId, file, -1);
+    }
+
+    /**
+     * Import an archive written by export. Rows keep their IDs and rows that
+     * already exist are skipped. Afterwards the ID sequences are moved past
+     * the imported IDs, so later saves do not collide with them.
+     */
+    public static Result importArchive(
+        MessageStore repository,
+        Path file
+    ) throws IOException {
+        Format format = Format.of(file);
+        // Rows inserted, last ID read, highest ID read
+        long[] totals = new long[3];
+        List<MessageEntity> batch = new ArrayList<>(CHUNK_SIZE);
+
+        RowSink sink = message -> {
+            batch.add(message);
+            totals[1] = message.getId();
+            totals[2] = Math.max(totals[2], message.getId());
+            if (batch.size() >= CHUNK_SIZE) {
+                totals[0] += repository.insertArchived(batch);
+                batch.clear();
+                DatabaseScheduler.yieldToInteractive();
+            }
+        };
+
+        try (
+            InputStream input = new GZIPInputStream(
+                new BufferedInputStream(Files.newInputStream(file)),
+                64 * 1024
+            )
+        ) {
+            if (format == Format.NDJSON) {
+                readNdjson(input, sink);
+            } else {
+                readBinary(input, sink);
+            }
+        }
+        if (!batch.isEmpty()) {
+            totals[0] += repository.insertArchived(batch);
+        }
+        long idsPast = repository.advanceIds(totals[2]);
+
+        LOGGER.info(
+            "Imported {} messages from {} (last ID {}), new IDs start after {}",
+            totals[0],
+            file.getFileName(),
+            totals[1],
+            idsPast
+        );
+        return new Result(totals[0], totals[1], file, idsPast);
+    }
+
+    private interface ChunkWriter {
+        void write(OutputStream out) throws IOException;
+    }
+
+    private interface RowSink {
+        void accept(MessageEntity message) throws IOException;
+    }
+
+    /**
+     * Write one complete gzip member without closing the underlying file
+     */
+    private static void writeChunk(OutputStream output, ChunkWriter writer)
+        throws IOException {
+        OutputStream shield = new FilterOutputStream(output) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        try (GZIPOutputStream gzip = new GZIPOutputStream(shield, 64 * 1024)) {
+            writer.write(gzip);
+        }
+    }
+
+    private static void writeNdjson(OutputStream out, List<MessageEntity> chunk)
+        throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        for (MessageEntity message : chunk) {
+            JsonWriter json = new JsonWriter(writer);
+            json.beginObject();
+            json.name("id").value(message.getId());
+            json.name("uuid").value(message.getUuid().toString());
+            json.name("text").value(message.getText());
+            if (message.getRecipient() != null) {
+                json
+                    .name("recipient")
+                    .value(message.getRecipient().toString());
+            }
+            json.name("channel").value(message.getChannel());
+            if (message.getCreatedAt() != null) {
+                json
+                    .name("created_at")
+                    .value(message.getCreatedAt().toString());
+            }
+            json.endObject();
+            json.flush();
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private static void readNdjson(InputStream input, RowSink sink)
+        throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(input, StandardCharsets.UTF_8)
+        );
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            MessageEntity message = new MessageEntity();
+            try (JsonReader json = new JsonReader(new StringReader(line))) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    String name = json.nextName();
+                    if (json.peek() == JsonToken.NULL) {
+                        json.nextNull();
+                        continue;
+                    }
+                    switch (name) {
+                        case "id" -> message.setId(json.nextLong());
+                        case "uuid" -> message.setUuid(
+                            UUID.fromString(json.nextString())
+                        );
+                        case "text" -> message.setText(json.nextString());
+                        case "recipient" -> message.setRecipient(
+                            UUID.fromString(json.nextString())
+                        );
+                        case "channel" -> message.setChannel(json.nextString());
+                        case "created_at" -> message.setCreatedAt(
+                            Instant.parse(json.nextString())
+                        );
+                        default -> json.skipValue();
+                    }
+                }
+                json.endObject();
+            }
+            sink.accept(message);
+        }
+    }
+
+    private static void writeBinary(OutputStream out, List<MessageEntity> chunk)
+        throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        for (MessageEntity message : chunk) {
+            data.writeLong(message.getId());
+            data.writeLong(message.getUuid().getMostSignificantBits());
+            data.writeLong(message.getUuid().getLeastSignificantBits());
+            data.writeLong(
+                message.getCreatedAt() == null
+                    ? Long.MIN_VALUE
+                    : message.getCreatedAt().toEpochMilli()
+            );
+            data.writeUTF(message.getText());
+            UUID recipient = message.getRecipient();
+            data.writeBoolean(recipient != null);
+            if (recipient != null) {
+                data.writeLong(recipient.getMostSignificantBits());
+                data.writeLong(recipient.getLeastSignificantBits());
+            }
+            data.writeUTF(message.getChannel());
+        }
+        data.flush();
+    }
+
+    private static void readBinary(InputStream input, RowSink sink)
+        throws IOException {
+        DataInputStream data = new DataInputStream(input);
+        if (data.readInt() != BINARY_MAGIC) {
+            throw new IOException("Not a CraftMessage binary archive");
+        }
+        int version = data.readInt();
+        if (version < 1 || version > BINARY_VERSION) {
+            throw new IOException("Unsupported archive version " + version);
+        }
+        while (true) {
+            long id;
+            try {
+                id = data.readLong();
+            } catch (EOFException e) {
+                return;
+            }
+            MessageEntity message = new MessageEntity();
+            message.setId(id);
+            message.setUuid(new UUID(data.readLong(), data.readLong()));
+            long createdAt = data.readLong();
+            if (createdAt != Long.MIN_VALUE) {
+                message.setCreatedAt(Instant.ofEpochMilli(createdAt));
+            }
+            message.setText(data.readUTF());
+            if (version >= 2 && data.readBoolean()) {
+                message.setRecipient(new UUID(data.readLong(), data.readLong()));
+            }
+            if (version >= 3) {
+                message.setChannel(data.readUTF());
+            }
+            sink.accept(message);
+        }
+    }
+
+    private static void writeCheckpoint(
+        Path file,
+        Range range,
+        long lastId,
+        long length
+    ) throws IOException {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("afterId", String.valueOf(range.afterId()));
+        checkpoint.setProperty("toId", String.valueOf(range.toId()));
+        if (range.from() != null) {
+            checkpoint.setProperty("from", range.from().toString());
+        }
+        if (range.until() != null) {
+            checkpoint.setProperty("until", range.until().toString());
+        }
+        checkpoint.setProperty("lastId", String.valueOf(lastId));
+        checkpoint.setProperty("length", String.valueOf(length));
+
+        Path checkpointFile = checkpointOf(file);
+        Path temp = checkpointFile.resolveSibling(
+            checkpointFile.getFileName() + ".tmp"
+        );
+        try (OutputStream output = Files.newOutputStream(temp)) {
+            checkpoint.store(output, "CraftMessage export checkpoint");
+        }
+        Files.move(
+            temp,
+            checkpointFile,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE
+        );
+    }
+
+    private static Path checkpointOf(Path file) {
+        return file.resolveSibling(file.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    private static Instant parseInstant(String value) {
+        return value == null ? null : Instant.parse(value);
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.craftmessage;
+
+import io.netty.handler.codec.DecoderException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * Messages from the client's outbound queue, sent together in one packet.
+ * Client IDs increase per client and let the server skip messages it
+ * already accepted when a batch is resent after a lost acknowledgement.
+ */
+public record MessageBatchPayload(List<Item> messages)
+    implements CustomPayload {
+    public static final CustomPayload.Id<MessageBatchPayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "message_batch"));
+
+    public static final PacketCodec<PacketByteBuf, MessageBatchPayload> CODEC =
+        PacketCodec.of(MessageBatchPayload::write, MessageBatchPayload::read);
+
+    public static final int MAX_MESSAGES = 32;
+
+    /**
+     * One message: public to the channel when recipient is null
+     */
+    public record Item(
+        long clientId,
+        UUID recipient,
+        String channel,
+        String text
+    ) {}
+
+    private static void write(MessageBatchPayload payload, PacketByteBuf buf) {
+        buf.writeVarInt(payload.messages.size());
+        for (Item item : payload.messages) {
+            buf.writeVarLong(item.clientId);
+            buf.writeBoolean(item.recipient != null);
+            if (item.recipient != null) {
+                buf.writeUuid(item.recipient);
+            }
+            buf.writeString(item.channel, 32);
+            buf.writeString(item.text);
+        }
+    }
+
+    private static MessageBatchPayload read(PacketByteBuf buf) {
+        int count = buf.readVarInt();
+        if (count < 0 || count > MAX_MESSAGES) {
+            throw new DecoderException("Too many messages in batch: " + count);
+        }
+        List<Item> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long clientId = buf.readVarLong();
+            UUID recipient = buf.readBoolean() ? buf.readUuid() : null;
+            String channel = buf.readString(32);
+            messages.add(
+                new Item(clientId, recipient, channel, buf.readString())
+            );
+        }
+        return new MessageBatchPayload(messages);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
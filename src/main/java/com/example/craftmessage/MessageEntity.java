@@ -1,23 +1,52 @@
 package com.example.craftmessage;
 
 import jakarta.persistence.*;
+import java.time.Instant;
 import java.util.UUID;
 
 @Entity
-@Table(name = "messages")
+@Table(
+    name = "messages",
+    indexes = {
+        @Index(name = "idx_messages_created_at", columnList = "created_at"),
+        @Index(name = "idx_messages_player_id", columnList = "player_id, id"),
+        @Index(name = "idx_messages_channel_id", columnList = "channel, id"),
+    }
+)
 public class MessageEntity {
 
+    /**
+     * Channel of messages sent without one, and of all direct messages
+     */
+    public static final String DEFAULT_CHANNEL = "global";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     @Column(name = "id")
     private Long id;
 
-    @Column(name = "uuid", nullable = false)
+    // Compact key into the players table; the UUID itself is not stored
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "player_id", nullable = false)
+    private PlayerEntity player;
+
+    // Player UUID as seen by callers, resolved to player on save
+    @Transient
     private UUID uuid;
 
+    // Addressee of a direct message, null for public messages
+    @Column(name = "recipient")
+    private UUID recipient;
+
+    @Column(name = "channel", nullable = false, length = 32)
+    private String channel = DEFAULT_CHANNEL;
+
     @Column(name = "text", nullable = false, length = 256)
     private String text;
 
+    @Column(name = "created_at")
+    private Instant createdAt;
+
     // Default constructor required by JPA
     public MessageEntity() {}
 
@@ -37,6 +66,9 @@ public class MessageEntity {
     }
 
     public UUID getUuid() {
+        if (uuid == null && player != null) {
+            uuid = player.getUuid();
+        }
         return uuid;
     }
 
@@ -44,6 +76,22 @@ public class MessageEntity {
         this.uuid = uuid;
     }
 
+    public UUID getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(UUID recipient) {
+        this.recipient = recipient;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public void setChannel(String channel) {
+        this.channel = channel != null ? channel : DEFAULT_CHANNEL;
+    }
+
     public String getText() {
         return text;
     }
@@ -52,6 +100,29 @@ public class MessageEntity {
         this.text = text;
     }
 
+    public PlayerEntity getPlayer() {
+        return player;
+    }
+
+    public void setPlayer(PlayerEntity player) {
+        this.player = player;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @PrePersist
+    void onCreate() {
+        if (createdAt == null) {
+            createdAt = Instant.now();
+        }
+    }
+
     @Override
     public String toString() {
         return (
@@ -60,9 +131,15 @@ public class MessageEntity {
             id +
             ", uuid=" +
             uuid +
+            ", recipient=" +
+            recipient +
+            ", channel=" +
+            channel +
             ", text='" +
             text +
             '\'' +
+            ", createdAt=" +
+            createdAt +
             '}'
         );
     }
@@ -0,0 +1,368 @@
+package com.example.craftmessage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moderation word filter applied to incoming messages before persistence.
+ *
+ * The word list (config/craftmessage/filter-words.txt, one word per line)
+ * is compiled into an immutable Aho-Corasick automaton with every failure
+ * transition resolved in advance, so checking a message is a single pass
+ * of one table lookup per character and allocates nothing. Case and common
+ * leetspeak substitutions are folded on the fly. When the file changes a
+ * new automaton is built on a background thread and swapped in atomically.
+ */
+public class MessageFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        MessageFilter.class
+    );
+
+    public static final String WORDS_FILE = "filter-words.txt";
+
+    private static final AtomicReference<Automaton> automaton =
+        new AtomicReference<>(Automaton.compile(List.of()));
+    private static final AtomicLong blockedMessages = new AtomicLong();
+    private static final AtomicLong maskedMessages = new AtomicLong();
+    private static final ExecutorService BUILDER =
+        Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "craftmessage-filter-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    // Leetspeak and case folding for ASCII; other characters use
+    // Character.toLowerCase
+    private static final char[] ASCII_FOLD = new char[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            ASCII_FOLD[c] = Character.toLowerCase(c);
+        }
+        ASCII_FOLD['0'] = 'o';
+        ASCII_FOLD['1'] = 'i';
+        ASCII_FOLD['!'] = 'i';
+        ASCII_FOLD['|'] = 'i';
+        ASCII_FOLD['3'] = 'e';
+        ASCII_FOLD['4'] = 'a';
+        ASCII_FOLD['@'] = 'a';
+        ASCII_FOLD['5'] = 's';
+        ASCII_FOLD['$'] = 's';
+        ASCII_FOLD['7'] = 't';
+        ASCII_FOLD['+'] = 't';
+        ASCII_FOLD['8'] = 'b';
+        ASCII_FOLD['9'] = 'g';
+    }
+
+    static char fold(char c) {
+        return c < 128 ? ASCII_FOLD[c] : Character.toLowerCase(c);
+    }
+
+    /**
+     * Load the word list and reload it whenever the file changes
+     */
+    public static void register() {
+        Path directory = DatabaseConfig.getConfigDirectory();
+        if (directory == null) {
+            LOGGER.debug("No config directory, message filter stays empty");
+            return;
+        }
+        Path file = directory.resolve(WORDS_FILE);
+        if (!Files.exists(file)) {
+            try {
+                Files.createDirectories(directory);
+                Files.writeString(
+                    file,
+                    "# Words blocked by CraftMessage, one per line.\n" +
+                    "# Matching ignores case and common leetspeak (4 -> a, 0 -> o, ...).\n"
+                );
+            } catch (IOException e) {
+                LOGGER.warn(
+                    "Could not create {}: {}",
+                    file,
+                    e.getMessage()
+                );
+            }
+        }
+        DatabaseConfig.addFileListener(WORDS_FILE, () -> reload(file));
+        reload(file);
+    }
+
+    /**
+     * Rebuild the automaton from the word file on the builder thread
+     */
+    public static void reload(Path file) {
+        BUILDER.execute(() -> {
+            try {
+                List<String> words = new ArrayList<>();
+                for (String line : Files.readAllLines(
+                    file,
+                    StandardCharsets.UTF_8
+                )) {
+                    String word = line.trim();
+                    if (!word.isEmpty() && !word.startsWith("#")) {
+                        words.add(word);
+                    }
+                }
+                Automaton next = Automaton.compile(words);
+                automaton.set(next);
+                LOGGER.info(
+                    "Message filter loaded {} words ({} states)",
+                    words.size(),
+                    next.stateCount()
+                );
+            } catch (IOException e) {
+                LOGGER.warn(
+                    "Could not read {}, keeping the current filter: {}",
+                    file,
+                    e.getMessage()
+                );
+            }
+        });
+    }
+
+    /**
+     * Apply the configured filter action to a message
+     *
+     * @return the message to store (masked if needed), or null if it is
+     *     blocked
+     */
+    public static String apply(String text) {
+        String action = DatabaseConfig.getFilterAction();
+        if ("off".equals(action)) {
+            return text;
+        }
+        Automaton current = automaton.get();
+        if (!current.matches(text)) {
+            return text;
+        }
+        if ("mask".equals(action)) {
+            maskedMessages.incrementAndGet();
+            return current.mask(text);
+        }
+        blockedMessages.incrementAndGet();
+        return null;
+    }
+
+    public static long getBlockedCount() {
+        return blockedMessages.get();
+    }
+
+    public static long getMaskedCount() {
+        return maskedMessages.get();
+    }
+
+    /**
+     * Immutable Aho-Corasick automaton as a dense transition table over the
+     * characters that occur in the word list. Characters outside that
+     * alphabet cannot continue a match and lead back to the root.
+     */
+    static final class Automaton {
+
+        // Folded ASCII char -> alphabet index, -1 if unused
+        private final int[] asciiIndex;
+        // Sorted non-ASCII chars and their alphabet indexes
+        private final char[] otherChars;
+        private final int[] otherIndex;
+        private final int alphabetSize;
+        // transitions[state * alphabetSize + symbol] -> next state
+        private final int[] transitions;
+        // Length of the longest word ending in each state, 0 if none
+        private final int[] matchLength;
+
+        private Automaton(
+            int[] asciiIndex,
+            char[] otherChars,
+            int[] otherIndex,
+            int alphabetSize,
+            int[] transitions,
+            int[] matchLength
+        ) {
+            this.asciiIndex = asciiIndex;
+            this.otherChars = otherChars;
+            this.otherIndex = otherIndex;
+            this.alphabetSize = alphabetSize;
+            this.transitions = transitions;
+            this.matchLength = matchLength;
+        }
+
+        static Automaton compile(List<String> words) {
+            // Alphabet of folded characters used by the words
+            int[] asciiIndex = new int[128];
+            Arrays.fill(asciiIndex, -1);
+            Map<Character, Integer> other = new HashMap<>();
+            int alphabetSize = 0;
+            for (String word : words) {
+                for (int i = 0; i < word.length(); i++) {
+                    char c = fold(word.charAt(i));
+                    if (c < 128) {
+                        if (asciiIndex[c] < 0) {
+                            asciiIndex[c] = alphabetSize++;
+                        }
+                    } else if (!other.containsKey(c)) {
+                        other.put(c, alphabetSize++);
+                    }
+                }
+            }
+            char[] otherChars = new char[other.size()];
+            int n = 0;
+            for (char c : other.keySet()) {
+                otherChars[n++] = c;
+            }
+            Arrays.sort(otherChars);
+            int[] otherIndex = new int[otherChars.length];
+            for (int i = 0; i < otherChars.length; i++) {
+                otherIndex[i] = other.get(otherChars[i]);
+            }
+            int width = Math.max(1, alphabetSize);
+
+            // Trie, -1 marks a missing edge
+            List<int[]> trie = new ArrayList<>();
+            List<Integer> lengths = new ArrayList<>();
+            trie.add(newRow(width));
+            lengths.add(0);
+            for (String word : words) {
+                int state = 0;
+                for (int i = 0; i < word.length(); i++) {
+                    int symbol = symbolOf(
+                        fold(word.charAt(i)),
+                        asciiIndex,
+                        otherChars,
+                        otherIndex
+                    );
+                    int next = trie.get(state)[symbol];
+                    if (next < 0) {
+                        next = trie.size();
+                        trie.get(state)[symbol] = next;
+                        trie.add(newRow(width));
+                        lengths.add(0);
+                    }
+                    state = next;
+                }
+                lengths.set(state, Math.max(lengths.get(state), word.length()));
+            }
+
+            // Breadth-first failure links, resolving missing edges into
+            // the failure state's transitions
+            int states = trie.size();
+            int[] transitions = new int[states * width];
+            int[] matchLength = new int[states];
+            int[] failure = new int[states];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int symbol = 0; symbol < width; symbol++) {
+                int child = trie.get(0)[symbol];
+                if (child < 0) {
+                    transitions[symbol] = 0;
+                } else {
+                    transitions[symbol] = child;
+                    failure[child] = 0;
+                    queue.add(child);
+                }
+            }
+            matchLength[0] = lengths.get(0);
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                matchLength[state] = Math.max(
+                    lengths.get(state),
+                    matchLength[failure[state]]
+                );
+                for (int symbol = 0; symbol < width; symbol++) {
+                    int child = trie.get(state)[symbol];
+                    int fallback = transitions[failure[state] * width + symbol];
+                    if (child < 0) {
+                        transitions[state * width + symbol] = fallback;
+                    } else {
+                        transitions[state * width + symbol] = child;
+                        failure[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+
+            return new Automaton(
+                asciiIndex,
+                otherChars,
+                otherIndex,
+                alphabetSize,
+                transitions,
+                matchLength
+            );
+        }
+
+        private static int[] newRow(int width) {
+            int[] row = new int[width];
+            Arrays.fill(row, -1);
+            return row;
+        }
+
+        private static int symbolOf(
+            char folded,
+            int[] asciiIndex,
+            char[] otherChars,
+            int[] otherIndex
+        ) {
+            if (folded < 128) {
+                return asciiIndex[folded];
+            }
+            int position = Arrays.binarySearch(otherChars, folded);
+            return position >= 0 ? otherIndex[position] : -1;
+        }
+
+        int stateCount() {
+            return matchLength.length;
+        }
+
+        /**
+         * State after reading c in state, without allocating
+         */
+        private int step(int state, char c) {
+            int symbol = symbolOf(fold(c), asciiIndex, otherChars, otherIndex);
+            return symbol < 0 ? 0 : transitions[state * alphabetSize + symbol];
+        }
+
+        boolean matches(String text) {
+            if (alphabetSize == 0) {
+                return false;
+            }
+            int state = 0;
+            for (int i = 0; i < text.length(); i++) {
+                state = step(state, text.charAt(i));
+                if (matchLength[state] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Replace every matched word with asterisks
+         */
+        String mask(String text) {
+            char[] chars = text.toCharArray();
+            int state = 0;
+            for (int i = 0; i < chars.length; i++) {
+                state = step(state, text.charAt(i));
+                int length = matchLength[state];
+                if (length > 0) {
+                    Arrays.fill(chars, i - length + 1, i + 1, '*');
+                }
+            }
+            return new String(chars);
+        }
+    }
+}
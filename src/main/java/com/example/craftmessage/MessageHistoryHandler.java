@@ -0,0 +1,144 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves keyset-paged channel history to the client history screen.
+ * Queries run in the read lane of the database scheduler; each player has
+ * at most one page request in flight.
+ */
+public class MessageHistoryHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        MessageHistoryHandler.class
+    );
+
+    public static final int MAX_PAGE_SIZE = 100;
+
+    private static final Set<UUID> IN_FLIGHT = ConcurrentHashMap.newKeySet();
+
+    public static void register() {
+        try {
+            PayloadTypeRegistry.playC2S().register(
+                HistoryRequestPayload.ID,
+                HistoryRequestPayload.CODEC
+            );
+            PayloadTypeRegistry.playS2C().register(
+                HistoryPagePayload.ID,
+                HistoryPagePayload.CODEC
+            );
+
+            ServerPlayNetworking.registerGlobalReceiver(
+                HistoryRequestPayload.ID,
+                (payload, context) -> {
+                    long token = TickBudget.enter();
+                    try {
+                        requestPage(context.server(), context.player(), payload);
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to process history request", e);
+                    } finally {
+                        TickBudget.exit(TickBudget.Operation.RECEIVE, token);
+                    }
+                }
+            );
+
+            ServerPlayConnectionEvents.DISCONNECT.register((handler, server) ->
+                IN_FLIGHT.remove(handler.player.getUuid())
+            );
+
+            LOGGER.debug("Message history handler registered");
+        } catch (Exception e) {
+            LOGGER.error("Failed to register message history handler", e);
+        }
+    }
+
+    private static void requestPage(
+        MinecraftServer server,
+        ServerPlayerEntity player,
+        HistoryRequestPayload request
+    ) {
+        UUID playerUuid = player.getUuid();
+        String channel = ChannelRegistry.resolve(request.channel());
+        if (channel == null) {
+            ServerPlayNetworking.send(player, toPayload(request, List.of(), 0));
+            return;
+        }
+        if (!IN_FLIGHT.add(playerUuid)) {
+            LOGGER.debug(
+                "Ignoring history request from {} - one already pending",
+                playerUuid
+            );
+            return;
+        }
+
+        int limit = Math.max(1, Math.min(MAX_PAGE_SIZE, request.limit()));
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, repository ->
+            repository.findPage(
+                channel,
+                request.anchorId(),
+                request.older(),
+                limit + 1
+            )
+        ).whenComplete((messages, error) ->
+            server.execute(() -> {
+                IN_FLIGHT.remove(playerUuid);
+                if (error != null) {
+                    LOGGER.error(
+                        "Failed to load history page for {}",
+                        playerUuid,
+                        error
+                    );
+                }
+                if (player.isDisconnected()) {
+                    return;
+                }
+                ServerPlayNetworking.send(
+                    player,
+                    toPayload(
+                        request,
+                        error != null ? List.of() : messages,
+                        limit
+                    )
+                );
+            })
+        );
+    }
+
+    private static HistoryPagePayload toPayload(
+        HistoryRequestPayload request,
+        List<MessageView> messages,
+        int limit
+    ) {
+        int size = Math.min(limit, messages.size());
+        List<HistoryPagePayload.Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            MessageView message = messages.get(i);
+            entries.add(
+                new HistoryPagePayload.Entry(
+                    message.id(),
+                    message.player(),
+                    message.createdAtMillis(),
+                    message.text()
+                )
+            );
+        }
+        return new HistoryPagePayload(
+            request.anchorId(),
+            request.older(),
+            entries,
+            messages.size() > limit,
+            request.channel()
+        );
+    }
+}
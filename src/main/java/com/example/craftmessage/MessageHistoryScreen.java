@@ -0,0 +1,473 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.minecraft.client.gui.DrawContext;
+import net.minecraft.client.gui.screen.Screen;
+import net.minecraft.client.network.PlayerListEntry;
+import net.minecraft.text.OrderedText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+import org.lwjgl.glfw.GLFW;
+
+/**
+ * Scrollable message history of one channel.
+ *
+ * Only a window of up to MAX_ROWS messages is kept in memory. Pages are
+ * fetched by keyset from the server as the view approaches either end of
+ * the window, and rows that fall far outside the view are dropped again.
+ * Only rows that intersect the list area are laid out and drawn; wrapped
+ * text layouts are cached per message ID in a small LRU. The newest
+ * messages are kept in a per-channel {@link HistoryDiskCache}, so the screen
+ * opens with them before the server has answered.
+ */
+public class MessageHistoryScreen extends Screen {
+
+    private static final int PAGE_SIZE = MessageHistoryHandler.MAX_PAGE_SIZE;
+    private static final int MAX_ROWS = 10 * PAGE_SIZE;
+    private static final int PREFETCH_ROWS = PAGE_SIZE / 2;
+    private static final int LAYOUT_CACHE_SIZE = 512;
+    private static final long REQUEST_TIMEOUT_MILLIS = 5000L;
+
+    private static final int LIST_WIDTH = 340;
+    private static final int ROW_PADDING = 4;
+    private static final int SCROLLBAR_WIDTH = 4;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("dd.MM HH:mm").withZone(
+            ZoneId.systemDefault()
+        );
+
+    private record RowLayout(
+        OrderedText header,
+        List<OrderedText> lines,
+        int height
+    ) {}
+
+    private final Screen parent;
+    private final String channel;
+    private HistoryDiskCache cache;
+
+    // Loaded window, newest first
+    private final List<HistoryPagePayload.Entry> rows = new ArrayList<>();
+    private boolean hasOlder = true;
+    private boolean hasNewer;
+
+    // Scroll position: first visible row and pixels scrolled into it
+    private int firstRow;
+    private double firstRowOffset;
+
+    private boolean requestPending;
+    private long requestAnchor;
+    private boolean requestOlder;
+    private long requestedAtMillis;
+
+    private final Map<Long, RowLayout> layouts = new LinkedHashMap<>(
+        LAYOUT_CACHE_SIZE,
+        0.75f,
+        true
+    ) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, RowLayout> eldest) {
+            return size() > LAYOUT_CACHE_SIZE;
+        }
+    };
+    private int layoutWidth = -1;
+
+    private int listLeft;
+    private int listTop;
+    private int listBottom;
+
+    public MessageHistoryScreen(Screen parent, String channel) {
+        super(Text.literal("Message History - #" + channel));
+        this.parent = parent;
+        this.channel = channel;
+    }
+
+    @Override
+    protected void init() {
+        super.init();
+
+        this.listLeft = this.width / 2 - LIST_WIDTH / 2;
+        this.listTop = 60;
+        this.listBottom = this.height - 30;
+
+        int textWidth = LIST_WIDTH - 2 * ROW_PADDING - SCROLLBAR_WIDTH;
+        if (textWidth != this.layoutWidth) {
+            this.layoutWidth = textWidth;
+            this.layouts.clear();
+            this.scrollBy(0);
+        }
+
+        // Show cached history right away; pages newer than the cache's
+        // high-water mark are then fetched like any other page
+        if (this.cache == null && this.client != null) {
+            this.cache = HistoryDiskCache.forCurrentServer(
+                this.client,
+                this.channel
+            );
+            List<HistoryPagePayload.Entry> cached = this.cache.newest(MAX_ROWS);
+            if (!cached.isEmpty()) {
+                this.rows.addAll(cached);
+                this.hasNewer = true;
+            }
+        }
+
+        this.maybeRequestPage();
+    }
+
+    /**
+     * Called on the client thread when a history page arrives
+     */
+    public void onPage(HistoryPagePayload page) {
+        if (
+            !this.requestPending ||
+            page.anchorId() != this.requestAnchor ||
+            page.older() != this.requestOlder ||
+            !page.channel().equals(this.channel)
+        ) {
+            // Reply to an earlier screen; ask again for what we need
+            this.requestPending = false;
+            this.maybeRequestPage();
+            return;
+        }
+        this.requestPending = false;
+        if (this.cache != null) {
+            this.cache.accept(page);
+        }
+
+        List<HistoryPagePayload.Entry> entries = page.entries();
+        if (page.older()) {
+            this.rows.addAll(entries);
+            this.hasOlder = page.hasMore();
+            int excess = Math.min(
+                this.rows.size() - MAX_ROWS,
+                this.firstRow - PREFETCH_ROWS
+            );
+            if (excess > 0) {
+                this.rows.subList(0, excess).clear();
+                this.firstRow -= excess;
+                this.hasNewer = true;
+            }
+        } else {
+            List<HistoryPagePayload.Entry> newestFirst = new ArrayList<>(
+                entries
+            );
+            Collections.reverse(newestFirst);
+            this.rows.addAll(0, newestFirst);
+            this.firstRow += newestFirst.size();
+            this.hasNewer = page.hasMore();
+            int keep = Math.max(
+                MAX_ROWS,
+                this.firstRow + PAGE_SIZE + PREFETCH_ROWS
+            );
+            if (this.rows.size() > keep) {
+                this.rows.subList(keep, this.rows.size()).clear();
+                this.hasOlder = true;
+            }
+        }
+
+        this.maybeRequestPage();
+    }
+
+    /**
+     * Called on the client thread when the server announces new messages.
+     * If the newest end is loaded it becomes stale and is fetched again
+     * when the view is near it.
+     */
+    public void onNewMessages(long[] ids) {
+        if (ids.length == 0) {
+            return;
+        }
+        if (this.rows.isEmpty()) {
+            this.hasOlder = true;
+        } else if (ids[ids.length - 1] > this.rows.get(0).id()) {
+            this.hasNewer = true;
+        }
+        this.maybeRequestPage();
+    }
+
+    /**
+     * Fetch the next page when the view gets close to either end of the
+     * loaded window
+     */
+    private void maybeRequestPage() {
+        if (this.requestPending || this.client == null) {
+            return;
+        }
+        if (this.hasOlder && this.rows.size() - this.firstRow < PREFETCH_ROWS) {
+            this.sendRequest(
+                this.rows.isEmpty()
+                    ? Long.MAX_VALUE
+                    : this.rows.get(this.rows.size() - 1).id(),
+                true
+            );
+        } else if (this.hasNewer && this.firstRow < PREFETCH_ROWS) {
+            this.sendRequest(this.rows.get(0).id(), false);
+        }
+    }
+
+    private void sendRequest(long anchorId, boolean older) {
+        this.requestPending = true;
+        this.requestAnchor = anchorId;
+        this.requestOlder = older;
+        this.requestedAtMillis = System.currentTimeMillis();
+        ClientPlayNetworking.send(
+            new HistoryRequestPayload(anchorId, older, PAGE_SIZE, this.channel)
+        );
+    }
+
+    @Override
+    public void tick() {
+        super.tick();
+        if (
+            this.requestPending &&
+            System.currentTimeMillis() - this.requestedAtMillis >
+            REQUEST_TIMEOUT_MILLIS
+        ) {
+            this.requestPending = false;
+            this.maybeRequestPage();
+        }
+    }
+
+    private void scrollBy(double pixels) {
+        this.firstRowOffset += pixels;
+        while (this.firstRowOffset < 0 && this.firstRow > 0) {
+            this.firstRow--;
+            this.firstRowOffset += this.layout(this.firstRow).height();
+        }
+        if (this.firstRowOffset < 0) {
+            this.firstRowOffset = 0;
+        }
+        while (
+            this.firstRow < this.rows.size() - 1 &&
+            this.firstRowOffset >= this.layout(this.firstRow).height()
+        ) {
+            this.firstRowOffset -= this.layout(this.firstRow).height();
+            this.firstRow++;
+        }
+        if (this.firstRow >= this.rows.size() - 1) {
+            this.firstRow = Math.max(0, this.rows.size() - 1);
+            this.firstRowOffset = 0;
+        }
+        this.maybeRequestPage();
+    }
+
+    private RowLayout layout(int index) {
+        HistoryPagePayload.Entry entry = this.rows.get(index);
+        RowLayout layout = this.layouts.get(entry.id());
+        if (layout == null) {
+            OrderedText header = Text.literal(this.playerName(entry.player()))
+                .formatted(Formatting.YELLOW)
+                .append(
+                    Text.literal(
+                        "  " +
+                        TIME_FORMAT.format(
+                            Instant.ofEpochMilli(entry.createdAtMillis())
+                        )
+                    ).formatted(Formatting.GRAY)
+                )
+                .asOrderedText();
+            List<OrderedText> lines = this.textRenderer.wrapLines(
+                Text.literal(entry.text()),
+                this.layoutWidth
+            );
+            int height =
+                (1 + lines.size()) * this.textRenderer.fontHeight +
+                2 * ROW_PADDING;
+            layout = new RowLayout(header, lines, height);
+            this.layouts.put(entry.id(), layout);
+        }
+        return layout;
+    }
+
+    private String playerName(UUID player) {
+        if (this.client != null && this.client.getNetworkHandler() != null) {
+            PlayerListEntry entry = this.client.getNetworkHandler()
+                .getPlayerListEntry(player);
+            if (entry != null) {
+                return entry.getProfile().getName();
+            }
+        }
+        return player.toString().substring(0, 8);
+    }
+
+    @Override
+    public void render(
+        DrawContext context,
+        int mouseX,
+        int mouseY,
+        float delta
+    ) {
+        context.fill(0, 0, this.width, this.height, 0x80000000);
+
+        context.drawCenteredTextWithShadow(
+            this.textRenderer,
+            this.title,
+            this.width / 2,
+            40,
+            0xFFFFFFFF
+        );
+
+        int listRight = this.listLeft + LIST_WIDTH;
+        context.fill(
+            this.listLeft,
+            this.listTop,
+            listRight,
+            this.listBottom,
+            0x60000000
+        );
+
+        // Only rows intersecting the list area are laid out and drawn
+        context.enableScissor(
+            this.listLeft,
+            this.listTop,
+            listRight,
+            this.listBottom
+        );
+        int y = this.listTop - (int) this.firstRowOffset;
+        for (
+            int i = this.firstRow;
+            i < this.rows.size() && y < this.listBottom;
+            i++
+        ) {
+            RowLayout layout = this.layout(i);
+            int lineY = y + ROW_PADDING;
+            int x = this.listLeft + ROW_PADDING;
+            context.drawTextWithShadow(
+                this.textRenderer,
+                layout.header(),
+                x,
+                lineY,
+                0xFFFFFFFF
+            );
+            for (OrderedText line : layout.lines()) {
+                lineY += this.textRenderer.fontHeight;
+                context.drawTextWithShadow(
+                    this.textRenderer,
+                    line,
+                    x,
+                    lineY,
+                    0xFFFFFFFF
+                );
+            }
+            y += layout.height();
+        }
+        context.disableScissor();
+
+        this.renderScrollbar(context, listRight);
+
+        String status;
+        if (this.rows.isEmpty()) {
+            status = this.requestPending ? "Loading..." : "No messages yet";
+        } else {
+            status = this.requestPending
+                ? "Loading..."
+                : "#" + this.rows.get(this.firstRow).id();
+        }
+        context.drawCenteredTextWithShadow(
+            this.textRenderer,
+            Text.literal(status),
+            this.width / 2,
+            this.listBottom + 8,
+            0xFFAAAAAA
+        );
+
+        super.render(context, mouseX, mouseY, delta);
+    }
+
+    /**
+     * Thumb position within the loaded window; the window itself slides,
+     * so this is only an approximation of the position in the full history
+     */
+    private void renderScrollbar(DrawContext context, int listRight) {
+        if (this.rows.size() < 2) {
+            return;
+        }
+        int trackHeight = this.listBottom - this.listTop;
+        int thumbHeight = Math.max(8, trackHeight / 10);
+        int thumbTop =
+            this.listTop +
+            (int) (((long) (trackHeight - thumbHeight) * this.firstRow) /
+                (this.rows.size() - 1));
+        context.fill(
+            listRight - SCROLLBAR_WIDTH,
+            thumbTop,
+            listRight,
+            thumbTop + thumbHeight,
+            0xFFAAAAAA
+        );
+    }
+
+    @Override
+    public boolean mouseScrolled(
+        double mouseX,
+        double mouseY,
+        double horizontalAmount,
+        double verticalAmount
+    ) {
+        this.scrollBy(-verticalAmount * this.textRenderer.fontHeight * 3);
+        return true;
+    }
+
+    @Override
+    public boolean keyPressed(int keyCode, int scanCode, int modifiers) {
+        int page = this.listBottom - this.listTop;
+        switch (keyCode) {
+            case GLFW.GLFW_KEY_ESCAPE -> {
+                this.close();
+                return true;
+            }
+            case GLFW.GLFW_KEY_PAGE_DOWN -> {
+                this.scrollBy(page);
+                return true;
+            }
+            case GLFW.GLFW_KEY_PAGE_UP -> {
+                this.scrollBy(-page);
+                return true;
+            }
+            case GLFW.GLFW_KEY_DOWN -> {
+                this.scrollBy(this.textRenderer.fontHeight);
+                return true;
+            }
+            case GLFW.GLFW_KEY_UP -> {
+                this.scrollBy(-this.textRenderer.fontHeight);
+                return true;
+            }
+            case GLFW.GLFW_KEY_HOME -> {
+                this.jumpToNewest();
+                return true;
+            }
+            default -> {
+                return super.keyPressed(keyCode, scanCode, modifiers);
+            }
+        }
+    }
+
+    private void jumpToNewest() {
+        if (this.hasNewer) {
+            this.rows.clear();
+            this.hasOlder = true;
+            this.hasNewer = false;
+            this.requestPending = false;
+        }
+        this.firstRow = 0;
+        this.firstRowOffset = 0;
+        this.maybeRequestPage();
+    }
+
+    @Override
+    public void close() {
+        if (this.client != null) {
+            this.client.setScreen(this.parent);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.craftmessage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.network.ServerPlayerEntity;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Live propagation of new messages between servers sharing a database.
+ *
+ * After a writer commits a batch, the IDs are sent with NOTIFY on a
+ * dedicated connection to shard 0, shared by the writers one at a time.
+ * Every server keeps a second connection that LISTENs on the same channel;
+ * received IDs are collected and sent to online players once per tick as a
+ * single {@link NewMessagesPayload}, so a burst of batches costs each
+ * player one packet per tick. Nothing polls the messages table.
+ * Notifications sent while a listener is reconnecting are lost; clients
+ * pick those messages up with their next history page.
+ */
+public class MessageNotifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        MessageNotifier.class
+    );
+
+    public static final String CHANNEL = "craftmessage_messages";
+
+    // NOTIFY payloads must stay below 8000 bytes
+    private static final int MAX_NOTIFY_PAYLOAD = 7900;
+    private static final int MAX_IDS_PER_PACKET = 1024;
+    private static final int POLL_TIMEOUT_MILLIS = 500;
+    private static final long MAX_RECONNECT_DELAY_MILLIS = 30_000L;
+
+    private static final AtomicLong NOTIFIED_IDS = new AtomicLong();
+    private static final AtomicLong RECEIVED_IDS = new AtomicLong();
+    private static final AtomicLong SENT_PACKETS = new AtomicLong();
+
+    // IDs received by the listener, drained by the server thread
+    private static long[] pending = new long[256];
+    private static int pendingCount;
+
+    // Writers publish one at a time; a separate lock so a slow NOTIFY
+    // never holds up the server thread's flush
+    private static final Object NOTIFY_LOCK = new Object();
+    // Guarded by NOTIFY_LOCK
+    private static Connection notifyConnection;
+
+    private static volatile boolean running;
+    private static Thread listenerThread;
+
+    public static void register() {
+        PayloadTypeRegistry.playS2C().register(
+            NewMessagesPayload.ID,
+            NewMessagesPayload.CODEC
+        );
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> start());
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> stop());
+        ServerTickEvents.END_SERVER_TICK.register(MessageNotifier::flush);
+    }
+
+    /**
+     * Notifications need PostgreSQL and can be turned off with
+     * messages.notify.enabled
+     */
+    public static boolean isEnabled() {
+        return (
+            DatabaseConfig.isNotifyEnabled() &&
+            "jpa".equals(DatabaseConfig.getStore())
+        );
+    }
+
+    private static synchronized void start() {
+        if (!isEnabled() || listenerThread != null) {
+            return;
+        }
+        running = true;
+        listenerThread = new Thread(
+            MessageNotifier::listenLoop,
+            "craftmessage-notify-listener"
+        );
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    private static synchronized void stop() {
+        running = false;
+        if (listenerThread != null) {
+            listenerThread.interrupt();
+            listenerThread = null;
+        }
+    }
+
+    /**
+     * Announce the messages of a committed batch to all servers. Called on
+     * the writer threads; unsaved messages (no ID) and direct messages are
+     * skipped.
+     */
+    static void publish(List<MessageEntity> messages) {
+        synchronized (NOTIFY_LOCK) {
+            if (!running) {
+                // Stopped, release the connection
+                closeQuietly(notifyConnection);
+                notifyConnection = null;
+                return;
+            }
+            notifyLocked(messages);
+        }
+    }
+
+    private static void notifyLocked(List<MessageEntity> messages) {
+        StringBuilder payload = new StringBuilder();
+        int count = 0;
+        try {
+            for (MessageEntity message : messages) {
+                if (message.getId() == null || message.getRecipient() != null) {
+                    continue;
+                }
+                String id = Long.toString(message.getId());
+                if (payload.length() + id.length() + 1 > MAX_NOTIFY_PAYLOAD) {
+                    sendNotify(payload.toString());
+                    payload.setLength(0);
+                }
+                if (payload.length() > 0) {
+                    payload.append(',');
+                }
+                payload.append(id);
+                count++;
+            }
+            if (payload.length() > 0) {
+                sendNotify(payload.toString());
+            }
+            NOTIFIED_IDS.addAndGet(count);
+        } catch (SQLException e) {
+            LOGGER.debug("NOTIFY failed: {}", e.getMessage());
+            closeQuietly(notifyConnection);
+            notifyConnection = null;
+        }
+    }
+
+    private static void sendNotify(String payload) throws SQLException {
+        if (notifyConnection == null || notifyConnection.isClosed()) {
+            notifyConnection = connect();
+        }
+        try (
+            PreparedStatement statement = notifyConnection.prepareStatement(
+                "SELECT pg_notify(?, ?)"
+            )
+        ) {
+            statement.setString(1, CHANNEL);
+            statement.setString(2, payload);
+            statement.execute();
+        }
+    }
+
+    private static void listenLoop() {
+        long delay = 1_000L;
+        while (running) {
+            try (Connection connection = connect()) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                PGConnection pgConnection = connection.unwrap(
+                    PGConnection.class
+                );
+                LOGGER.debug("Listening for new messages on {}", CHANNEL);
+                delay = 1_000L;
+                while (running) {
+                    PGNotification[] notifications =
+                        pgConnection.getNotifications(POLL_TIMEOUT_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            receive(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (!running) {
+                    break;
+                }
+                LOGGER.warn(
+                    "Message notification listener disconnected, retrying in {} ms: {}",
+                    delay,
+                    e.getMessage()
+                );
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    break;
+                }
+                delay = Math.min(MAX_RECONNECT_DELAY_MILLIS, delay * 2);
+            }
+        }
+        LOGGER.debug("Message notification listener stopped");
+    }
+
+    private static void receive(String payload) {
+        if (payload == null || payload.isEmpty()) {
+            return;
+        }
+        String[] parts = payload.split(",");
+        synchronized (MessageNotifier.class) {
+            for (String part : parts) {
+                long id;
+                try {
+                    id = Long.parseLong(part);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (pendingCount == pending.length) {
+                    pending = Arrays.copyOf(pending, pendingCount * 2);
+                }
+                pending[pendingCount++] = id;
+            }
+        }
+        RECEIVED_IDS.addAndGet(parts.length);
+    }
+
+    /**
+     * Send the IDs received since the last tick to every online player,
+     * one packet per player (more only for very large bursts)
+     */
+    private static void flush(MinecraftServer server) {
+        long[] ids;
+        synchronized (MessageNotifier.class) {
+            if (pendingCount == 0) {
+                return;
+            }
+            ids = Arrays.copyOf(pending, pendingCount);
+            pendingCount = 0;
+        }
+
+        long token = TickBudget.enter();
+        try {
+            Arrays.sort(ids);
+            List<ServerPlayerEntity> players = server
+                .getPlayerManager()
+                .getPlayerList();
+            for (int from = 0; from < ids.length; from += MAX_IDS_PER_PACKET) {
+                NewMessagesPayload payload = new NewMessagesPayload(
+                    Arrays.copyOfRange(
+                        ids,
+                        from,
+                        Math.min(ids.length, from + MAX_IDS_PER_PACKET)
+                    )
+                );
+                for (ServerPlayerEntity player : players) {
+                    if (
+                        ServerPlayNetworking.canSend(
+                            player,
+                            NewMessagesPayload.ID
+                        )
+                    ) {
+                        ServerPlayNetworking.send(player, payload);
+                        SENT_PACKETS.incrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            TickBudget.exit(TickBudget.Operation.BROADCAST, token);
+        }
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(
+            DatabaseConfig.getShardUrl(0),
+            DatabaseConfig.getShardUsername(0),
+            DatabaseConfig.getShardPassword(0)
+        );
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            LOGGER.debug("Close failed: {}", e.getMessage());
+        }
+    }
+
+    public static long getNotifiedCount() {
+        return NOTIFIED_IDS.get();
+    }
+
+    public static long getReceivedCount() {
+        return RECEIVED_IDS.get();
+    }
+
+    public static long getSentPacketCount() {
+        return SENT_PACKETS.get();
+    }
+}
@@ -4,9 +4,28 @@ import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.EntityTransaction;
 import jakarta.persistence.TypedQuery;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
 import java.util.UUID;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,12 +39,149 @@ public class MessageRepository {
         MessageRepository.class
     );
 
+    // Rows per statement and transaction for bulk deletes
+    private static final int DELETE_CHUNK_SIZE = 5000;
+
+    // Rows per round trip for read-only queries that return many rows
+    private static final int FETCH_SIZE = 500;
+
+    // Projection into read-only records, followed by the WHERE clause
+    private static final String SELECT_VIEW =
+        "SELECT new " +
+        MessageView.class.getName() +
+        "(m.id, p.uuid, m.createdAt, m.text) " +
+        "FROM MessageEntity m JOIN m.player p ";
+
+    // Start of a message's hour in epoch millis, for reconciling hourly_stats
+    private static final String HOUR_MILLIS =
+        "FLOOR(EXTRACT(EPOCH FROM created_at) / 3600) * 3600000";
+
+    /**
+     * A rollup table: its columns with the key first, the aggregate over all
+     * messages in the same column order, and the aggregate for one key
+     */
+    private record Rollup(
+        String table,
+        String[] columns,
+        String totalQuery,
+        String keyQuery
+    ) {
+        /**
+         * Values of a row without messages
+         */
+        long[] empty() {
+            long[] values = new long[columns.length - 1];
+            if (columns[columns.length - 1].equals("last_message_at")) {
+                values[values.length - 1] = Long.MIN_VALUE;
+            }
+            return values;
+        }
+    }
+
+    private static final Rollup PLAYER_ROLLUP = new Rollup(
+        "player_stats",
+        new String[] {
+            "player_id",
+            "message_count",
+            "total_chars",
+            "last_message_at",
+        },
+        "SELECT player_id, COUNT(*), SUM(LENGTH(text)), MAX(created_at) " +
+        "FROM messages GROUP BY player_id",
+        "SELECT COUNT(*), SUM(LENGTH(text)), MAX(created_at) " +
+        "FROM messages WHERE player_id = ?"
+    );
+
+    private static final Rollup HOURLY_ROLLUP = new Rollup(
+        "hourly_stats",
+        new String[] { "hour_start", "message_count", "total_chars" },
+        "SELECT " +
+        HOUR_MILLIS +
+        ", COUNT(*), SUM(LENGTH(text)) FROM messages " +
+        "WHERE created_at IS NOT NULL GROUP BY " +
+        HOUR_MILLIS,
+        "SELECT COUNT(*), SUM(LENGTH(text)) FROM messages " +
+        "WHERE created_at >= ? AND created_at < ?"
+    );
+
     private final EntityManagerFactory entityManagerFactory;
+    private final PlayerCache playerCache = new PlayerCache();
 
     public MessageRepository(EntityManagerFactory entityManagerFactory) {
         this.entityManagerFactory = entityManagerFactory;
     }
 
+    /**
+     * Get the UUID to players.id cache used on the write path
+     */
+    public PlayerCache getPlayerCache() {
+        return playerCache;
+    }
+
+    /**
+     * Look up the compact key of a player without creating it
+     *
+     * @return the key, or null if the player never sent a message
+     */
+    public Integer findPlayerId(UUID playerUuid) {
+        Integer cached = playerCache.get(playerUuid);
+        if (cached != null) {
+            return cached;
+        }
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            List<Integer> ids = entityManager
+                .createQuery(
+                    "SELECT p.id FROM PlayerEntity p WHERE p.uuid = :uuid",
+                    Integer.class
+                )
+                .setParameter("uuid", playerUuid)
+                .getResultList();
+            if (ids.isEmpty()) {
+                return null;
+            }
+            playerCache.put(playerUuid, ids.get(0));
+            return ids.get(0);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Get the compact key of a player, inserting the player if needed.
+     * The insert commits on its own so the key can be cached right away; a
+     * concurrent insert by another server is resolved by reading again.
+     */
+    public int getOrCreatePlayerId(UUID playerUuid) {
+        Integer existing = findPlayerId(playerUuid);
+        if (existing != null) {
+            return existing;
+        }
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            PlayerEntity player = new PlayerEntity(playerUuid);
+            entityManager.persist(player);
+            transaction.commit();
+            playerCache.put(playerUuid, player.getId());
+            return player.getId();
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            Integer raced = findPlayerId(playerUuid);
+            if (raced == null) {
+                throw e;
+            }
+            return raced;
+        } finally {
+            entityManager.close();
+        }
+    }
+
     /**
      * Save a message entity to the database
      */
@@ -39,11 +195,25 @@ public class MessageRepository {
         EntityTransaction transaction = null;
 
         try {
+            int playerId = getOrCreatePlayerId(message.getUuid());
+
             entityManager = entityManagerFactory.createEntityManager();
             transaction = entityManager.getTransaction();
             transaction.begin();
 
+            message.setPlayer(
+                entityManager.getReference(PlayerEntity.class, playerId)
+            );
             entityManager.persist(message);
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection ->
+                    addToRollups(
+                        connection,
+                        List.of(message),
+                        new int[] { playerId }
+                    )
+                );
             transaction.commit();
 
             LOGGER.debug(
@@ -53,12 +223,7 @@ public class MessageRepository {
             return Optional.of(message);
         } catch (Exception e) {
             // Don't log stack trace for database connection failures
-            if (
-                e.getMessage() != null &&
-                (e.getMessage().contains("FATAL: terminating connection") ||
-                    e.getMessage().contains("SQL Error") ||
-                    e.getMessage().contains("could not execute statement"))
-            ) {
+            if (DatabaseErrors.isConnectionLost(e)) {
                 LOGGER.warn(
                     "Failed to save message - database connection lost"
                 );
@@ -70,17 +235,7 @@ public class MessageRepository {
                     transaction.rollback();
                 } catch (Exception rollbackEx) {
                     // Don't log stack trace for rollback failures on closed connections
-                    if (
-                        rollbackEx.getMessage() != null &&
-                        (rollbackEx
-                                .getMessage()
-                                .contains("Соединение уже было закрыто") ||
-                            rollbackEx
-                                .getMessage()
-                                .contains(
-                                    "Unable to rollback against JDBC Connection"
-                                ))
-                    ) {
+                    if (DatabaseErrors.isConnectionLost(rollbackEx)) {
                         LOGGER.debug(
                             "Rollback failed - connection already closed"
                         );
@@ -100,6 +255,98 @@ public class MessageRepository {
         }
     }
 
+    /**
+     * Save a batch of messages in one transaction with a single JDBC batch
+     * insert. Generated IDs are written back to the entities.
+     *
+     * @return number of messages saved
+     */
+    public int saveAll(List<MessageEntity> messages) {
+        if (entityManagerFactory == null) {
+            LOGGER.error("Cannot save messages - EntityManagerFactory is null");
+            return 0;
+        }
+        if (messages.isEmpty()) {
+            return 0;
+        }
+
+        // Resolve player keys first, new players commit on their own
+        int[] playerIds = new int[messages.size()];
+        for (int i = 0; i < playerIds.length; i++) {
+            playerIds[i] = getOrCreatePlayerId(messages.get(i).getUuid());
+        }
+
+        EntityManager entityManager = null;
+        EntityTransaction transaction = null;
+
+        try {
+            entityManager = entityManagerFactory.createEntityManager();
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            Instant now = Instant.now();
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection -> {
+                    try (
+                        PreparedStatement statement =
+                            connection.prepareStatement(
+                                "INSERT INTO messages (player_id, recipient, channel, text, created_at) " +
+                                "VALUES (?, ?, ?, ?, ?)",
+                                new String[] { "id" }
+                            )
+                    ) {
+                        for (int i = 0; i < playerIds.length; i++) {
+                            MessageEntity message = messages.get(i);
+                            if (message.getCreatedAt() == null) {
+                                message.setCreatedAt(now);
+                            }
+                            statement.setInt(1, playerIds[i]);
+                            setUuid(statement, 2, message.getRecipient());
+                            statement.setString(3, message.getChannel());
+                            statement.setString(4, message.getText());
+                            statement.setTimestamp(
+                                5,
+                                Timestamp.from(message.getCreatedAt())
+                            );
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                        try (ResultSet keys = statement.getGeneratedKeys()) {
+                            int i = 0;
+                            while (keys.next() && i < messages.size()) {
+                                messages.get(i++).setId(keys.getLong(1));
+                            }
+                        }
+                    }
+                    addToRollups(connection, messages, playerIds);
+                });
+
+            transaction.commit();
+            LOGGER.debug("Saved batch of {} messages", messages.size());
+            return messages.size();
+        } catch (Exception e) {
+            if (transaction != null && transaction.isActive()) {
+                try {
+                    transaction.rollback();
+                } catch (Exception rollbackEx) {
+                    LOGGER.debug(
+                        "Rollback failed - connection already closed"
+                    );
+                }
+            }
+            // Keys of rolled back rows were never committed
+            for (MessageEntity message : messages) {
+                message.setId(null);
+            }
+            throw e;
+        } finally {
+            if (entityManager != null && entityManager.isOpen()) {
+                entityManager.close();
+            }
+        }
+    }
+
     /**
      * Find a message by its ID
      */
@@ -115,8 +362,14 @@ public class MessageRepository {
 
         try {
             entityManager = entityManagerFactory.createEntityManager();
-            MessageEntity message = entityManager.find(MessageEntity.class, id);
-            return Optional.ofNullable(message);
+            return entityManager
+                .createQuery(
+                    "SELECT m FROM MessageEntity m JOIN FETCH m.player WHERE m.id = :id",
+                    MessageEntity.class
+                )
+                .setParameter("id", id)
+                .getResultStream()
+                .findFirst();
         } catch (Exception e) {
             LOGGER.error("Failed to find message by ID {}", id, e);
             return Optional.empty();
@@ -141,13 +394,23 @@ public class MessageRepository {
         EntityManager entityManager = null;
 
         try {
+            Integer playerId = findPlayerId(playerUuid);
+            if (playerId == null) {
+                return List.of();
+            }
+
+            // Filter on the foreign key, all rows share the caller's UUID
             entityManager = entityManagerFactory.createEntityManager();
             TypedQuery<MessageEntity> query = entityManager.createQuery(
-                "SELECT m FROM MessageEntity m WHERE m.uuid = :playerUuid ORDER BY m.id DESC",
+                "SELECT m FROM MessageEntity m WHERE m.player.id = :playerId ORDER BY m.id DESC",
                 MessageEntity.class
             );
-            query.setParameter("playerUuid", playerUuid);
-            return query.getResultList();
+            query.setParameter("playerId", playerId);
+            List<MessageEntity> messages = query.getResultList();
+            for (MessageEntity message : messages) {
+                message.setUuid(playerUuid);
+            }
+            return messages;
         } catch (Exception e) {
             LOGGER.error(
                 "Failed to find messages for player {}",
@@ -178,7 +441,7 @@ public class MessageRepository {
         try {
             entityManager = entityManagerFactory.createEntityManager();
             TypedQuery<MessageEntity> query = entityManager.createQuery(
-                "SELECT m FROM MessageEntity m ORDER BY m.id DESC",
+                "SELECT m FROM MessageEntity m JOIN FETCH m.player ORDER BY m.id DESC",
                 MessageEntity.class
             );
             return query.getResultList();
@@ -193,7 +456,7 @@ public class MessageRepository {
     }
 
     /**
-     * Delete a message by its ID
+     * Delete a message by its ID with a single DELETE statement
      */
     public boolean deleteById(Long id) {
         if (entityManagerFactory == null) {
@@ -203,39 +466,188 @@ public class MessageRepository {
             return false;
         }
 
-        EntityManager entityManager = null;
-        EntityTransaction transaction = null;
-
         try {
-            entityManager = entityManagerFactory.createEntityManager();
-            transaction = entityManager.getTransaction();
-            transaction.begin();
-
-            MessageEntity message = entityManager.find(MessageEntity.class, id);
-            if (message != null) {
-                entityManager.remove(message);
-                transaction.commit();
+            boolean deleted = deleteByIds(List.of(id)) > 0;
+            if (deleted) {
                 LOGGER.debug("Message with ID {} deleted successfully", id);
-                return true;
             } else {
-                transaction.rollback();
                 LOGGER.warn("Message with ID {} not found for deletion", id);
-                return false;
             }
+            return deleted;
         } catch (Exception e) {
             LOGGER.error("Failed to delete message with ID {}", id, e);
-            if (transaction != null && transaction.isActive()) {
-                try {
+            return false;
+        }
+    }
+
+    /**
+     * Delete messages and their mailbox copies by ID, at most
+     * DELETE_CHUNK_SIZE per statement and transaction
+     *
+     * @return number of messages deleted
+     */
+    public long deleteByIds(Collection<Long> ids) {
+        List<Long> all = List.copyOf(ids);
+        long deleted = 0;
+        for (int from = 0; from < all.size(); from += DELETE_CHUNK_SIZE) {
+            List<Long> chunk = all.subList(
+                from,
+                Math.min(all.size(), from + DELETE_CHUNK_SIZE)
+            );
+            EntityManager entityManager =
+                entityManagerFactory.createEntityManager();
+            EntityTransaction transaction = entityManager.getTransaction();
+            try {
+                transaction.begin();
+                deleted += entityManager
+                    .createQuery("DELETE FROM MessageEntity m WHERE m.id IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+                entityManager
+                    .createQuery("DELETE FROM MailboxEntity b WHERE b.id IN :ids")
+                    .setParameter("ids", chunk)
+                    .executeUpdate();
+                transaction.commit();
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
                     transaction.rollback();
-                } catch (Exception rollbackEx) {
-                    LOGGER.error("Failed to rollback transaction", rollbackEx);
                 }
+                throw e;
+            } finally {
+                entityManager.close();
             }
-            return false;
-        } finally {
-            if (entityManager != null && entityManager.isOpen()) {
+        }
+        return deleted;
+    }
+
+    /**
+     * Delete all messages of a player and the mailbox copies of their direct
+     * messages. Mailboxes live on the recipients' shards, so the copies are
+     * deleted even if the player has no messages here. The player row
+     * stays: other writers and servers sharing the database may have its ID
+     * cached, and the rollups and mailbox refer to it.
+     *
+     * @return number of messages deleted
+     */
+    public long deleteByPlayer(UUID playerUuid) {
+        Integer playerId = findPlayerId(playerUuid);
+        return deleteInChunks(
+            playerId != null ? "player_id = ?" : null,
+            statement -> statement.setInt(1, playerId),
+            "sender = ?",
+            statement -> setUuid(statement, 1, playerUuid)
+        );
+    }
+
+    /**
+     * Delete messages and mailbox copies with an ID below beforeId
+     *
+     * @return number of messages deleted
+     */
+    public long deleteOlderThan(long beforeId) {
+        Binder binder = statement -> statement.setLong(1, beforeId);
+        return deleteInChunks("id < ?", binder, "id < ?", binder);
+    }
+
+    /**
+     * Delete messages and mailbox copies created before the given time
+     *
+     * @return number of messages deleted
+     */
+    public long deleteOlderThan(Instant before) {
+        Binder binder = statement ->
+            statement.setTimestamp(1, Timestamp.from(before));
+        return deleteInChunks(
+            "created_at < ?",
+            binder,
+            "created_at < ?",
+            binder
+        );
+    }
+
+    private interface Binder {
+        void bind(PreparedStatement statement) throws SQLException;
+    }
+
+    /**
+     * Delete matching messages and mailbox entries in chunks of
+     * DELETE_CHUNK_SIZE rows of each table, each chunk in its own short
+     * transaction, so a large delete never holds row locks for long or
+     * blocks the writer. Each condition takes one parameter; a null
+     * condition skips that table.
+     */
+    private long deleteInChunks(
+        String condition,
+        Binder binder,
+        String mailboxCondition,
+        Binder mailboxBinder
+    ) {
+        long total = 0;
+        while (true) {
+            EntityManager entityManager =
+                entityManagerFactory.createEntityManager();
+            EntityTransaction transaction = entityManager.getTransaction();
+            int[] deleted = new int[2];
+            try {
+                transaction.begin();
+                entityManager
+                    .unwrap(Session.class)
+                    .doWork(connection -> {
+                        if (condition != null) {
+                            deleted[0] = deleteChunk(
+                                connection,
+                                "messages",
+                                condition,
+                                binder
+                            );
+                        }
+                        deleted[1] = deleteChunk(
+                            connection,
+                            "mailbox",
+                            mailboxCondition,
+                            mailboxBinder
+                        );
+                    });
+                transaction.commit();
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            } finally {
                 entityManager.close();
             }
+            total += deleted[0];
+            if (
+                deleted[0] < DELETE_CHUNK_SIZE &&
+                deleted[1] < DELETE_CHUNK_SIZE
+            ) {
+                return total;
+            }
+            DatabaseScheduler.yieldToInteractive();
+        }
+    }
+
+    private static int deleteChunk(
+        Connection connection,
+        String table,
+        String condition,
+        Binder binder
+    ) throws SQLException {
+        try (
+            PreparedStatement statement = connection.prepareStatement(
+                "DELETE FROM " +
+                table +
+                " WHERE id IN (SELECT id FROM " +
+                table +
+                " WHERE " +
+                condition +
+                " ORDER BY id LIMIT ?)"
+            )
+        ) {
+            binder.bind(statement);
+            statement.setInt(2, DELETE_CHUNK_SIZE);
+            return statement.executeUpdate();
         }
     }
 
@@ -270,9 +682,1062 @@ public class MessageRepository {
     }
 
     /**
-     * Check if a message with the given ID exists
+     * Check if a message with the given ID exists without loading it
      */
     public boolean existsById(Long id) {
-        return findById(id).isPresent();
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot check message ID - EntityManagerFactory is null"
+            );
+            return false;
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return !session
+                .createSelectionQuery(
+                    "SELECT 1 FROM MessageEntity m WHERE m.id = :id",
+                    Integer.class
+                )
+                .setParameter("id", id)
+                .setMaxResults(1)
+                .getResultList()
+                .isEmpty();
+        }
+    }
+
+    /**
+     * Read one chunk of messages in ascending ID order after the given ID.
+     * Uses a StatelessSession so nothing is kept in a persistence context;
+     * callers page through large ranges with constant memory.
+     *
+     * @param from inclusive lower bound on created_at, or null
+     * @param until exclusive upper bound on created_at, or null
+     */
+    public List<MessageEntity> findRangeAfter(
+        long afterId,
+        long toId,
+        Instant from,
+        Instant until,
+        int limit
+    ) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot read message range - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        StringBuilder hql = new StringBuilder(
+            "SELECT m FROM MessageEntity m JOIN FETCH m.player " +
+            "WHERE m.id > :afterId AND m.id <= :toId"
+        );
+        if (from != null) {
+            hql.append(" AND m.createdAt >= :from");
+        }
+        if (until != null) {
+            hql.append(" AND m.createdAt < :until");
+        }
+        hql.append(" ORDER BY m.id ASC");
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            var query = session
+                .createSelectionQuery(hql.toString(), MessageEntity.class)
+                .setParameter("afterId", afterId)
+                .setParameter("toId", toId)
+                .setFetchSize(limit)
+                .setMaxResults(limit);
+            if (from != null) {
+                query.setParameter("from", from);
+            }
+            if (until != null) {
+                query.setParameter("until", until);
+            }
+            return query.getResultList();
+        }
+    }
+
+    /**
+     * Keyset page of a channel's public messages next to anchorId, for the
+     * history screen. Served by the (channel, id) index, so the cost depends
+     * on the page size and not on the size of the table.
+     * Older pages are returned newest first, newer pages oldest first, so
+     * each page starts next to the anchor.
+     */
+    public List<MessageView> findPage(
+        String channel,
+        long anchorId,
+        boolean older,
+        int limit
+    ) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot read message page - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        // Direct messages are private and never part of the history
+        String hql = older
+            ? SELECT_VIEW +
+              "WHERE m.channel = :channel AND m.id < :anchorId " +
+              "AND m.recipient IS NULL ORDER BY m.id DESC"
+            : SELECT_VIEW +
+              "WHERE m.channel = :channel AND m.id > :anchorId " +
+              "AND m.recipient IS NULL ORDER BY m.id ASC";
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(hql, MessageView.class)
+                .setParameter("channel", channel)
+                .setParameter("anchorId", anchorId)
+                .setMaxResults(limit)
+                .getResultList();
+        }
+    }
+
+    /**
+     * Read-only copy of one message
+     */
+    public Optional<MessageView> findViewById(long id) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot find message by ID - EntityManagerFactory is null"
+            );
+            return Optional.empty();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    SELECT_VIEW + "WHERE m.id = :id",
+                    MessageView.class
+                )
+                .setParameter("id", id)
+                .setMaxResults(1)
+                .getResultList()
+                .stream()
+                .findFirst();
+        }
+    }
+
+    /**
+     * Read-only copies of one player's messages, newest first
+     */
+    public List<MessageView> findViewsByPlayer(UUID playerUuid) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot find messages by player UUID - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        Integer playerId = findPlayerId(playerUuid);
+        if (playerId == null) {
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    SELECT_VIEW + "WHERE p.id = :playerId ORDER BY m.id DESC",
+                    MessageView.class
+                )
+                .setParameter("playerId", playerId)
+                .setFetchSize(FETCH_SIZE)
+                .getResultList();
+        }
+    }
+
+    /**
+     * Read-only copies of all messages, newest first. Rows are fetched
+     * FETCH_SIZE at a time and only the records are kept.
+     */
+    public List<MessageView> findAllViews() {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot find all messages - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    SELECT_VIEW + "ORDER BY m.id DESC",
+                    MessageView.class
+                )
+                .setFetchSize(FETCH_SIZE)
+                .getResultList();
+        }
+    }
+
+    /**
+     * UUIDs of all players stored in this database
+     */
+    public List<UUID> findPlayerUuids() {
+        if (entityManagerFactory == null) {
+            LOGGER.error("Cannot list players - EntityManagerFactory is null");
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    "SELECT p.uuid FROM PlayerEntity p",
+                    UUID.class
+                )
+                .getResultList();
+        }
+    }
+
+    /**
+     * One chunk of a player's messages in ascending ID order after the given
+     * ID, used to move players between shards
+     */
+    public List<MessageEntity> findByPlayerAfter(
+        UUID playerUuid,
+        long afterId,
+        int limit
+    ) {
+        Integer playerId = findPlayerId(playerUuid);
+        if (playerId == null) {
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            List<MessageEntity> messages = session
+                .createSelectionQuery(
+                    "SELECT m FROM MessageEntity m " +
+                    "WHERE m.player.id = :playerId AND m.id > :afterId " +
+                    "ORDER BY m.id ASC",
+                    MessageEntity.class
+                )
+                .setParameter("playerId", playerId)
+                .setParameter("afterId", afterId)
+                .setMaxResults(limit)
+                .getResultList();
+            for (MessageEntity message : messages) {
+                message.setUuid(playerUuid);
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Delete a player's messages up to and including maxId, and the player
+     * row once no messages are left. Only for players that rebalancing
+     * moved to another shard, which new messages no longer go to.
+     *
+     * @return number of messages deleted
+     */
+    public int deleteByPlayerUpTo(UUID playerUuid, long maxId) {
+        Integer playerId = findPlayerId(playerUuid);
+        if (playerId == null) {
+            return 0;
+        }
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            int deleted = entityManager
+                .createQuery(
+                    "DELETE FROM MessageEntity m " +
+                    "WHERE m.player.id = :playerId AND m.id <= :maxId"
+                )
+                .setParameter("playerId", playerId)
+                .setParameter("maxId", maxId)
+                .executeUpdate();
+            int players = entityManager
+                .createQuery(
+                    "DELETE FROM PlayerEntity p WHERE p.id = :playerId " +
+                    "AND NOT EXISTS (SELECT 1 FROM MessageEntity m " +
+                    "WHERE m.player.id = :playerId)"
+                )
+                .setParameter("playerId", playerId)
+                .executeUpdate();
+            transaction.commit();
+            if (players > 0) {
+                playerCache.remove(playerUuid);
+            }
+            return deleted;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Insert archived messages keeping their original IDs. Rows whose ID
+     * already exists are skipped, so an interrupted import can be re-run.
+     *
+     * @return number of rows actually inserted
+     */
+    public int insertArchived(List<MessageEntity> messages) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot import messages - EntityManagerFactory is null"
+            );
+            return 0;
+        }
+
+        // Players are created up front, each in its own short transaction
+        Map<UUID, Integer> playerIds = new HashMap<>();
+        for (MessageEntity message : messages) {
+            playerIds.computeIfAbsent(
+                message.getUuid(),
+                this::getOrCreatePlayerId
+            );
+        }
+
+        EntityManager entityManager = null;
+        EntityTransaction transaction = null;
+
+        try {
+            entityManager = entityManagerFactory.createEntityManager();
+            transaction = entityManager.getTransaction();
+            transaction.begin();
+
+            int[] inserted = new int[1];
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection -> {
+                    try (
+                        PreparedStatement statement =
+                            connection.prepareStatement(
+                                "INSERT INTO messages (id, player_id, recipient, channel, text, created_at) " +
+                                "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT DO NOTHING"
+                            )
+                    ) {
+                        for (MessageEntity message : messages) {
+                            statement.setLong(1, message.getId());
+                            statement.setInt(
+                                2,
+                                playerIds.get(message.getUuid())
+                            );
+                            setUuid(statement, 3, message.getRecipient());
+                            statement.setString(4, message.getChannel());
+                            statement.setString(5, message.getText());
+                            if (message.getCreatedAt() != null) {
+                                statement.setTimestamp(
+                                    6,
+                                    Timestamp.from(message.getCreatedAt())
+                                );
+                            } else {
+                                statement.setNull(6, Types.TIMESTAMP);
+                            }
+                            statement.addBatch();
+                        }
+                        int[] counts = statement.executeBatch();
+                        List<MessageEntity> added = new ArrayList<>();
+                        for (int i = 0; i < counts.length; i++) {
+                            if (counts[i] > 0) {
+                                added.add(messages.get(i));
+                            }
+                        }
+                        int[] addedPlayerIds = new int[added.size()];
+                        for (int i = 0; i < addedPlayerIds.length; i++) {
+                            addedPlayerIds[i] = playerIds.get(
+                                added.get(i).getUuid()
+                            );
+                        }
+                        addToRollups(connection, added, addedPlayerIds);
+                        inserted[0] = added.size();
+                    }
+                });
+
+            transaction.commit();
+            return inserted[0];
+        } catch (Exception e) {
+            LOGGER.error("Failed to import {} messages", messages.size(), e);
+            if (transaction != null && transaction.isActive()) {
+                try {
+                    transaction.rollback();
+                } catch (Exception rollbackEx) {
+                    LOGGER.error("Failed to rollback transaction", rollbackEx);
+                }
+            }
+            throw e;
+        } finally {
+            if (entityManager != null && entityManager.isOpen()) {
+                entityManager.close();
+            }
+        }
+    }
+
+    /**
+     * Move the message ID sequence past pastId and every stored ID, keeping
+     * its increment (the shard count) and this shard's residue, so saves
+     * after an import with explicit IDs do not hand out taken IDs. The table
+     * is locked against inserts meanwhile, so the sequence only moves
+     * forward.
+     *
+     * @return the highest ID the sequence is now past
+     */
+    public long advanceIds(long pastId) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot advance message IDs - EntityManagerFactory is null"
+            );
+            return pastId;
+        }
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            long past = entityManager
+                .unwrap(Session.class)
+                .doReturningWork(connection -> {
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute(
+                            "LOCK TABLE messages IN SHARE ROW EXCLUSIVE MODE"
+                        );
+                        String sequence;
+                        long increment;
+                        long maxId;
+                        try (
+                            ResultSet result = statement.executeQuery(
+                                "SELECT pg_get_serial_sequence('messages', 'id'), s.seqincrement, " +
+                                "(SELECT COALESCE(MAX(id), 0) FROM messages) " +
+                                "FROM pg_sequence s " +
+                                "WHERE s.seqrelid = pg_get_serial_sequence('messages', 'id')::regclass"
+                            )
+                        ) {
+                            if (!result.next()) {
+                                throw new SQLException(
+                                    "No ID sequence for messages"
+                                );
+                            }
+                            sequence = result.getString(1);
+                            increment = result.getLong(2);
+                            maxId = result.getLong(3);
+                        }
+                        long next;
+                        try (
+                            ResultSet result = statement.executeQuery(
+                                "SELECT last_value, is_called FROM " + sequence
+                            )
+                        ) {
+                            result.next();
+                            next =
+                                result.getLong(1) +
+                                (result.getBoolean(2) ? increment : 0);
+                        }
+                        long target = Math.max(pastId, maxId);
+                        if (next <= target) {
+                            next =
+                                target +
+                                1 +
+                                Math.floorMod(next - target - 1, increment);
+                            try (
+                                PreparedStatement setval =
+                                    connection.prepareStatement(
+                                        "SELECT setval(?, ?, false)"
+                                    )
+                            ) {
+                                setval.setString(1, sequence);
+                                setval.setLong(2, next);
+                                setval.execute();
+                            }
+                        }
+                        return target;
+                    }
+                });
+            transaction.commit();
+            return past;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Put direct messages into their recipients' mailboxes. Messages must
+     * have been saved (ID set); already queued IDs are skipped.
+     *
+     * @return number of mailbox entries added
+     */
+    public int addToMailbox(List<MessageEntity> messages) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot queue direct messages - EntityManagerFactory is null"
+            );
+            return 0;
+        }
+
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            int[] added = new int[1];
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection -> {
+                    try (
+                        PreparedStatement statement =
+                            connection.prepareStatement(
+                                "INSERT INTO mailbox (id, recipient, sender, text, created_at, delivered) " +
+                                "VALUES (?, ?, ?, ?, ?, FALSE) ON CONFLICT DO NOTHING"
+                            )
+                    ) {
+                        for (MessageEntity message : messages) {
+                            statement.setLong(1, message.getId());
+                            setUuid(statement, 2, message.getRecipient());
+                            setUuid(statement, 3, message.getUuid());
+                            statement.setString(4, message.getText());
+                            statement.setTimestamp(
+                                5,
+                                Timestamp.from(message.getCreatedAt())
+                            );
+                            statement.addBatch();
+                        }
+                        for (int count : statement.executeBatch()) {
+                            added[0] += Math.max(0, count);
+                        }
+                    }
+                });
+            transaction.commit();
+            return added[0];
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Undelivered direct messages of a recipient, oldest first
+     */
+    public List<MessageEntity> findMailbox(UUID recipient, int limit) {
+        if (entityManagerFactory == null) {
+            LOGGER.error("Cannot read mailbox - EntityManagerFactory is null");
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            List<MailboxEntity> entries = session
+                .createSelectionQuery(
+                    "SELECT b FROM MailboxEntity b " +
+                    "WHERE b.recipient = :recipient AND b.delivered = false " +
+                    "ORDER BY b.id ASC",
+                    MailboxEntity.class
+                )
+                .setParameter("recipient", recipient)
+                .setMaxResults(limit)
+                .getResultList();
+            List<MessageEntity> messages = new ArrayList<>(entries.size());
+            for (MailboxEntity entry : entries) {
+                MessageEntity message = new MessageEntity(
+                    entry.getSender(),
+                    entry.getText()
+                );
+                message.setId(entry.getId());
+                message.setRecipient(recipient);
+                message.setCreatedAt(entry.getCreatedAt());
+                messages.add(message);
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Mark a recipient's mailbox entries up to and including upToId as
+     * delivered
+     *
+     * @return number of entries marked
+     */
+    public int markDelivered(UUID recipient, long upToId) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            int marked = entityManager
+                .createQuery(
+                    "UPDATE MailboxEntity b SET b.delivered = true " +
+                    "WHERE b.recipient = :recipient AND b.delivered = false " +
+                    "AND b.id <= :upToId"
+                )
+                .setParameter("recipient", recipient)
+                .setParameter("upToId", upToId)
+                .executeUpdate();
+            transaction.commit();
+            return marked;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Players with the most messages, read from the player_stats rollup
+     */
+    public List<PlayerActivity> findTopPlayers(int limit) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot read statistics - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    "SELECT new " +
+                    PlayerActivity.class.getName() +
+                    "(p.uuid, s.messageCount, s.totalChars, s.lastMessageAt) " +
+                    "FROM PlayerStatsEntity s JOIN PlayerEntity p ON p.id = s.playerId " +
+                    "WHERE s.messageCount > 0 ORDER BY s.messageCount DESC",
+                    PlayerActivity.class
+                )
+                .setMaxResults(limit)
+                .getResultList();
+        }
+    }
+
+    /**
+     * Messages per hour from the hourly_stats rollup, oldest first. Hours
+     * without messages have no row.
+     */
+    public List<HourlyActivity> findHourlyActivity(
+        Instant from,
+        Instant until
+    ) {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot read statistics - EntityManagerFactory is null"
+            );
+            return List.of();
+        }
+
+        try (
+            StatelessSession session = entityManagerFactory
+                .unwrap(SessionFactory.class)
+                .openStatelessSession()
+        ) {
+            return session
+                .createSelectionQuery(
+                    "SELECT new " +
+                    HourlyActivity.class.getName() +
+                    "(h.hour, h.messageCount, h.totalChars) " +
+                    "FROM HourlyStatsEntity h " +
+                    "WHERE h.hour >= :from AND h.hour < :until ORDER BY h.hour",
+                    HourlyActivity.class
+                )
+                .setParameter("from", from)
+                .setParameter("until", until)
+                .getResultList();
+        }
+    }
+
+    /**
+     * Recompute the rollups from the messages table and correct the rows
+     * that drifted, e.g. after deletes, which do not touch the rollups, or
+     * rows written by older versions. The aggregates are read without
+     * locks while writers keep saving; every row that differs is then
+     * recounted and corrected in its own short transaction that locks only
+     * that row, so no increment is lost or counted twice.
+     *
+     * @return number of rollup rows corrected
+     */
+    public long reconcileRollups() {
+        if (entityManagerFactory == null) {
+            LOGGER.error(
+                "Cannot reconcile statistics - EntityManagerFactory is null"
+            );
+            return 0;
+        }
+        return reconcile(PLAYER_ROLLUP) + reconcile(HOURLY_ROLLUP);
+    }
+
+    /**
+     * Find the keys of one rollup table whose row differs from the
+     * aggregate over messages, then correct them one by one
+     */
+    private long reconcile(Rollup rollup) {
+        Map<Long, long[]> rows = new HashMap<>();
+        Map<Long, long[]> actual = new HashMap<>();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection -> {
+                    rows.putAll(
+                        readRows(
+                            connection,
+                            "SELECT " +
+                            String.join(", ", rollup.columns()) +
+                            " FROM " +
+                            rollup.table()
+                        )
+                    );
+                    actual.putAll(readRows(connection, rollup.totalQuery()));
+                });
+        } finally {
+            entityManager.close();
+        }
+
+        List<Long> drifted = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : actual.entrySet()) {
+            long[] row = rows.remove(entry.getKey());
+            if (row == null || !Arrays.equals(row, entry.getValue())) {
+                drifted.add(entry.getKey());
+            }
+        }
+        // Rows left over have no messages any more, unless already emptied
+        long[] empty = rollup.empty();
+        for (Map.Entry<Long, long[]> entry : rows.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), empty)) {
+                drifted.add(entry.getKey());
+            }
+        }
+
+        long corrected = 0;
+        for (long key : drifted) {
+            if (correct(rollup, key)) {
+                corrected++;
+            }
+        }
+        return corrected;
+    }
+
+    /**
+     * Recount one rollup row under a row lock and store the result. Writers
+     * that added to the row first have committed by the time the lock is
+     * granted, so their messages are counted; writers after that wait and
+     * add to the corrected row. Rows without messages are emptied rather
+     * than deleted, since a writer that already passed its insert would
+     * otherwise update nothing.
+     *
+     * @return whether the row was changed
+     */
+    private boolean correct(Rollup rollup, long key) {
+        String keyColumn = rollup.columns()[0];
+        String[] values = Arrays.copyOfRange(
+            rollup.columns(),
+            1,
+            rollup.columns().length
+        );
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            boolean[] changed = new boolean[1];
+            entityManager
+                .unwrap(Session.class)
+                .doWork(connection -> {
+                    try (
+                        PreparedStatement create = connection.prepareStatement(
+                            "INSERT INTO " +
+                            rollup.table() +
+                            " (" +
+                            keyColumn +
+                            ", message_count, total_chars) VALUES (?, 0, 0) " +
+                            "ON CONFLICT DO NOTHING"
+                        );
+                        PreparedStatement lock = connection.prepareStatement(
+                            "SELECT " +
+                            String.join(", ", values) +
+                            " FROM " +
+                            rollup.table() +
+                            " WHERE " +
+                            keyColumn +
+                            " = ? FOR UPDATE"
+                        );
+                        PreparedStatement count = connection.prepareStatement(
+                            rollup.keyQuery()
+                        );
+                        PreparedStatement update = connection.prepareStatement(
+                            "UPDATE " +
+                            rollup.table() +
+                            " SET " +
+                            String.join(" = ?, ", values) +
+                            " = ? WHERE " +
+                            keyColumn +
+                            " = ?"
+                        )
+                    ) {
+                        setColumn(create, 1, keyColumn, key);
+                        create.executeUpdate();
+                        long[] current = readRow(lock, keyColumn, key);
+                        setColumn(count, 1, keyColumn, key);
+                        if (rollup == HOURLY_ROLLUP) {
+                            setColumn(count, 2, keyColumn, key + 3_600_000L);
+                        }
+                        long[] recounted = readRow(count, null, key);
+                        if (recounted[0] == 0) {
+                            recounted = rollup.empty();
+                        }
+                        if (Arrays.equals(current, recounted)) {
+                            return;
+                        }
+                        int index = 1;
+                        for (int i = 0; i < values.length; i++) {
+                            setColumn(update, index++, values[i], recounted[i]);
+                        }
+                        setColumn(update, index, keyColumn, key);
+                        update.executeUpdate();
+                        changed[0] = true;
+                    }
+                });
+            transaction.commit();
+            return changed[0];
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Add inserted messages to the rollups, on the connection of the
+     * transaction that inserted them. Rows are touched in key order so
+     * concurrent writers lock them in the same order. The upsert is an
+     * INSERT ... ON CONFLICT DO NOTHING without a conflict target, the only
+     * form H2's PostgreSQL mode accepts (each table has a single unique
+     * key), followed by an UPDATE.
+     */
+    private static void addToRollups(
+        Connection connection,
+        List<MessageEntity> messages,
+        int[] playerIds
+    ) throws SQLException {
+        // player_id -> {messages, characters, latest epoch millis}
+        Map<Integer, long[]> players = new TreeMap<>();
+        // hour -> {messages, characters}
+        Map<Instant, long[]> hours = new TreeMap<>();
+        for (int i = 0; i < playerIds.length; i++) {
+            MessageEntity message = messages.get(i);
+            long characters = characters(message.getText());
+            long[] player = players.computeIfAbsent(playerIds[i], id ->
+                new long[] { 0, 0, Long.MIN_VALUE }
+            );
+            player[0]++;
+            player[1] += characters;
+            Instant createdAt = message.getCreatedAt();
+            if (createdAt != null) {
+                player[2] = Math.max(player[2], createdAt.toEpochMilli());
+                long[] hour = hours.computeIfAbsent(
+                    createdAt.truncatedTo(ChronoUnit.HOURS),
+                    start -> new long[2]
+                );
+                hour[0]++;
+                hour[1] += characters;
+            }
+        }
+        if (players.isEmpty()) {
+            return;
+        }
+
+        try (
+            PreparedStatement create = connection.prepareStatement(
+                "INSERT INTO player_stats (player_id, message_count, total_chars) " +
+                "VALUES (?, 0, 0) ON CONFLICT DO NOTHING"
+            );
+            PreparedStatement update = connection.prepareStatement(
+                "UPDATE player_stats SET message_count = message_count + ?, " +
+                "total_chars = total_chars + ?, last_message_at = CASE " +
+                "WHEN last_message_at IS NULL OR last_message_at < ? THEN ? " +
+                "ELSE last_message_at END WHERE player_id = ?"
+            )
+        ) {
+            for (Map.Entry<Integer, long[]> entry : players.entrySet()) {
+                long[] values = entry.getValue();
+                create.setInt(1, entry.getKey());
+                create.executeUpdate();
+                update.setLong(1, values[0]);
+                update.setLong(2, values[1]);
+                if (values[2] != Long.MIN_VALUE) {
+                    Timestamp latest = new Timestamp(values[2]);
+                    update.setTimestamp(3, latest);
+                    update.setTimestamp(4, latest);
+                } else {
+                    update.setNull(3, Types.TIMESTAMP);
+                    update.setNull(4, Types.TIMESTAMP);
+                }
+                update.setInt(5, entry.getKey());
+                update.executeUpdate();
+            }
+        }
+        if (hours.isEmpty()) {
+            return;
+        }
+        try (
+            PreparedStatement create = connection.prepareStatement(
+                "INSERT INTO hourly_stats (hour_start, message_count, total_chars) " +
+                "VALUES (?, 0, 0) ON CONFLICT DO NOTHING"
+            );
+            PreparedStatement update = connection.prepareStatement(
+                "UPDATE hourly_stats SET message_count = message_count + ?, " +
+                "total_chars = total_chars + ? WHERE hour_start = ?"
+            )
+        ) {
+            for (Map.Entry<Instant, long[]> entry : hours.entrySet()) {
+                Timestamp hour = Timestamp.from(entry.getKey());
+                create.setTimestamp(1, hour);
+                create.executeUpdate();
+                update.setLong(1, entry.getValue()[0]);
+                update.setLong(2, entry.getValue()[1]);
+                update.setTimestamp(3, hour);
+                update.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Run a query returning one row and read its values, after binding the
+     * key to the first parameter if a key column is given
+     */
+    private static long[] readRow(
+        PreparedStatement statement,
+        String keyColumn,
+        long key
+    ) throws SQLException {
+        if (keyColumn != null) {
+            setColumn(statement, 1, keyColumn, key);
+        }
+        try (ResultSet result = statement.executeQuery()) {
+            int width = result.getMetaData().getColumnCount();
+            long[] values = new long[width];
+            if (result.next()) {
+                for (int i = 0; i < width; i++) {
+                    values[i] = toLong(result.getObject(i + 1));
+                }
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Read rows of numbers and timestamps as longs, timestamps in epoch
+     * millis and NULL as Long.MIN_VALUE, keyed by the first column
+     */
+    private static Map<Long, long[]> readRows(Connection connection, String sql)
+        throws SQLException {
+        Map<Long, long[]> rows = new HashMap<>();
+        try (
+            Statement statement = connection.createStatement();
+            ResultSet result = statement.executeQuery(sql)
+        ) {
+            int width = result.getMetaData().getColumnCount();
+            while (result.next()) {
+                long[] values = new long[width - 1];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = toLong(result.getObject(i + 2));
+                }
+                rows.put(toLong(result.getObject(1)), values);
+            }
+        }
+        return rows;
+    }
+
+    private static long toLong(Object value) {
+        if (value == null) {
+            return Long.MIN_VALUE;
+        }
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.getTime();
+        }
+        if (value instanceof OffsetDateTime dateTime) {
+            return dateTime.toInstant().toEpochMilli();
+        }
+        return ((Number) value).longValue();
+    }
+
+    /**
+     * Bind a value read by readRows, converting timestamp columns back
+     */
+    private static void setColumn(
+        PreparedStatement statement,
+        int index,
+        String column,
+        long value
+    ) throws SQLException {
+        boolean timestamp =
+            column.equals("hour_start") || column.equals("last_message_at");
+        if (!timestamp) {
+            statement.setLong(index, value);
+        } else if (value == Long.MIN_VALUE) {
+            statement.setNull(index, Types.TIMESTAMP);
+        } else {
+            statement.setTimestamp(index, new Timestamp(value));
+        }
+    }
+
+    /**
+     * Characters as PostgreSQL's LENGTH counts them
+     */
+    private static long characters(String text) {
+        return text != null ? text.codePointCount(0, text.length()) : 0;
+    }
+
+    private static void setUuid(
+        PreparedStatement statement,
+        int index,
+        UUID uuid
+    ) throws SQLException {
+        if (uuid != null) {
+            statement.setObject(index, uuid);
+        } else {
+            statement.setNull(index, Types.OTHER);
+        }
     }
 }
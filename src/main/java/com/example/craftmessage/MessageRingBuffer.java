@@ -0,0 +1,260 @@
+package com.example.craftmessage;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer, multi-consumer ring buffer between the
+ * server thread and the database writer.
+ *
+ * Slots are columns of primitive arrays, so publishing copies a few longs
+ * and two String references and allocates nothing. Public messages have the
+ * nil UUID (all zero bits) as recipient. Each slot carries a sequence
+ * number: it is writable for sequence s when it holds s, readable when it
+ * holds s + 1, and released for the next lap by setting s + capacity.
+ * Consumers claim contiguous runs of readable slots with a single CAS.
+ */
+public class MessageRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray slotSequences;
+    private final long[] uuidMost;
+    private final long[] uuidLeast;
+    private final long[] recipientMost;
+    private final long[] recipientLeast;
+    private final boolean[] delivered;
+    private final String[] channels;
+    private final String[] texts;
+    private final long[] enqueuedNanos;
+
+    // Only the producer writes this; consumers read published for depth
+    private long producerSequence;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumerCursor = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // Parked consumers, woken by the producer without allocating
+    private final AtomicInteger waitingConsumers = new AtomicInteger();
+    private volatile Thread waiter;
+
+    /**
+     * Consumer-side reusable copy of a claimed run of slots
+     */
+    public static final class Batch {
+
+        public final long[] uuidMost;
+        public final long[] uuidLeast;
+        public final long[] recipientMost;
+        public final long[] recipientLeast;
+        public final boolean[] delivered;
+        public final String[] channels;
+        public final String[] texts;
+        public final long[] enqueuedNanos;
+        public int size;
+
+        public Batch(int maxSize) {
+            this.uuidMost = new long[maxSize];
+            this.uuidLeast = new long[maxSize];
+            this.recipientMost = new long[maxSize];
+            this.recipientLeast = new long[maxSize];
+            this.delivered = new boolean[maxSize];
+            this.channels = new String[maxSize];
+            this.texts = new String[maxSize];
+            this.enqueuedNanos = new long[maxSize];
+        }
+
+        public int capacity() {
+            return texts.length;
+        }
+
+        public UUID uuid(int index) {
+            return new UUID(uuidMost[index], uuidLeast[index]);
+        }
+
+        /**
+         * Recipient of a direct message, null for public messages
+         */
+        public UUID recipient(int index) {
+            if (recipientMost[index] == 0L && recipientLeast[index] == 0L) {
+                return null;
+            }
+            return new UUID(recipientMost[index], recipientLeast[index]);
+        }
+
+        public void clear() {
+            Arrays.fill(channels, 0, size, null);
+            Arrays.fill(texts, 0, size, null);
+            size = 0;
+        }
+    }
+
+    public MessageRingBuffer(int requestedCapacity) {
+        this.capacity = Integer.highestOneBit(
+            Math.max(2, requestedCapacity - 1) << 1
+        );
+        this.mask = capacity - 1;
+        this.slotSequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slotSequences.set(i, i);
+        }
+        this.uuidMost = new long[capacity];
+        this.uuidLeast = new long[capacity];
+        this.recipientMost = new long[capacity];
+        this.recipientLeast = new long[capacity];
+        this.delivered = new boolean[capacity];
+        this.channels = new String[capacity];
+        this.texts = new String[capacity];
+        this.enqueuedNanos = new long[capacity];
+    }
+
+    /**
+     * Publish one message. Must only be called from the producer thread.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean tryPublish(UUID player, String text) {
+        return tryPublish(
+            player,
+            null,
+            false,
+            MessageEntity.DEFAULT_CHANNEL,
+            text
+        );
+    }
+
+    /**
+     * Publish one public or direct message, delivered tells whether the
+     * recipient of a direct message already received it. Must only be
+     * called from the producer thread.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean tryPublish(
+        UUID player,
+        UUID recipient,
+        boolean delivered,
+        String channel,
+        String text
+    ) {
+        long sequence = producerSequence;
+        int index = (int) sequence & mask;
+        if (slotSequences.get(index) != sequence) {
+            rejected.incrementAndGet();
+            return false;
+        }
+
+        uuidMost[index] = player.getMostSignificantBits();
+        uuidLeast[index] = player.getLeastSignificantBits();
+        recipientMost[index] = recipient != null
+            ? recipient.getMostSignificantBits()
+            : 0L;
+        recipientLeast[index] = recipient != null
+            ? recipient.getLeastSignificantBits()
+            : 0L;
+        this.delivered[index] = delivered;
+        channels[index] = channel;
+        texts[index] = text;
+        enqueuedNanos[index] = System.nanoTime();
+        slotSequences.set(index, sequence + 1);
+
+        producerSequence = sequence + 1;
+        // A volatile store, not lazySet: it must not be reordered with the
+        // read of waitingConsumers, or a consumer that just checked size()
+        // parks for its whole timeout
+        published.set(sequence + 1);
+
+        if (waitingConsumers.get() > 0) {
+            Thread sleeping = waiter;
+            if (sleeping != null) {
+                LockSupport.unpark(sleeping);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Claim up to max readable slots and append them to the batch, within
+     * its capacity
+     *
+     * @return number of messages copied, 0 if none are ready
+     */
+    public int drainTo(Batch batch, int max) {
+        int offset = batch.size;
+        int limit = Math.min(max, batch.capacity() - offset);
+        while (true) {
+            long start = consumerCursor.get();
+            int count = 0;
+            while (
+                count < limit &&
+                slotSequences.get((int) (start + count) & mask) ==
+                start + count + 1
+            ) {
+                count++;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            if (!consumerCursor.compareAndSet(start, start + count)) {
+                continue;
+            }
+
+            for (int i = 0; i < count; i++) {
+                long sequence = start + i;
+                int index = (int) sequence & mask;
+                int to = offset + i;
+                batch.uuidMost[to] = uuidMost[index];
+                batch.uuidLeast[to] = uuidLeast[index];
+                batch.recipientMost[to] = recipientMost[index];
+                batch.recipientLeast[to] = recipientLeast[index];
+                batch.delivered[to] = delivered[index];
+                batch.channels[to] = channels[index];
+                batch.texts[to] = texts[index];
+                batch.enqueuedNanos[to] = enqueuedNanos[index];
+                channels[index] = null;
+                texts[index] = null;
+                slotSequences.set(index, sequence + capacity);
+            }
+            batch.size = offset + count;
+            return count;
+        }
+    }
+
+    /**
+     * Park the calling consumer until the producer publishes or the timeout
+     * passes
+     */
+    public void awaitData(long timeoutNanos) {
+        waitingConsumers.incrementAndGet();
+        waiter = Thread.currentThread();
+        try {
+            if (size() == 0) {
+                LockSupport.parkNanos(this, timeoutNanos);
+            }
+        } finally {
+            waitingConsumers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Messages published but not yet claimed by a consumer
+     */
+    public int size() {
+        return (int) Math.max(0, published.get() - consumerCursor.get());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Messages refused because the buffer was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -1,16 +1,25 @@
 package com.example.craftmessage;
 
-import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.client.gui.widget.ButtonWidget;
 import net.minecraft.client.gui.widget.TextFieldWidget;
+import net.minecraft.client.network.PlayerListEntry;
 import net.minecraft.text.Text;
 
 public class MessageScreen extends Screen {
 
+    // Channel of the last message, preselected the next time
+    private static String lastChannel = MessageEntity.DEFAULT_CHANNEL;
+
+    private TextFieldWidget recipientField;
+    private TextFieldWidget channelField;
     private TextFieldWidget messageField;
     private ButtonWidget sendButton;
     private boolean databaseAvailable;
+    private Text error;
 
     public MessageScreen() {
         super(Text.literal("Send Message"));
@@ -25,6 +34,34 @@ public class MessageScreen extends Screen {
         int centerX = this.width / 2;
         int centerY = this.height / 2;
 
+        // Optional recipient for a direct message: player name or UUID
+        this.recipientField = new TextFieldWidget(
+            this.textRenderer,
+            centerX - 150,
+            centerY - 75,
+            195,
+            20,
+            Text.literal("Recipient")
+        );
+        this.recipientField.setMaxLength(36);
+        this.recipientField.setPlaceholder(
+            Text.literal("Everyone (or a player name / UUID)")
+        );
+        this.addDrawableChild(this.recipientField);
+
+        // Channel of a public message, ignored for direct messages
+        this.channelField = new TextFieldWidget(
+            this.textRenderer,
+            centerX + 55,
+            centerY - 75,
+            95,
+            20,
+            Text.literal("Channel")
+        );
+        this.channelField.setMaxLength(32);
+        this.channelField.setText(lastChannel);
+        this.addDrawableChild(this.channelField);
+
         // Message input field
         this.messageField = new TextFieldWidget(
             this.textRenderer,
@@ -49,6 +86,17 @@ public class MessageScreen extends Screen {
             .build();
         this.addDrawableChild(this.sendButton);
 
+        // History button
+        this.addDrawableChild(
+            ButtonWidget.builder(Text.literal("History"), button ->
+                this.client.setScreen(
+                    new MessageHistoryScreen(this, this.channel())
+                )
+            )
+                .dimensions(centerX + 80, centerY + 20, 70, 20)
+                .build()
+        );
+
         // Set initial focus
         this.setInitialFocus(this.messageField);
     }
@@ -60,16 +108,59 @@ public class MessageScreen extends Screen {
             return;
         }
 
-        // Create payload with only the message text
-        SimpleMessagePayload payload = new SimpleMessagePayload(messageText);
+        UUID recipient = null;
+        String recipientText = this.recipientField.getText().trim();
+        if (!recipientText.isEmpty()) {
+            recipient = this.resolveRecipient(recipientText);
+            if (recipient == null) {
+                this.error = Text.literal("Unknown player: " + recipientText);
+                return;
+            }
+        }
 
-        // Send to server using simple payload
-        ClientPlayNetworking.send(payload);
+        // Queued and sent with the next batch, kept across disconnects
+        String channel = this.channel();
+        if (
+            !OutboundQueue.forCurrentServer(this.client).add(
+                recipient,
+                channel,
+                messageText
+            )
+        ) {
+            this.error = Text.literal("Too many unsent messages, try later");
+            return;
+        }
+        lastChannel = channel;
 
         // Close screen
         this.close();
     }
 
+    private String channel() {
+        String channel = this.channelField.getText()
+            .trim()
+            .toLowerCase(Locale.ROOT);
+        return channel.isEmpty() ? MessageEntity.DEFAULT_CHANNEL : channel;
+    }
+
+    /**
+     * Online players are looked up by name; offline players need their UUID
+     */
+    private UUID resolveRecipient(String text) {
+        try {
+            return UUID.fromString(text);
+        } catch (IllegalArgumentException e) {
+            // Not a UUID, try the player list
+        }
+        if (this.client == null || this.client.getNetworkHandler() == null) {
+            return null;
+        }
+        PlayerListEntry entry = this.client
+            .getNetworkHandler()
+            .getPlayerListEntry(text);
+        return entry != null ? entry.getProfile().getId() : null;
+    }
+
     @Override
     public void close() {
         if (this.client != null) {
@@ -96,6 +187,22 @@ public class MessageScreen extends Screen {
             0xFFFFFF
         );
 
+        context.drawTextWithShadow(
+            this.textRenderer,
+            Text.literal("To:"),
+            this.width / 2 - 150,
+            this.height / 2 - 90,
+            0xFFFFFF
+        );
+
+        context.drawTextWithShadow(
+            this.textRenderer,
+            Text.literal("Channel:"),
+            this.width / 2 + 55,
+            this.height / 2 - 90,
+            0xFFFFFF
+        );
+
         // Draw label for input field
         context.drawTextWithShadow(
             this.textRenderer,
@@ -105,6 +212,18 @@ public class MessageScreen extends Screen {
             0xFFFFFF
         );
 
+        if (this.error != null) {
+            context.drawCenteredTextWithShadow(
+                this.textRenderer,
+                this.error,
+                this.width / 2,
+                this.height / 2 + 65,
+                0xFF5555
+            );
+        }
+
+        this.renderOutbound(context);
+
         // Show PostgreSQL status message if not available
         if (!this.databaseAvailable) {
             context.drawCenteredTextWithShadow(
@@ -119,6 +238,37 @@ public class MessageScreen extends Screen {
         super.render(context, mouseX, mouseY, delta);
     }
 
+    /**
+     * Latest sent messages with their delivery status
+     */
+    private void renderOutbound(net.minecraft.client.gui.DrawContext context) {
+        if (this.client == null || this.client.getNetworkHandler() == null) {
+            return;
+        }
+        List<OutboundQueue.Entry> latest = OutboundQueue.forCurrentServer(
+            this.client
+        ).latest(3);
+        int y = this.height / 2 + 85;
+        for (OutboundQueue.Entry entry : latest) {
+            String text = this.textRenderer.trimToWidth(entry.text(), 220);
+            context.drawTextWithShadow(
+                this.textRenderer,
+                Text.literal(text),
+                this.width / 2 - 150,
+                y,
+                0xFFFFFFFF
+            );
+            context.drawTextWithShadow(
+                this.textRenderer,
+                Text.literal(entry.status().label()),
+                this.width / 2 + 80,
+                y,
+                entry.status().color()
+            );
+            y += 12;
+        }
+    }
+
     private void fillBackground(net.minecraft.client.gui.DrawContext context) {
         // Fill with semi-transparent dark background
         context.fill(0, 0, this.width, this.height, 0x80000000);
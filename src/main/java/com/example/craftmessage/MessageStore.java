@@ -0,0 +1,172 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Storage backend for messages, selected with database.store: "jpa"
+ * (Hibernate and PostgreSQL, optionally sharded) or "embedded" (local
+ * segment log, no database server).
+ *
+ * Implementations are used from the database scheduler's threads and the
+ * background writers, so they must be safe for concurrent use.
+ */
+public interface MessageStore {
+    /**
+     * Save one message, setting its ID
+     */
+    Optional<MessageEntity> save(MessageEntity message);
+
+    /**
+     * Save a batch of messages, setting their IDs. Throws if the batch (or
+     * part of it) could not be written; saved messages have their ID set.
+     *
+     * @return number of messages saved
+     */
+    int saveAll(List<MessageEntity> messages);
+
+    Optional<MessageEntity> findById(Long id);
+
+    boolean existsById(Long id);
+
+    /**
+     * Messages of one player, newest first
+     */
+    List<MessageEntity> findByPlayerUuid(UUID playerUuid);
+
+    /**
+     * All messages, newest first
+     */
+    List<MessageEntity> findAll();
+
+    /**
+     * Read-only copy of one message
+     */
+    Optional<MessageView> findViewById(long id);
+
+    /**
+     * Read-only copies of one player's messages, newest first
+     */
+    List<MessageView> findViewsByPlayer(UUID playerUuid);
+
+    /**
+     * Read-only copies of all messages, newest first
+     */
+    List<MessageView> findAllViews();
+
+    /**
+     * Keyset page of a channel's public messages next to anchorId: older
+     * pages newest first, newer pages oldest first
+     */
+    List<MessageView> findPage(
+        String channel,
+        long anchorId,
+        boolean older,
+        int limit
+    );
+
+    /**
+     * Messages with IDs in (afterId, toId] in ascending order, optionally
+     * limited to created_at in [from, until)
+     */
+    List<MessageEntity> findRangeAfter(
+        long afterId,
+        long toId,
+        Instant from,
+        Instant until,
+        int limit
+    );
+
+    /**
+     * Insert messages keeping their IDs, skipping IDs that already exist
+     *
+     * @return number of messages actually inserted
+     */
+    int insertArchived(List<MessageEntity> messages);
+
+    /**
+     * Move ID generation past pastId and every stored ID, so saves after an
+     * import with explicit IDs get fresh IDs
+     *
+     * @return the highest ID that new saves are now past
+     */
+    long advanceIds(long pastId);
+
+    /**
+     * Queue saved direct messages for their offline recipients
+     *
+     * @return number of mailbox entries added
+     */
+    int addToMailbox(List<MessageEntity> messages);
+
+    /**
+     * Undelivered direct messages of a recipient, oldest first
+     */
+    List<MessageEntity> findMailbox(UUID recipient, int limit);
+
+    /**
+     * Mark mailbox entries up to and including upToId as delivered
+     *
+     * @return number of entries marked
+     */
+    int markDelivered(UUID recipient, long upToId);
+
+    /**
+     * Players with the most messages, from the activity rollups
+     */
+    List<PlayerActivity> findTopPlayers(int limit);
+
+    /**
+     * Messages per hour in [from, until) from the activity rollups, oldest
+     * first; hours without messages are left out
+     */
+    List<HourlyActivity> findHourlyActivity(Instant from, Instant until);
+
+    /**
+     * Recompute the activity rollups from the stored messages, fixing drift
+     * left by deletes
+     *
+     * @return number of rollup entries corrected
+     */
+    long reconcileRollups();
+
+    long count();
+
+    boolean deleteById(Long id);
+
+    /**
+     * Delete messages by ID
+     *
+     * @return number of messages deleted
+     */
+    long deleteByIds(Collection<Long> ids);
+
+    /**
+     * Delete all messages of a player
+     *
+     * @return number of messages deleted
+     */
+    long deleteByPlayer(UUID playerUuid);
+
+    /**
+     * Delete messages with an ID below beforeId
+     *
+     * @return number of messages deleted
+     */
+    long deleteOlderThan(long beforeId);
+
+    /**
+     * Delete messages created before the given time
+     *
+     * @return number of messages deleted
+     */
+    long deleteOlderThan(Instant before);
+
+    /**
+     * Release files, threads and connections
+     */
+    void close();
+}
@@ -0,0 +1,34 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Read-only copy of a message for display. Queries that only show messages
+ * project straight into this record, so no managed entity, player proxy or
+ * dirty-checking snapshot is created per row.
+ *
+ * @param createdAt null for rows written before timestamps were stored
+ */
+public record MessageView(
+    long id,
+    UUID player,
+    Instant createdAt,
+    String text
+) {
+    /**
+     * Copy of a message read through an entity, e.g. from the embedded store
+     */
+    public static MessageView of(MessageEntity message) {
+        return new MessageView(
+            message.getId(),
+            message.getUuid(),
+            message.getCreatedAt(),
+            message.getText()
+        );
+    }
+
+    public long createdAtMillis() {
+        return createdAt != null ? createdAt.toEpochMilli() : 0L;
+    }
+}
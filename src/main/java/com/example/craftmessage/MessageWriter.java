@@ -0,0 +1,220 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Background writer that drains its own ingest ring buffer and persists
+ * messages in batches of up to database.batch.size, so the server thread
+ * never waits on the database. Several writers run side by side, each with
+ * its own batches and a pooled connection per batch; see
+ * {@link DatabaseManager#enqueueMessage}.
+ */
+public class MessageWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        MessageWriter.class
+    );
+
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(
+        1
+    );
+
+    private final int index;
+    private final MessageRingBuffer buffer;
+    private final BatchController controller = new BatchController(
+        MAX_BATCH_SIZE
+    );
+    private volatile boolean running;
+    private Thread thread;
+
+    // Metrics, written by the writer thread only
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong savedMessages = new AtomicLong();
+    private final AtomicLong failedMessages = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final long startedNanos = System.nanoTime();
+
+    public MessageWriter(int index, MessageRingBuffer buffer) {
+        this.index = index;
+        this.buffer = buffer;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "craftmessage-writer-" + index);
+        thread.setDaemon(true);
+        thread.start();
+        LOGGER.debug("Message writer {} started", index);
+    }
+
+    /**
+     * Stop accepting work and wait for queued messages to be written
+     */
+    public synchronized void stop(long timeoutMillis) {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOGGER.warn(
+                "Message writer {} did not finish, {} messages not written",
+                index,
+                buffer.size()
+            );
+        }
+        thread = null;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queue this writer drains
+     */
+    public MessageRingBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Batch size and linger time chosen for this writer
+     */
+    public BatchController getBatchController() {
+        return controller;
+    }
+
+    /**
+     * Batches, saved and failed messages, time spent saving and queue
+     * depth of this writer
+     */
+    public String report() {
+        long batchCount = batches.get();
+        long saved = savedMessages.get();
+        long busy = busyNanos.get();
+        long elapsed = Math.max(1, System.nanoTime() - startedNanos);
+        return String.format(
+            "  #%d: %d queued, %d batches (avg %.1f), %d saved, %d failed, busy %d%%",
+            index,
+            buffer.size(),
+            batchCount,
+            batchCount == 0 ? 0.0 : (double) saved / batchCount,
+            saved,
+            failedMessages.get(),
+            busy * 100 / elapsed
+        );
+    }
+
+    private void run() {
+        MessageRingBuffer.Batch batch = new MessageRingBuffer.Batch(
+            MAX_BATCH_SIZE
+        );
+        List<MessageEntity> messages = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running || buffer.size() > 0) {
+            int limit = controller.batchLimit();
+            if (buffer.drainTo(batch, limit) == 0) {
+                if (running) {
+                    buffer.awaitData(IDLE_PARK_NANOS);
+                }
+                continue;
+            }
+            long linger = controller.lingerNanos();
+            if (linger > 0 && running) {
+                // Busy but not backed up, give the batch a moment to fill
+                long deadline = System.nanoTime() + linger;
+                while (batch.size < limit) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    buffer.awaitData(remaining);
+                    buffer.drainTo(batch, limit - batch.size);
+                }
+            }
+            int count = batch.size;
+            int queued = buffer.size();
+
+            messages.clear();
+            for (int i = 0; i < count; i++) {
+                MessageEntity message = new MessageEntity(
+                    batch.uuid(i),
+                    batch.texts[i]
+                );
+                message.setRecipient(batch.recipient(i));
+                message.setChannel(batch.channels[i]);
+                messages.add(message);
+            }
+
+            // Waits while the write lane's connections are all in use
+            long permit = DatabaseScheduler.enter(DatabaseScheduler.Lane.WRITE);
+            long started = System.nanoTime();
+            try {
+                boolean committed = DatabaseManager.saveBatch(messages);
+                controller.onBatch(count, queued, System.nanoTime() - started);
+                if (committed) {
+                    long now = System.nanoTime();
+                    for (int i = 0; i < count; i++) {
+                        DatabaseManager.getCommitLatency().record(
+                            now - batch.enqueuedNanos[i]
+                        );
+                        MessageEntity message = messages.get(i);
+                        if (message.getId() != null) {
+                            AuditLog.saved(message.getUuid(), message.getId());
+                        }
+                    }
+                }
+
+                // Direct messages nobody received yet, if they were saved
+                List<MessageEntity> undelivered = null;
+                for (int i = 0; i < count; i++) {
+                    MessageEntity message = messages.get(i);
+                    if (
+                        message.getRecipient() != null &&
+                        !batch.delivered[i] &&
+                        message.getId() != null
+                    ) {
+                        if (undelivered == null) {
+                            undelivered = new ArrayList<>();
+                        }
+                        undelivered.add(message);
+                    }
+                }
+                if (undelivered != null) {
+                    DatabaseManager.saveMailbox(undelivered);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Message writer failed to save batch", e);
+            } finally {
+                DatabaseScheduler.exit(DatabaseScheduler.Lane.WRITE, permit);
+            }
+            batches.incrementAndGet();
+            busyNanos.addAndGet(System.nanoTime() - started);
+            int saved = 0;
+            for (int i = 0; i < count; i++) {
+                if (messages.get(i).getId() != null) {
+                    saved++;
+                }
+            }
+            savedMessages.addAndGet(saved);
+            failedMessages.addAndGet(count - saved);
+            batch.clear();
+        }
+        LOGGER.debug("Message writer {} stopped", index);
+    }
+}
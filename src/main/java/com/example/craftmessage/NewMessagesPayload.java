@@ -0,0 +1,38 @@
+package com.example.craftmessage;
+
+import net.minecraft.network.PacketByteBuf;
+import net.minecraft.network.codec.PacketCodec;
+import net.minecraft.network.packet.CustomPayload;
+import net.minecraft.util.Identifier;
+
+/**
+ * IDs of messages stored since the last tick on any server sharing the
+ * database, in ascending order
+ */
+public record NewMessagesPayload(long[] ids) implements CustomPayload {
+    public static final CustomPayload.Id<NewMessagesPayload> ID =
+        new CustomPayload.Id<>(Identifier.of("craftmessage", "new_messages"));
+
+    public static final PacketCodec<PacketByteBuf, NewMessagesPayload> CODEC =
+        PacketCodec.of(NewMessagesPayload::write, NewMessagesPayload::read);
+
+    private static void write(NewMessagesPayload payload, PacketByteBuf buf) {
+        buf.writeVarInt(payload.ids.length);
+        for (long id : payload.ids) {
+            buf.writeVarLong(id);
+        }
+    }
+
+    private static NewMessagesPayload read(PacketByteBuf buf) {
+        long[] ids = new long[buf.readVarInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = buf.readVarLong();
+        }
+        return new NewMessagesPayload(ids);
+    }
+
+    @Override
+    public Id<? extends CustomPayload> getId() {
+        return ID;
+    }
+}
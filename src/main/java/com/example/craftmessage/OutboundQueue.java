@@ -0,0 +1,406 @@
+package com.example.craftmessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.client.MinecraftClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side queue of messages the player sent, one per server address.
+ *
+ * Messages are queued first and written to a small file, so nothing is lost
+ * while the connection is down or the game restarts. Once per tick, when
+ * the server can receive them, everything queued goes out as one
+ * {@link MessageBatchPayload}; the next batch waits for the server's
+ * {@link MessageAckPayload}, so a flaky connection never multiplies into
+ * packet spam. Unacknowledged batches are resent after a timeout or a
+ * reconnect; the server reports messages it already handled in the same
+ * connection as duplicates instead of storing them again.
+ * Used on the client thread only.
+ */
+public class OutboundQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        OutboundQueue.class
+    );
+
+    private static final int MAGIC = 0x434d4f51; // "CMOQ"
+    // Version 2 added the channel
+    private static final int VERSION = 2;
+    private static final int MAX_PENDING = 200;
+    private static final int RECENT_SIZE = 5;
+    private static final long ACK_TIMEOUT_NANOS = 10_000_000_000L;
+    private static final long MIN_RETRY_NANOS = 1_000_000_000L;
+    private static final long MAX_RETRY_NANOS = 16_000_000_000L;
+
+    public enum Status {
+        QUEUED("Queued", 0xFFAAAAAA),
+        SENDING("Sending", 0xFFFFFF55),
+        DELIVERED("Delivered", 0xFF55FF55),
+        REJECTED("Rejected", 0xFFFF5555);
+
+        private final String label;
+        private final int color;
+
+        Status(String label, int color) {
+            this.label = label;
+            this.color = color;
+        }
+
+        public String label() {
+            return label;
+        }
+
+        public int color() {
+            return color;
+        }
+    }
+
+    public static final class Entry {
+
+        final long clientId;
+        final UUID recipient;
+        final String channel;
+        final String text;
+        Status status = Status.QUEUED;
+
+        Entry(long clientId, UUID recipient, String channel, String text) {
+            this.clientId = clientId;
+            this.recipient = recipient;
+            this.channel = channel;
+            this.text = text;
+        }
+
+        public UUID recipient() {
+            return recipient;
+        }
+
+        public String channel() {
+            return channel;
+        }
+
+        public String text() {
+            return text;
+        }
+
+        public Status status() {
+            return status;
+        }
+    }
+
+    private static OutboundQueue current;
+
+    private final String serverKey;
+    private final Path file;
+
+    // Not yet acknowledged, oldest first
+    private final List<Entry> pending = new ArrayList<>();
+    // Acknowledged, newest first
+    private final Deque<Entry> recent = new ArrayDeque<>();
+    private long lastClientId;
+    private long inFlightSince;
+    private boolean inFlight;
+    private long retryAt;
+    private long retryDelay = MIN_RETRY_NANOS;
+
+    private OutboundQueue(String serverKey, Path directory) {
+        this.serverKey = serverKey;
+        this.file = directory.resolve(serverKey + ".queue");
+        this.retryAt = System.nanoTime();
+        load();
+    }
+
+    /**
+     * Queue for the server the client is connected to, loaded on first use
+     */
+    public static OutboundQueue forCurrentServer(MinecraftClient client) {
+        String key = HistoryDiskCache.serverKey(client);
+        if (current == null || !current.serverKey.equals(key)) {
+            current = new OutboundQueue(
+                key,
+                FabricLoader.getInstance()
+                    .getGameDir()
+                    .resolve(CraftMessageMod.MOD_ID)
+                    .resolve("outbox")
+            );
+        }
+        return current;
+    }
+
+    /**
+     * Forget the open queue on disconnect; whatever was in flight is sent
+     * again after the next join
+     */
+    public static void release() {
+        current = null;
+    }
+
+    /**
+     * Queue a message, public to the channel when recipient is null
+     *
+     * @return false if too many messages are waiting already
+     */
+    public boolean add(UUID recipient, String channel, String text) {
+        if (pending.size() >= MAX_PENDING) {
+            return false;
+        }
+        // Time based so IDs keep increasing if the file is lost
+        lastClientId = Math.max(
+            lastClientId + 1,
+            System.currentTimeMillis() * 1000L
+        );
+        pending.add(new Entry(lastClientId, recipient, channel, text));
+        save();
+        return true;
+    }
+
+    /**
+     * Send queued messages as one batch if the server is ready and no batch
+     * is waiting for its acknowledgement
+     */
+    public void flush() {
+        long now = System.nanoTime();
+        if (inFlight) {
+            if (now - inFlightSince < ACK_TIMEOUT_NANOS) {
+                return;
+            }
+            LOGGER.debug("No acknowledgement for message batch, resending");
+            requeue();
+        }
+        if (pending.isEmpty() || now - retryAt < 0) {
+            return;
+        }
+        if (!ClientPlayNetworking.canSend(MessageBatchPayload.ID)) {
+            if (ClientPlayNetworking.canSend(SimpleMessagePayload.ID)) {
+                sendUnbatched();
+            }
+            return;
+        }
+
+        int count = Math.min(pending.size(), MessageBatchPayload.MAX_MESSAGES);
+        List<MessageBatchPayload.Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Entry entry = pending.get(i);
+            entry.status = Status.SENDING;
+            items.add(
+                new MessageBatchPayload.Item(
+                    entry.clientId,
+                    entry.recipient,
+                    entry.channel,
+                    entry.text
+                )
+            );
+        }
+        ClientPlayNetworking.send(new MessageBatchPayload(items));
+        inFlight = true;
+        inFlightSince = now;
+    }
+
+    /**
+     * Apply the server's outcome for each message of the last batch
+     */
+    public void onAck(MessageAckPayload payload) {
+        inFlight = false;
+        boolean retry = false;
+        for (MessageAckPayload.Ack ack : payload.acks()) {
+            Entry entry = find(ack.clientId());
+            if (entry == null) {
+                continue;
+            }
+            if (ack.outcome().isRetryable()) {
+                entry.status = Status.QUEUED;
+                retry = true;
+                continue;
+            }
+            // A duplicate was handled with an earlier copy of the batch
+            finish(
+                entry,
+                ack.outcome() == SimpleMessageHandler.Outcome.ACCEPTED ||
+                    ack.outcome() == SimpleMessageHandler.Outcome.DUPLICATE
+                    ? Status.DELIVERED
+                    : Status.REJECTED
+            );
+        }
+        if (retry) {
+            // Rate limited or server busy, back off before the next batch
+            retryAt = System.nanoTime() + retryDelay;
+            retryDelay = Math.min(MAX_RETRY_NANOS, retryDelay * 2);
+        } else {
+            retryDelay = MIN_RETRY_NANOS;
+        }
+        save();
+    }
+
+    /**
+     * Latest messages with their status, newest first: waiting ones, then
+     * acknowledged ones
+     */
+    public List<Entry> latest(int limit) {
+        List<Entry> latest = new ArrayList<>(limit);
+        for (int i = pending.size() - 1; i >= 0 && latest.size() < limit; i--) {
+            latest.add(pending.get(i));
+        }
+        for (Entry entry : recent) {
+            if (latest.size() >= limit) {
+                break;
+            }
+            latest.add(entry);
+        }
+        return latest;
+    }
+
+    public int pendingCount() {
+        return pending.size();
+    }
+
+    private void finish(Entry entry, Status status) {
+        entry.status = status;
+        pending.remove(entry);
+        recent.addFirst(entry);
+        while (recent.size() > RECENT_SIZE) {
+            recent.removeLast();
+        }
+    }
+
+    /**
+     * Servers running an older version only know single messages and send
+     * no acknowledgements
+     */
+    private void sendUnbatched() {
+        for (Entry entry : List.copyOf(pending)) {
+            ClientPlayNetworking.send(
+                new SimpleMessagePayload(
+                    entry.text,
+                    entry.recipient,
+                    entry.channel
+                )
+            );
+            finish(entry, Status.DELIVERED);
+        }
+        save();
+    }
+
+    private void requeue() {
+        inFlight = false;
+        for (Entry entry : pending) {
+            entry.status = Status.QUEUED;
+        }
+    }
+
+    private Entry find(long clientId) {
+        for (Entry entry : pending) {
+            if (entry.clientId == clientId) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (
+            DataInputStream input = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file))
+            )
+        ) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException("Unsupported outbound queue " + file);
+            }
+            int version = input.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported outbound queue " + file);
+            }
+            lastClientId = input.readLong();
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                long clientId = input.readLong();
+                UUID recipient = input.readBoolean()
+                    ? new UUID(input.readLong(), input.readLong())
+                    : null;
+                String channel = version >= 2
+                    ? input.readUTF()
+                    : MessageEntity.DEFAULT_CHANNEL;
+                pending.add(
+                    new Entry(clientId, recipient, channel, input.readUTF())
+                );
+            }
+            if (!pending.isEmpty()) {
+                LOGGER.info(
+                    "Loaded {} unsent messages for {}",
+                    pending.size(),
+                    serverKey
+                );
+            }
+        } catch (IOException e) {
+            LOGGER.warn(
+                "Failed to read outbound queue {}: {}",
+                file,
+                e.getMessage()
+            );
+            pending.clear();
+        }
+    }
+
+    /**
+     * Rewrite the file with the unacknowledged messages, via a temporary
+     * file so a crash leaves either the old or the new queue
+     */
+    private void save() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (
+                DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temp))
+                )
+            ) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(lastClientId);
+                output.writeInt(pending.size());
+                for (Entry entry : pending) {
+                    output.writeLong(entry.clientId);
+                    output.writeBoolean(entry.recipient != null);
+                    if (entry.recipient != null) {
+                        output.writeLong(
+                            entry.recipient.getMostSignificantBits()
+                        );
+                        output.writeLong(
+                            entry.recipient.getLeastSignificantBits()
+                        );
+                    }
+                    output.writeUTF(entry.channel);
+                    output.writeUTF(entry.text);
+                }
+            }
+            Files.move(
+                temp,
+                file,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        } catch (IOException e) {
+            LOGGER.warn(
+                "Failed to write outbound queue {}: {}",
+                file,
+                e.getMessage()
+            );
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Read-only activity rollup of one player
+ *
+ * @param characters total length of the player's messages in characters
+ * @param lastMessageAt null if only messages without timestamp are known
+ */
+public record PlayerActivity(
+    UUID player,
+    long messages,
+    long characters,
+    Instant lastMessageAt
+) {}
@@ -0,0 +1,60 @@
+package com.example.craftmessage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-memory UUID to players.id cache for the write path. Bounded LRU, the
+ * bound is read from cache.players.maxEntries on every insert so it can be
+ * changed live. Only committed keys may be added.
+ */
+public class PlayerCache {
+
+    private final Map<UUID, Integer> ids = new LinkedHashMap<>(256, 0.75f, true);
+    private long hits;
+    private long misses;
+
+    /**
+     * Get the cached key for a player, or null
+     */
+    public synchronized Integer get(UUID uuid) {
+        Integer id = ids.get(uuid);
+        if (id != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return id;
+    }
+
+    public synchronized void put(UUID uuid, int id) {
+        ids.put(uuid, id);
+        int maxEntries = Math.max(1, DatabaseConfig.getPlayerCacheSize());
+        var iterator = ids.entrySet().iterator();
+        while (ids.size() > maxEntries && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized void remove(UUID uuid) {
+        ids.remove(uuid);
+    }
+
+    public synchronized void clear() {
+        ids.clear();
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.craftmessage;
+
+import jakarta.persistence.*;
+import java.util.UUID;
+
+/**
+ * Player dimension: maps a player UUID to the compact key stored in
+ * messages.player_id
+ */
+@Entity
+@Table(
+    name = "players",
+    uniqueConstraints = {
+        @UniqueConstraint(name = "uk_players_uuid", columnNames = "uuid"),
+    }
+)
+public class PlayerEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Integer id;
+
+    @Column(name = "uuid", nullable = false)
+    private UUID uuid;
+
+    // Default constructor required by JPA
+    public PlayerEntity() {}
+
+    public PlayerEntity(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public void setId(Integer id) {
+        this.id = id;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public void setUuid(UUID uuid) {
+        this.uuid = uuid;
+    }
+
+    @Override
+    public String toString() {
+        return "PlayerEntity{" + "id=" + id + ", uuid=" + uuid + '}';
+    }
+}
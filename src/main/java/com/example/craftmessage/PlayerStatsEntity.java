@@ -0,0 +1,52 @@
+package com.example.craftmessage;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+
+/**
+ * Activity rollup of one player: messages sent, their total length in
+ * characters and when the latest was sent. Updated by the batch writer in
+ * the transaction that stores the messages, so leaderboards never scan
+ * messages.
+ */
+@Entity
+@Table(
+    name = "player_stats",
+    indexes = {
+        @Index(name = "idx_player_stats_count", columnList = "message_count"),
+    }
+)
+public class PlayerStatsEntity {
+
+    @Id
+    @Column(name = "player_id")
+    private Integer playerId;
+
+    @Column(name = "message_count", nullable = false)
+    private long messageCount;
+
+    @Column(name = "total_chars", nullable = false)
+    private long totalChars;
+
+    @Column(name = "last_message_at")
+    private Instant lastMessageAt;
+
+    // Default constructor required by JPA
+    public PlayerStatsEntity() {}
+
+    public Integer getPlayerId() {
+        return playerId;
+    }
+
+    public long getMessageCount() {
+        return messageCount;
+    }
+
+    public long getTotalChars() {
+        return totalChars;
+    }
+
+    public Instant getLastMessageAt() {
+        return lastMessageAt;
+    }
+}
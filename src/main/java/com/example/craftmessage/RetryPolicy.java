@@ -0,0 +1,172 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Retries database operations that failed with a transient error.
+ *
+ * Delays grow exponentially from database.retry.baseDelayMillis up to
+ * database.retry.maxDelayMillis with full jitter, so writers that failed
+ * together do not retry together. Retries are paid from a budget that every
+ * call tops up by database.retry.budgetPercent of a retry: when the database
+ * is struggling, at most that share of extra load is added on top of normal
+ * traffic and further failures are returned right away. Connection loss and
+ * permanent errors are never retried here; the caller decides what to do.
+ */
+public class RetryPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        RetryPolicy.class
+    );
+
+    private static final DatabaseErrors.ErrorClass[] CLASSES =
+        DatabaseErrors.ErrorClass.values();
+
+    // Retries that may be spent in a burst before the budget is refilled
+    private static final double MAX_BUDGET = 10.0;
+
+    // Per error class, index = ordinal
+    private static final AtomicLongArray FAILURES = new AtomicLongArray(
+        CLASSES.length
+    );
+    private static final AtomicLongArray RETRIES = new AtomicLongArray(
+        CLASSES.length
+    );
+    private static final AtomicLongArray GIVE_UPS = new AtomicLongArray(
+        CLASSES.length
+    );
+    private static final AtomicLongArray BUDGET_EXHAUSTED =
+        new AtomicLongArray(CLASSES.length);
+
+    private static double budget = MAX_BUDGET;
+
+    /**
+     * Run an operation, retrying it while it fails with a transient error
+     * and attempts and budget are left. The last failure is rethrown.
+     */
+    public static <T> T call(String operation, Supplier<T> action) {
+        deposit();
+        int maxAttempts = Math.max(1, DatabaseConfig.getRetryMaxAttempts());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                DatabaseErrors.ErrorClass errorClass = DatabaseErrors.classify(
+                    e
+                );
+                int index = errorClass.ordinal();
+                FAILURES.incrementAndGet(index);
+                if (errorClass != DatabaseErrors.ErrorClass.TRANSIENT) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    GIVE_UPS.incrementAndGet(index);
+                    throw e;
+                }
+                if (!withdraw()) {
+                    BUDGET_EXHAUSTED.incrementAndGet(index);
+                    throw e;
+                }
+                long delay = delayMillis(attempt);
+                LOGGER.debug(
+                    "{} failed ({}), retry {} in {} ms: {}",
+                    operation,
+                    errorClass.label(),
+                    attempt,
+                    delay,
+                    e.getMessage()
+                );
+                RETRIES.incrementAndGet(index);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Count a failure that was handled without going through {@link #call}
+     */
+    public static void recordFailure(DatabaseErrors.ErrorClass errorClass) {
+        FAILURES.incrementAndGet(errorClass.ordinal());
+    }
+
+    /**
+     * Full jitter: uniform between 0 and the exponential delay of this
+     * attempt
+     */
+    private static long delayMillis(int attempt) {
+        long base = Math.max(1, DatabaseConfig.getRetryBaseDelayMillis());
+        long max = Math.max(base, DatabaseConfig.getRetryMaxDelayMillis());
+        long ceiling = Math.min(max, base << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static synchronized void deposit() {
+        budget = Math.min(
+            MAX_BUDGET,
+            budget + DatabaseConfig.getRetryBudgetPercent() / 100.0
+        );
+    }
+
+    private static synchronized boolean withdraw() {
+        if (budget < 1.0) {
+            return false;
+        }
+        budget -= 1.0;
+        return true;
+    }
+
+    /**
+     * Get failures, retries and give-ups per error class, one line each
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        double remaining;
+        synchronized (RetryPolicy.class) {
+            remaining = budget;
+        }
+        lines.add(
+            String.format(
+                Locale.ROOT,
+                "Retry budget: %.1f of %.0f",
+                remaining,
+                MAX_BUDGET
+            )
+        );
+        for (DatabaseErrors.ErrorClass errorClass : CLASSES) {
+            int index = errorClass.ordinal();
+            lines.add(
+                errorClass.label() +
+                ": " +
+                FAILURES.get(index) +
+                " failures, " +
+                RETRIES.get(index) +
+                " retries, " +
+                GIVE_UPS.get(index) +
+                " out of attempts, " +
+                BUDGET_EXHAUSTED.get(index) +
+                " out of budget"
+            );
+        }
+        return lines;
+    }
+
+    public static long getFailureCount(DatabaseErrors.ErrorClass errorClass) {
+        return FAILURES.get(errorClass.ordinal());
+    }
+
+    public static long getRetryCount(DatabaseErrors.ErrorClass errorClass) {
+        return RETRIES.get(errorClass.ordinal());
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.craftmessage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the activity rollups behind /craftmessage top honest.
+ *
+ * Saves add to the rollups in the same transaction, but deletes do not take
+ * anything away, so every stats.reconcile.intervalMinutes (and after a
+ * purge) the rollups are recomputed from the messages in the bulk lane of
+ * the database scheduler. On the first start after an upgrade the rollups
+ * are empty while messages exist; they are filled the same way.
+ */
+public class RollupReconciler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        RollupReconciler.class
+    );
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+    // Server thread only
+    private static long lastRunNanos;
+
+    public static void register() {
+        ServerLifecycleEvents.SERVER_STARTED.register(server -> {
+            lastRunNanos = System.nanoTime();
+            backfill();
+        });
+        ServerTickEvents.END_SERVER_TICK.register(server -> {
+            int minutes = DatabaseConfig.getReconcileIntervalMinutes();
+            long now = System.nanoTime();
+            if (
+                minutes > 0 && now - lastRunNanos >= minutes * 60_000_000_000L
+            ) {
+                lastRunNanos = now;
+                reconcile();
+            }
+        });
+    }
+
+    /**
+     * Recompute the rollups in the background unless that is running already
+     *
+     * @return number of corrected rollup entries, or -1 if a run was in
+     *         progress
+     */
+    public static CompletableFuture<Long> reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(-1L);
+        }
+        long started = System.nanoTime();
+        return DatabaseManager.supplyAsync(
+            DatabaseScheduler.Lane.BULK,
+            MessageStore::reconcileRollups
+        )
+            .whenComplete((corrected, error) -> {
+                running.set(false);
+                if (error != null) {
+                    LOGGER.warn(
+                        "Reconciling activity statistics failed: {}",
+                        DatabaseScheduler.causeOf(error).getMessage()
+                    );
+                } else {
+                    LOGGER.info(
+                        "Reconciled activity statistics in {} ms, {} entries corrected",
+                        (System.nanoTime() - started) / 1_000_000L,
+                        corrected
+                    );
+                }
+            });
+    }
+
+    /**
+     * Fill empty rollups from existing messages, e.g. after an upgrade
+     */
+    private static void backfill() {
+        DatabaseManager.supplyAsync(DatabaseScheduler.Lane.READ, store ->
+            store.findTopPlayers(1).isEmpty() &&
+            !store.findRangeAfter(0, Long.MAX_VALUE, null, null, 1).isEmpty()
+        ).whenComplete((empty, error) -> {
+            if (error == null && empty) {
+                LOGGER.info("Building activity statistics from stored messages");
+                reconcile();
+            }
+        });
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.craftmessage;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One-off data migrations that hbm2ddl=update cannot express. Run over plain
+ * JDBC before Hibernate boots, each step checks whether it still applies.
+ */
+public class SchemaMigrations {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        SchemaMigrations.class
+    );
+
+    public static void run(int shard) {
+        try (Connection connection = connect(shard)) {
+            if (hasColumn(connection, "messages", "uuid")) {
+                migrateToPlayers(connection);
+            }
+            if (
+                hasColumn(connection, "messages", "id") &&
+                !hasColumn(connection, "messages", "channel")
+            ) {
+                addChannels(connection);
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Schema migration failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Give every shard its own residue class of message IDs so IDs stay
+     * unique across shards: shard i hands out base + i, base + i + n, ...
+     * Runs after Hibernate created the tables and only when the shard count
+     * differs from the sequences' current increment.
+     */
+    public static void alignIdSequences(int shards) {
+        if (shards <= 1) {
+            return;
+        }
+        List<Connection> connections = new ArrayList<>();
+        try {
+            boolean aligned = true;
+            long maxId = 0;
+            for (int shard = 0; shard < shards; shard++) {
+                Connection connection = connect(shard);
+                connections.add(connection);
+                try (
+                    Statement statement = connection.createStatement();
+                    ResultSet result = statement.executeQuery(
+                        "SELECT s.seqincrement, " +
+                        "(SELECT COALESCE(MAX(id), 0) FROM messages) " +
+                        "FROM pg_sequence s " +
+                        "WHERE s.seqrelid = pg_get_serial_sequence('messages', 'id')::regclass"
+                    )
+                ) {
+                    if (!result.next()) {
+                        LOGGER.warn(
+                            "No ID sequence for messages on shard {}",
+                            shard
+                        );
+                        return;
+                    }
+                    aligned &= result.getLong(1) == shards;
+                    maxId = Math.max(maxId, result.getLong(2));
+                }
+            }
+            if (aligned) {
+                return;
+            }
+
+            long base = (maxId / shards + 1) * shards;
+            for (int shard = 0; shard < shards; shard++) {
+                try (
+                    Statement statement = connections.get(shard).createStatement()
+                ) {
+                    String sequence;
+                    try (
+                        ResultSet result = statement.executeQuery(
+                            "SELECT pg_get_serial_sequence('messages', 'id')"
+                        )
+                    ) {
+                        result.next();
+                        sequence = result.getString(1);
+                    }
+                    statement.execute(
+                        "ALTER SEQUENCE " +
+                        sequence +
+                        " INCREMENT BY " +
+                        shards +
+                        " RESTART WITH " +
+                        (base + shard)
+                    );
+                }
+            }
+            LOGGER.info(
+                "Message IDs spaced for {} shards, starting at {}",
+                shards,
+                base
+            );
+        } catch (SQLException e) {
+            LOGGER.error("Aligning ID sequences failed: {}", e.getMessage());
+        } finally {
+            for (Connection connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    LOGGER.debug("Close failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private static Connection connect(int shard) throws SQLException {
+        return DriverManager.getConnection(
+            DatabaseConfig.getShardUrl(shard),
+            DatabaseConfig.getShardUsername(shard),
+            DatabaseConfig.getShardPassword(shard)
+        );
+    }
+
+    private static boolean hasColumn(
+        Connection connection,
+        String table,
+        String column
+    ) throws SQLException {
+        try (
+            PreparedStatement statement = connection.prepareStatement(
+                "SELECT 1 FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() " +
+                "AND table_name = ? AND column_name = ?"
+            )
+        ) {
+            statement.setString(1, table);
+            statement.setString(2, column);
+            try (ResultSet result = statement.executeQuery()) {
+                return result.next();
+            }
+        }
+    }
+
+    /**
+     * Put existing messages into the default channel. hbm2ddl=update would
+     * add the NOT NULL column without a default, which fails on a table
+     * with rows; the (channel, id) index is then created by Hibernate.
+     */
+    private static void addChannels(Connection connection)
+        throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(
+                "ALTER TABLE messages ADD COLUMN IF NOT EXISTS channel " +
+                "VARCHAR(32) NOT NULL DEFAULT '" +
+                MessageEntity.DEFAULT_CHANNEL +
+                "'"
+            );
+        }
+        LOGGER.info(
+            "Added channel column, existing messages are in {}",
+            MessageEntity.DEFAULT_CHANNEL
+        );
+    }
+
+    /**
+     * Move messages.uuid into the players table and replace it with
+     * messages.player_id, in a single transaction
+     */
+    private static void migrateToPlayers(Connection connection)
+        throws SQLException {
+        LOGGER.info("Migrating messages.uuid to players table...");
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(
+                "CREATE TABLE IF NOT EXISTS players (" +
+                "id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                "uuid UUID NOT NULL, " +
+                "CONSTRAINT uk_players_uuid UNIQUE (uuid))"
+            );
+            int players = statement.executeUpdate(
+                "INSERT INTO players (uuid) SELECT DISTINCT uuid FROM messages " +
+                "ON CONFLICT DO NOTHING"
+            );
+            statement.execute(
+                "ALTER TABLE messages ADD COLUMN IF NOT EXISTS player_id INTEGER"
+            );
+            int messages = statement.executeUpdate(
+                "UPDATE messages m SET player_id = p.id FROM players p " +
+                "WHERE p.uuid = m.uuid AND m.player_id IS NULL"
+            );
+            statement.execute(
+                "ALTER TABLE messages ALTER COLUMN player_id SET NOT NULL"
+            );
+            statement.execute("ALTER TABLE messages DROP COLUMN uuid");
+            connection.commit();
+            LOGGER.info(
+                "Migrated {} messages for {} players",
+                messages,
+                players
+            );
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
@@ -0,0 +1,1447 @@
+package com.example.craftmessage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded message store for servers without PostgreSQL.
+ *
+ * Messages are appended to segment files (segment-000001.log, ...) that
+ * roll over at SEGMENT_SIZE. Each record carries its length and a CRC32, so
+ * a torn write at the end of the last segment is detected and cut off on
+ * startup. Deletes, mailbox entries and delivery marks are appended as
+ * small records too; a delete names the location of the record it removes
+ * and carries its rollup delta, so replaying it needs no extra read. On
+ * open the segments are scanned once to rebuild the
+ * in-memory indexes: all message IDs in ascending order with their file
+ * locations, per player the IDs of their messages, per channel the IDs of
+ * its public messages, and per recipient the IDs of undelivered direct
+ * messages. Message counts per player and per hour are kept alongside.
+ * Message text stays on disk and is read on demand.
+ *
+ * Every segment but the active one is compacted once at least half of it
+ * is garbage (deleted or superseded records): the records still needed are
+ * copied to the end of the log and the file is removed, so deletes and
+ * retention free disk space. A segment with nothing left to keep is simply
+ * removed.
+ *
+ * Writes reach the operating system when saveAll returns but are not
+ * forced to disk, so a power loss can drop the last batches.
+ */
+public class SegmentLogStore implements MessageStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        SegmentLogStore.class
+    );
+
+    private static final int MAGIC = 0x434d534c; // "CMSL"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long SEGMENT_SIZE = 64L << 20;
+    private static final byte PUT = 1;
+    // PUT with a recipient UUID after the timestamp
+    private static final byte PUT_DIRECT = 3;
+    // Mailbox entry (message ID, recipient) and delivery mark (up to ID,
+    // recipient)
+    private static final byte MAIL = 4;
+    private static final byte DELIVERED = 5;
+    // PUT of a public message outside the default channel, with the
+    // channel name (length byte, UTF-8) after the timestamp
+    private static final byte PUT_CHANNEL = 6;
+    // Delete of the record at (segment number, offset) with its length and
+    // rollup delta: player, timestamp, characters
+    private static final byte TOMBSTONE = 7;
+    private static final int TOMBSTONE_LENGTH =
+        1 + 8 + 4 + 4 + 4 + 16 + 8 + 4;
+    // Records copied per write while compacting
+    private static final int COMPACT_CHUNK_BYTES = 1 << 20;
+    private static final long DELETED = -1L;
+    private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    private static final long HOUR_MILLIS = 3_600_000L;
+
+    private final Path directory;
+    // Indexed by position; removed segments stay as null so the locations
+    // of the others do not change
+    private final List<Segment> segments = new ArrayList<>();
+    private int lastSegmentNumber;
+    private long activeSize;
+
+    // All message IDs ascending, location = segment << 32 | offset
+    private long[] ids = new long[1024];
+    private long[] locations = new long[1024];
+    private int size;
+    private int live;
+    private final Map<UUID, PlayerIds> byPlayer = new HashMap<>();
+    private final Map<String, PlayerIds> byChannel = new HashMap<>();
+    private final Map<UUID, PlayerIds> mailbox = new HashMap<>();
+    private long nextId = 1;
+
+    // Activity rollups: player -> {messages, characters, latest millis} and
+    // hour start millis -> {messages, characters}
+    private final Map<UUID, long[]> playerStats = new HashMap<>();
+    private final TreeMap<Long, long[]> hourlyStats = new TreeMap<>();
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * One segment file and how many of its bytes are no longer needed
+     */
+    private static final class Segment {
+
+        final int number;
+        final Path file;
+        final FileChannel channel;
+        long garbage;
+
+        Segment(int number, Path file, FileChannel channel) {
+            this.number = number;
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * IDs of one player's or channel's live messages, ascending; deleted
+     * IDs are pruned once their tombstones are applied
+     */
+    private static final class PlayerIds {
+
+        long[] ids = new long[8];
+        int size;
+
+        void add(long id) {
+            if (size > 0 && id <= ids[size - 1]) {
+                int position = Arrays.binarySearch(ids, 0, size, id);
+                if (position >= 0) {
+                    return;
+                }
+                insertAt(-position - 1, id);
+                return;
+            }
+            insertAt(size, id);
+        }
+
+        void removeUpTo(long id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            int removed = position >= 0 ? position + 1 : -position - 1;
+            System.arraycopy(ids, removed, ids, 0, size - removed);
+            size -= removed;
+        }
+
+        private void insertAt(int position, long id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+    }
+
+    private SegmentLogStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Open the store in the given directory, creating it if needed, and
+     * rebuild the indexes from the segment files
+     */
+    public static SegmentLogStore open(Path directory) throws IOException {
+        long started = System.nanoTime();
+        SegmentLogStore store = new SegmentLogStore(directory);
+        try {
+            store.load();
+        } catch (IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+        LOGGER.info(
+            "Opened embedded message store {} with {} messages in {} ms",
+            directory,
+            store.live,
+            (System.nanoTime() - started) / 1_000_000L
+        );
+        return store;
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                .filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith("segment-") && name.endsWith(".log");
+                })
+                .sorted()
+                .toList();
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            boolean last = i == files.size() - 1;
+            FileChannel channel = FileChannel.open(
+                files.get(i),
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE
+            );
+            String name = files.get(i).getFileName().toString();
+            int number = Integer.parseInt(
+                name.substring("segment-".length(), name.length() - 4)
+            );
+            segments.add(new Segment(number, files.get(i), channel));
+            lastSegmentNumber = Math.max(lastSegmentNumber, number);
+            long end = scanSegment(segments.size() - 1, channel);
+            if (end < channel.size()) {
+                if (last) {
+                    LOGGER.warn(
+                        "Cutting off {} bytes of incomplete records in {}",
+                        channel.size() - end,
+                        files.get(i)
+                    );
+                    channel.truncate(end);
+                } else {
+                    LOGGER.error(
+                        "Corrupt record in {} at offset {}, ignoring the rest of the segment",
+                        files.get(i),
+                        end
+                    );
+                }
+            }
+            if (last) {
+                activeSize = end;
+            }
+        }
+        if (segments.isEmpty()) {
+            rollSegment();
+        }
+        prune(byPlayer);
+        prune(byChannel);
+        compact();
+    }
+
+    /**
+     * Drop the IDs of deleted messages from every list of an index, and
+     * lists that end up empty
+     */
+    private <K> void prune(Map<K, PlayerIds> index) {
+        index.values().removeIf(this::pruneDeleted);
+    }
+
+    /**
+     * Drop the IDs of deleted messages from the list of one key
+     */
+    private <K> void prune(Map<K, PlayerIds> index, K key) {
+        PlayerIds list = index.get(key);
+        if (list != null && pruneDeleted(list)) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * @return whether the list is empty afterwards
+     */
+    private boolean pruneDeleted(PlayerIds list) {
+        int kept = 0;
+        for (int i = 0; i < list.size; i++) {
+            if (locationOf(list.ids[i]) != DELETED) {
+                list.ids[kept++] = list.ids[i];
+            }
+        }
+        list.size = kept;
+        return kept == 0;
+    }
+
+    /**
+     * Index every valid record of a segment
+     *
+     * @return offset after the last valid record
+     */
+    private long scanSegment(int segment, FileChannel channel)
+        throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < SEGMENT_HEADER_SIZE) {
+            writeSegmentHeader(channel);
+            return SEGMENT_HEADER_SIZE;
+        }
+        channel.position(0);
+        DataInputStream input = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)
+        );
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException(
+                "Not a message segment: " + directory + " #" + segment
+            );
+        }
+
+        long offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= fileSize) {
+            int length;
+            int checksum;
+            try {
+                length = input.readInt();
+                checksum = input.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (length < 9 || offset + RECORD_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            byte[] body = new byte[length];
+            input.readFully(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long id = record.getLong();
+            if (type == PUT || type == PUT_DIRECT || type == PUT_CHANNEL) {
+                UUID player = new UUID(record.getLong(), record.getLong());
+                long createdAt = record.getLong();
+                // Direct messages are in no channel's index
+                String channelName = null;
+                if (type == PUT) {
+                    channelName = MessageEntity.DEFAULT_CHANNEL;
+                } else if (type == PUT_CHANNEL) {
+                    channelName = readChannel(record);
+                } else {
+                    record.position(record.position() + 16);
+                }
+                int textLength = record.getInt();
+                // A copy left behind by an interrupted compaction is not
+                // counted twice
+                if (
+                    indexPut(id, location(segment, offset), player, channelName)
+                ) {
+                    addToRollups(
+                        player,
+                        createdAt,
+                        codePoints(body, record.position(), textLength),
+                        1
+                    );
+                }
+            } else if (type == TOMBSTONE) {
+                int putSegment = segmentIndex(record.getInt());
+                long putOffset = record.getInt() & 0xffffffffL;
+                int putLength = record.getInt();
+                UUID player = new UUID(record.getLong(), record.getLong());
+                long createdAt = record.getLong();
+                int characters = record.getInt();
+                // Only the record it was written for, not a later copy
+                if (
+                    putSegment >= 0 &&
+                    locationOf(id) == location(putSegment, putOffset)
+                ) {
+                    indexDelete(id);
+                    addToRollups(player, createdAt, characters, -1);
+                    segments.get(putSegment).garbage += putLength;
+                }
+            } else if (type == MAIL) {
+                UUID recipient = new UUID(record.getLong(), record.getLong());
+                mailbox.computeIfAbsent(recipient, uuid -> new PlayerIds()).add(
+                    id
+                );
+            } else if (type == DELIVERED) {
+                UUID recipient = new UUID(record.getLong(), record.getLong());
+                markDeliveredInIndex(recipient, id);
+            }
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        channel.position(0);
+        return offset;
+    }
+
+    private void rollSegment() throws IOException {
+        int number = lastSegmentNumber + 1;
+        Path file = directory.resolve(
+            String.format("segment-%06d.log", number)
+        );
+        FileChannel channel = FileChannel.open(
+            file,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE
+        );
+        writeSegmentHeader(channel);
+        segments.add(new Segment(number, file, channel));
+        lastSegmentNumber = number;
+        activeSize = SEGMENT_HEADER_SIZE;
+        LOGGER.debug("Started message segment {}", file);
+    }
+
+    private static void writeSegmentHeader(FileChannel channel)
+        throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    /**
+     * Position of the segment with the given file number, or -1 if it was
+     * removed
+     */
+    private int segmentIndex(int number) {
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment != null && segment.number == number) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized Optional<MessageEntity> save(MessageEntity message) {
+        saveAll(List.of(message));
+        return Optional.of(message);
+    }
+
+    @Override
+    public synchronized int saveAll(List<MessageEntity> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        Instant now = Instant.now();
+        for (MessageEntity message : messages) {
+            if (message.getCreatedAt() == null) {
+                message.setCreatedAt(now);
+            }
+        }
+        long firstId = nextId;
+        try {
+            appendPuts(messages, true);
+        } catch (IOException e) {
+            nextId = firstId;
+            for (MessageEntity message : messages) {
+                message.setId(null);
+            }
+            throw new UncheckedIOException(e);
+        }
+        return messages.size();
+    }
+
+    @Override
+    public synchronized int insertArchived(List<MessageEntity> messages) {
+        List<MessageEntity> missing = new ArrayList<>(messages.size());
+        for (MessageEntity message : messages) {
+            if (locationOf(message.getId()) == DELETED) {
+                missing.add(message);
+            }
+        }
+        try {
+            appendPuts(missing, false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return missing.size();
+    }
+
+    @Override
+    public synchronized long advanceIds(long pastId) {
+        nextId = Math.max(nextId, pastId + 1);
+        return nextId - 1;
+    }
+
+    /**
+     * Encode messages into one buffer, append it with a single write and
+     * index the records
+     */
+    private void appendPuts(List<MessageEntity> messages, boolean assignIds)
+        throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        writeBuffer.clear();
+        int[] starts = new int[messages.size()];
+        for (int i = 0; i < messages.size(); i++) {
+            MessageEntity message = messages.get(i);
+            if (assignIds) {
+                message.setId(nextId++);
+            }
+            byte[] text = message.getText().getBytes(StandardCharsets.UTF_8);
+            UUID recipient = message.getRecipient();
+            byte type = putType(message);
+            byte[] channel = type == PUT_CHANNEL
+                ? message.getChannel().getBytes(StandardCharsets.UTF_8)
+                : null;
+            int length = putLength(message);
+            ensureWriteCapacity(RECORD_HEADER_SIZE + length);
+            starts[i] = writeBuffer.position();
+            writeBuffer.putInt(length);
+            int checksumAt = writeBuffer.position();
+            writeBuffer.putInt(0);
+            writeBuffer.put(type);
+            writeBuffer.putLong(message.getId());
+            writeBuffer.putLong(message.getUuid().getMostSignificantBits());
+            writeBuffer.putLong(message.getUuid().getLeastSignificantBits());
+            writeBuffer.putLong(
+                message.getCreatedAt() != null
+                    ? message.getCreatedAt().toEpochMilli()
+                    : NO_TIMESTAMP
+            );
+            if (recipient != null) {
+                writeBuffer.putLong(recipient.getMostSignificantBits());
+                writeBuffer.putLong(recipient.getLeastSignificantBits());
+            }
+            if (channel != null) {
+                writeBuffer.put((byte) channel.length);
+                writeBuffer.put(channel);
+            }
+            writeBuffer.putInt(text.length);
+            writeBuffer.put(text);
+            crc.reset();
+            crc.update(
+                writeBuffer.array(),
+                checksumAt + 4,
+                writeBuffer.position() - checksumAt - 4
+            );
+            writeBuffer.putInt(checksumAt, (int) crc.getValue());
+        }
+
+        long offset = append(writeBuffer);
+        int segment = segments.size() - 1;
+        for (int i = 0; i < messages.size(); i++) {
+            MessageEntity message = messages.get(i);
+            indexPut(
+                message.getId(),
+                location(segment, offset + starts[i]),
+                message.getUuid(),
+                message.getRecipient() == null ? message.getChannel() : null
+            );
+            addToRollups(message, 1);
+            nextId = Math.max(nextId, message.getId() + 1);
+        }
+    }
+
+    /**
+     * Length of a message's record after the record header
+     */
+    private static int putLength(MessageEntity message) {
+        byte type = putType(message);
+        return (
+            1 +
+            8 +
+            16 +
+            8 +
+            (type == PUT_DIRECT ? 16 : 0) +
+            (type == PUT_CHANNEL
+                ? 1 +
+                  message.getChannel().getBytes(StandardCharsets.UTF_8).length
+                : 0) +
+            4 +
+            message.getText().getBytes(StandardCharsets.UTF_8).length
+        );
+    }
+
+    /**
+     * Record type of a message: the default channel keeps the original PUT
+     * layout, so only messages in other channels pay for the name
+     */
+    private static byte putType(MessageEntity message) {
+        if (message.getRecipient() != null) {
+            return PUT_DIRECT;
+        }
+        return MessageEntity.DEFAULT_CHANNEL.equals(message.getChannel())
+            ? PUT
+            : PUT_CHANNEL;
+    }
+
+    private static String readChannel(ByteBuffer record) {
+        byte[] channel = new byte[record.get() & 0xff];
+        record.get(channel);
+        return new String(channel, StandardCharsets.UTF_8);
+    }
+
+    private void ensureWriteCapacity(int bytes) {
+        if (writeBuffer.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(
+                Math.max(writeBuffer.capacity() * 2, writeBuffer.position() + bytes)
+            );
+            writeBuffer.flip();
+            larger.put(writeBuffer);
+            writeBuffer = larger;
+        }
+    }
+
+    /**
+     * Write the buffer at the end of the active segment, rolling over first
+     * if it would grow past SEGMENT_SIZE
+     *
+     * @return offset the buffer was written at
+     */
+    private long append(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        if (
+            activeSize > SEGMENT_HEADER_SIZE &&
+            activeSize + buffer.remaining() > SEGMENT_SIZE
+        ) {
+            rollSegment();
+        }
+        FileChannel channel = segments.get(segments.size() - 1).channel;
+        long offset = activeSize;
+        long position = offset;
+        try {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        } catch (IOException e) {
+            // Drop whatever part of the batch made it to the file
+            channel.truncate(offset);
+            throw e;
+        }
+        activeSize = position;
+        return offset;
+    }
+
+    /**
+     * @param channel channel of a public message, null for direct messages
+     * @return false if the ID was live already and only moved
+     */
+    private boolean indexPut(
+        long id,
+        long location,
+        UUID player,
+        String channel
+    ) {
+        boolean added = true;
+        if (size == 0 || id > ids[size - 1]) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            ids[size] = id;
+            locations[size] = location;
+            size++;
+            live++;
+        } else {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                if (locations[position] == DELETED) {
+                    live++;
+                } else {
+                    added = false;
+                }
+                locations[position] = location;
+            } else {
+                position = -position - 1;
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, size * 2);
+                    locations = Arrays.copyOf(locations, size * 2);
+                }
+                System.arraycopy(ids, position, ids, position + 1, size - position);
+                System.arraycopy(
+                    locations,
+                    position,
+                    locations,
+                    position + 1,
+                    size - position
+                );
+                ids[position] = id;
+                locations[position] = location;
+                size++;
+                live++;
+            }
+        }
+        byPlayer.computeIfAbsent(player, uuid -> new PlayerIds()).add(id);
+        if (channel != null) {
+            byChannel.computeIfAbsent(channel, name -> new PlayerIds()).add(id);
+        }
+        nextId = Math.max(nextId, id + 1);
+        return added;
+    }
+
+    /**
+     * Mark a message deleted; the caller takes it out of the rollups
+     *
+     * @return its former location, or DELETED if it was not live
+     */
+    private long indexDelete(long id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if (position < 0 || locations[position] == DELETED) {
+            return DELETED;
+        }
+        long location = locations[position];
+        locations[position] = DELETED;
+        live--;
+        return location;
+    }
+
+    private long locationOf(Long id) {
+        if (id == null) {
+            return DELETED;
+        }
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        return position >= 0 ? locations[position] : DELETED;
+    }
+
+    private MessageEntity read(long location) {
+        long offset = location & 0xffffffffL;
+        FileChannel channel = segments.get(segmentOf(location)).channel;
+        try {
+            ByteBuffer header = readFully(channel, offset, RECORD_HEADER_SIZE);
+            int length = header.getInt();
+            ByteBuffer record = readFully(
+                channel,
+                offset + RECORD_HEADER_SIZE,
+                length
+            );
+            byte type = record.get();
+            MessageEntity message = new MessageEntity();
+            message.setId(record.getLong());
+            message.setUuid(new UUID(record.getLong(), record.getLong()));
+            long createdAt = record.getLong();
+            message.setCreatedAt(
+                createdAt == NO_TIMESTAMP ? null : Instant.ofEpochMilli(createdAt)
+            );
+            if (type == PUT_DIRECT) {
+                message.setRecipient(
+                    new UUID(record.getLong(), record.getLong())
+                );
+            } else if (type == PUT_CHANNEL) {
+                message.setChannel(readChannel(record));
+            }
+            byte[] text = new byte[record.getInt()];
+            record.get(text);
+            message.setText(new String(text, StandardCharsets.UTF_8));
+            return message;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer readFully(FileChannel channel, long position, int length)
+        throws IOException {
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(Math.max(length, readBuffer.capacity() * 2));
+        }
+        readBuffer.clear().limit(length);
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer, position + readBuffer.position()) < 0) {
+                throw new EOFException("Record past end of segment");
+            }
+        }
+        return readBuffer.flip();
+    }
+
+    @Override
+    public synchronized Optional<MessageEntity> findById(Long id) {
+        long location = locationOf(id);
+        return location == DELETED
+            ? Optional.empty()
+            : Optional.of(read(location));
+    }
+
+    @Override
+    public synchronized boolean existsById(Long id) {
+        return locationOf(id) != DELETED;
+    }
+
+    @Override
+    public synchronized List<MessageEntity> findByPlayerUuid(UUID playerUuid) {
+        PlayerIds playerIds = byPlayer.get(playerUuid);
+        if (playerIds == null) {
+            return List.of();
+        }
+        List<MessageEntity> messages = new ArrayList<>();
+        for (int i = playerIds.size - 1; i >= 0; i--) {
+            long location = locationOf(playerIds.ids[i]);
+            if (location != DELETED) {
+                messages.add(read(location));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized List<MessageEntity> findAll() {
+        List<MessageEntity> messages = new ArrayList<>(live);
+        for (int i = size - 1; i >= 0; i--) {
+            if (locations[i] != DELETED) {
+                messages.add(read(locations[i]));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized Optional<MessageView> findViewById(long id) {
+        return findById(id).map(MessageView::of);
+    }
+
+    @Override
+    public synchronized List<MessageView> findViewsByPlayer(UUID playerUuid) {
+        PlayerIds playerIds = byPlayer.get(playerUuid);
+        if (playerIds == null) {
+            return List.of();
+        }
+        List<MessageView> messages = new ArrayList<>();
+        for (int i = playerIds.size - 1; i >= 0; i--) {
+            long location = locationOf(playerIds.ids[i]);
+            if (location != DELETED) {
+                messages.add(MessageView.of(read(location)));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized List<MessageView> findAllViews() {
+        List<MessageView> messages = new ArrayList<>(live);
+        for (int i = size - 1; i >= 0; i--) {
+            if (locations[i] != DELETED) {
+                messages.add(MessageView.of(read(locations[i])));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Walks the channel's own ID list, which holds public messages only, so
+     * direct messages and other channels are never read
+     */
+    @Override
+    public synchronized List<MessageView> findPage(
+        String channel,
+        long anchorId,
+        boolean older,
+        int limit
+    ) {
+        PlayerIds channelIds = byChannel.get(channel);
+        if (channelIds == null) {
+            return List.of();
+        }
+        List<MessageView> messages = new ArrayList<>(
+            Math.min(limit, channelIds.size)
+        );
+        int position = Arrays.binarySearch(
+            channelIds.ids,
+            0,
+            channelIds.size,
+            anchorId
+        );
+        if (older) {
+            int i = position >= 0 ? position - 1 : -position - 2;
+            for (; i >= 0 && messages.size() < limit; i--) {
+                addLive(messages, channelIds.ids[i]);
+            }
+        } else {
+            int i = position >= 0 ? position + 1 : -position - 1;
+            for (; i < channelIds.size && messages.size() < limit; i++) {
+                addLive(messages, channelIds.ids[i]);
+            }
+        }
+        return messages;
+    }
+
+    // Lists are pruned after each delete; this only guards the lookup
+    private void addLive(List<MessageView> messages, long id) {
+        long location = locationOf(id);
+        if (location != DELETED) {
+            messages.add(MessageView.of(read(location)));
+        }
+    }
+
+    @Override
+    public synchronized List<MessageEntity> findRangeAfter(
+        long afterId,
+        long toId,
+        Instant from,
+        Instant until,
+        int limit
+    ) {
+        List<MessageEntity> messages = new ArrayList<>();
+        int position = Arrays.binarySearch(ids, 0, size, afterId);
+        int i = position >= 0 ? position + 1 : -position - 1;
+        for (; i < size && ids[i] <= toId && messages.size() < limit; i++) {
+            if (locations[i] == DELETED) {
+                continue;
+            }
+            MessageEntity message = read(locations[i]);
+            Instant createdAt = message.getCreatedAt();
+            if (
+                (from != null && (createdAt == null || createdAt.isBefore(from))) ||
+                (until != null && (createdAt == null || !createdAt.isBefore(until)))
+            ) {
+                continue;
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized int addToMailbox(List<MessageEntity> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        writeBuffer.clear();
+        for (MessageEntity message : messages) {
+            ensureWriteCapacity(RECORD_HEADER_SIZE + 25);
+            putMailboxRecord(MAIL, message.getId(), message.getRecipient());
+        }
+        try {
+            append(writeBuffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (MessageEntity message : messages) {
+            mailbox
+                .computeIfAbsent(message.getRecipient(), uuid -> new PlayerIds())
+                .add(message.getId());
+        }
+        return messages.size();
+    }
+
+    @Override
+    public synchronized List<MessageEntity> findMailbox(
+        UUID recipient,
+        int limit
+    ) {
+        PlayerIds pending = mailbox.get(recipient);
+        if (pending == null) {
+            return List.of();
+        }
+        List<MessageEntity> messages = new ArrayList<>();
+        for (int i = 0; i < pending.size && messages.size() < limit; i++) {
+            long location = locationOf(pending.ids[i]);
+            if (location != DELETED) {
+                messages.add(read(location));
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public synchronized int markDelivered(UUID recipient, long upToId) {
+        PlayerIds pending = mailbox.get(recipient);
+        if (pending == null || pending.size == 0 || pending.ids[0] > upToId) {
+            return 0;
+        }
+        writeBuffer.clear();
+        putMailboxRecord(DELIVERED, upToId, recipient);
+        try {
+            append(writeBuffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        int before = pending.size;
+        markDeliveredInIndex(recipient, upToId);
+        return before - pending.size;
+    }
+
+    private void putMailboxRecord(byte type, long id, UUID recipient) {
+        int length = 1 + 8 + 16;
+        int start = writeBuffer.position();
+        writeBuffer.putInt(length);
+        writeBuffer.putInt(0);
+        writeBuffer.put(type);
+        writeBuffer.putLong(id);
+        writeBuffer.putLong(recipient.getMostSignificantBits());
+        writeBuffer.putLong(recipient.getLeastSignificantBits());
+        crc.reset();
+        crc.update(writeBuffer.array(), start + RECORD_HEADER_SIZE, length);
+        writeBuffer.putInt(start + 4, (int) crc.getValue());
+    }
+
+    private void markDeliveredInIndex(UUID recipient, long upToId) {
+        PlayerIds pending = mailbox.get(recipient);
+        if (pending != null) {
+            pending.removeUpTo(upToId);
+            if (pending.size == 0) {
+                mailbox.remove(recipient);
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<PlayerActivity> findTopPlayers(int limit) {
+        return playerStats
+            .entrySet()
+            .stream()
+            .sorted((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]))
+            .limit(limit)
+            .map(entry ->
+                new PlayerActivity(
+                    entry.getKey(),
+                    entry.getValue()[0],
+                    entry.getValue()[1],
+                    entry.getValue()[2] == NO_TIMESTAMP
+                        ? null
+                        : Instant.ofEpochMilli(entry.getValue()[2])
+                )
+            )
+            .toList();
+    }
+
+    @Override
+    public synchronized List<HourlyActivity> findHourlyActivity(
+        Instant from,
+        Instant until
+    ) {
+        Map<Long, long[]> range = hourlyStats.subMap(
+            from.toEpochMilli(),
+            until.toEpochMilli()
+        );
+        List<HourlyActivity> hours = new ArrayList<>(range.size());
+        for (Map.Entry<Long, long[]> entry : range.entrySet()) {
+            hours.add(
+                new HourlyActivity(
+                    Instant.ofEpochMilli(entry.getKey()),
+                    entry.getValue()[0],
+                    entry.getValue()[1]
+                )
+            );
+        }
+        return hours;
+    }
+
+    /**
+     * The rollups follow every put and delete, so only the latest message
+     * time of players whose newest message was deleted can be off. They are
+     * rebuilt from the live records and the changed entries counted.
+     */
+    @Override
+    public synchronized long reconcileRollups() {
+        Map<UUID, long[]> players = new HashMap<>(playerStats);
+        Map<Long, long[]> hours = new HashMap<>(hourlyStats);
+        playerStats.clear();
+        hourlyStats.clear();
+        for (int i = 0; i < size; i++) {
+            if (locations[i] != DELETED) {
+                addToRollups(read(locations[i]), 1);
+            }
+        }
+        return changed(players, playerStats) + changed(hours, hourlyStats);
+    }
+
+    private static <K> long changed(
+        Map<K, long[]> before,
+        Map<K, long[]> after
+    ) {
+        long changed = 0;
+        for (Map.Entry<K, long[]> entry : after.entrySet()) {
+            long[] previous = before.remove(entry.getKey());
+            if (!Arrays.equals(previous, entry.getValue())) {
+                changed++;
+            }
+        }
+        return changed + before.size();
+    }
+
+    private void addToRollups(MessageEntity message, int sign) {
+        String text = message.getText();
+        addToRollups(
+            message.getUuid(),
+            message.getCreatedAt() != null
+                ? message.getCreatedAt().toEpochMilli()
+                : NO_TIMESTAMP,
+            text.codePointCount(0, text.length()),
+            sign
+        );
+    }
+
+    /**
+     * Add (sign 1) or remove (sign -1) one message from the rollups. The
+     * latest message time is not moved back on removal.
+     */
+    private void addToRollups(
+        UUID player,
+        long createdAt,
+        int characters,
+        int sign
+    ) {
+        long[] stats = playerStats.computeIfAbsent(player, uuid ->
+            new long[] { 0, 0, NO_TIMESTAMP }
+        );
+        stats[0] += sign;
+        stats[1] += sign * characters;
+        if (stats[0] <= 0) {
+            playerStats.remove(player);
+        } else if (sign > 0) {
+            stats[2] = Math.max(stats[2], createdAt);
+        }
+        if (createdAt == NO_TIMESTAMP) {
+            return;
+        }
+        long hour = Math.floorDiv(createdAt, HOUR_MILLIS) * HOUR_MILLIS;
+        long[] hourly = hourlyStats.computeIfAbsent(hour, start -> new long[2]);
+        hourly[0] += sign;
+        hourly[1] += sign * characters;
+        if (hourly[0] <= 0) {
+            hourlyStats.remove(hour);
+        }
+    }
+
+    /**
+     * Characters of UTF-8 text, counting every byte that does not continue
+     * a multi-byte sequence
+     */
+    private static int codePoints(byte[] utf8, int offset, int length) {
+        int count = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if ((utf8[i] & 0xc0) != 0x80) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized long count() {
+        return live;
+    }
+
+    @Override
+    public synchronized boolean deleteById(Long id) {
+        return deleteByIds(List.of(id)) > 0;
+    }
+
+    @Override
+    public synchronized long deleteByIds(Collection<Long> ids) {
+        long[] live = new long[ids.size()];
+        int count = 0;
+        for (Long id : ids) {
+            if (locationOf(id) != DELETED) {
+                live[count++] = id;
+            }
+        }
+        return appendDeletes(live, count);
+    }
+
+    @Override
+    public synchronized long deleteByPlayer(UUID playerUuid) {
+        // The list is pruned by appendDeletes once the tombstones are
+        // written, so a failed append leaves the index intact
+        PlayerIds playerIds = byPlayer.get(playerUuid);
+        if (playerIds == null) {
+            return 0;
+        }
+        long[] live = new long[playerIds.size];
+        int count = 0;
+        for (int i = 0; i < playerIds.size; i++) {
+            if (locationOf(playerIds.ids[i]) != DELETED) {
+                live[count++] = playerIds.ids[i];
+            }
+        }
+        return appendDeletes(live, count);
+    }
+
+    @Override
+    public synchronized long deleteOlderThan(long beforeId) {
+        int position = Arrays.binarySearch(ids, 0, size, beforeId);
+        int end = position >= 0 ? position : -position - 1;
+        long[] live = new long[end];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (locations[i] != DELETED) {
+                live[count++] = ids[i];
+            }
+        }
+        return appendDeletes(live, count);
+    }
+
+    @Override
+    public synchronized long deleteOlderThan(Instant before) {
+        long cutoff = before.toEpochMilli();
+        long[] matching = new long[live];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (locations[i] != DELETED) {
+                long createdAt = readCreatedAt(locations[i]);
+                if (createdAt != NO_TIMESTAMP && createdAt < cutoff) {
+                    matching[count++] = ids[i];
+                }
+            }
+        }
+        return appendDeletes(matching, count);
+    }
+
+    /**
+     * Append tombstones for the given live IDs with a single write, update
+     * the indexes, then compact segments that became mostly garbage
+     */
+    private long appendDeletes(long[] deleteIds, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        MessageEntity[] messages = new MessageEntity[count];
+        long[] deleteLocations = new long[count];
+        writeBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            long location = locationOf(deleteIds[i]);
+            MessageEntity message = read(location);
+            messages[i] = message;
+            deleteLocations[i] = location;
+
+            ensureWriteCapacity(RECORD_HEADER_SIZE + TOMBSTONE_LENGTH);
+            int start = writeBuffer.position();
+            writeBuffer.putInt(TOMBSTONE_LENGTH);
+            writeBuffer.putInt(0);
+            writeBuffer.put(TOMBSTONE);
+            writeBuffer.putLong(deleteIds[i]);
+            writeBuffer.putInt(segments.get(segmentOf(location)).number);
+            writeBuffer.putInt((int) (location & 0xffffffffL));
+            writeBuffer.putInt(RECORD_HEADER_SIZE + putLength(message));
+            writeBuffer.putLong(message.getUuid().getMostSignificantBits());
+            writeBuffer.putLong(message.getUuid().getLeastSignificantBits());
+            writeBuffer.putLong(
+                message.getCreatedAt() != null
+                    ? message.getCreatedAt().toEpochMilli()
+                    : NO_TIMESTAMP
+            );
+            String text = message.getText();
+            writeBuffer.putInt(text.codePointCount(0, text.length()));
+            crc.reset();
+            crc.update(
+                writeBuffer.array(),
+                start + RECORD_HEADER_SIZE,
+                TOMBSTONE_LENGTH
+            );
+            writeBuffer.putInt(start + 4, (int) crc.getValue());
+        }
+        try {
+            append(writeBuffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long deleted = 0;
+        Set<UUID> players = new HashSet<>();
+        Set<String> channels = new HashSet<>();
+        for (int i = 0; i < count; i++) {
+            if (indexDelete(deleteIds[i]) != DELETED) {
+                addToRollups(messages[i], -1);
+                segments.get(segmentOf(deleteLocations[i])).garbage +=
+                    RECORD_HEADER_SIZE + putLength(messages[i]);
+                deleted++;
+            }
+            players.add(messages[i].getUuid());
+            if (messages[i].getRecipient() == null) {
+                channels.add(messages[i].getChannel());
+            }
+        }
+        for (UUID player : players) {
+            prune(byPlayer, player);
+        }
+        for (String channel : channels) {
+            prune(byChannel, channel);
+        }
+        compact();
+        return deleted;
+    }
+
+    /**
+     * Compact every segment but the active one that is at least half
+     * garbage. Failures are logged and the segment is tried again after the
+     * next delete.
+     */
+    private void compact() {
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Segment segment = segments.get(i);
+            if (segment == null) {
+                continue;
+            }
+            try {
+                if (segment.garbage * 2 >= segment.channel.size()) {
+                    compactSegment(i);
+                }
+            } catch (IOException e) {
+                LOGGER.warn(
+                    "Compacting {} failed: {}",
+                    segment.file,
+                    e.getMessage()
+                );
+            }
+        }
+    }
+
+    /**
+     * Copy the records of a segment that are still needed to the end of the
+     * log and remove the segment: live messages, pending mailbox entries,
+     * deletes of records in older segments that still exist, and delivery
+     * marks while older segments exist
+     */
+    private void compactSegment(int index) throws IOException {
+        Segment segment = segments.get(index);
+        boolean olderSegments = false;
+        for (int i = 0; i < index; i++) {
+            olderSegments |= segments.get(i) != null;
+        }
+
+        FileChannel channel = segment.channel;
+        long fileSize = channel.size();
+        channel.position(SEGMENT_HEADER_SIZE);
+        DataInputStream input = new DataInputStream(
+            new BufferedInputStream(Channels.newInputStream(channel), 1 << 16)
+        );
+        // Messages in writeBuffer: their IDs and where their records start
+        long[] movedIds = new long[64];
+        int[] movedStarts = new int[64];
+        int moved = 0;
+        long kept = 0;
+        writeBuffer.clear();
+
+        long offset = SEGMENT_HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= fileSize) {
+            int length = input.readInt();
+            int checksum = input.readInt();
+            if (length < 9 || offset + RECORD_HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            byte[] body = new byte[length];
+            input.readFully(body);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                // The rest was ignored when the store was opened
+                break;
+            }
+            long recordOffset = offset;
+            offset += RECORD_HEADER_SIZE + length;
+
+            ByteBuffer record = ByteBuffer.wrap(body);
+            byte type = record.get();
+            long id = record.getLong();
+            boolean put =
+                type == PUT || type == PUT_DIRECT || type == PUT_CHANNEL;
+            boolean keep;
+            if (put) {
+                keep = locationOf(id) == location(index, recordOffset);
+            } else if (type == TOMBSTONE) {
+                int putSegment = segmentIndex(record.getInt());
+                keep = putSegment >= 0 && putSegment != index;
+            } else if (type == MAIL) {
+                PlayerIds pending = mailbox.get(
+                    new UUID(record.getLong(), record.getLong())
+                );
+                keep =
+                    pending != null &&
+                    Arrays.binarySearch(pending.ids, 0, pending.size, id) >= 0;
+            } else {
+                keep = type == DELIVERED && olderSegments;
+            }
+            if (!keep) {
+                continue;
+            }
+
+            if (writeBuffer.position() >= COMPACT_CHUNK_BYTES) {
+                relocate(movedIds, movedStarts, moved);
+                moved = 0;
+            }
+            ensureWriteCapacity(RECORD_HEADER_SIZE + length);
+            if (put) {
+                if (moved == movedIds.length) {
+                    movedIds = Arrays.copyOf(movedIds, moved * 2);
+                    movedStarts = Arrays.copyOf(movedStarts, moved * 2);
+                }
+                movedIds[moved] = id;
+                movedStarts[moved] = writeBuffer.position();
+                moved++;
+            }
+            writeBuffer.putInt(length);
+            writeBuffer.putInt(checksum);
+            writeBuffer.put(body);
+            kept += RECORD_HEADER_SIZE + length;
+        }
+        relocate(movedIds, movedStarts, moved);
+
+        segments.set(index, null);
+        channel.close();
+        Files.deleteIfExists(segment.file);
+        LOGGER.debug(
+            "Compacted {}, kept {} of {} bytes",
+            segment.file.getFileName(),
+            kept,
+            fileSize
+        );
+    }
+
+    /**
+     * Append the records collected by compactSegment and point the moved
+     * messages at their new location
+     */
+    private void relocate(long[] movedIds, int[] movedStarts, int moved)
+        throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+        long offset = append(writeBuffer);
+        int active = segments.size() - 1;
+        for (int i = 0; i < moved; i++) {
+            int position = Arrays.binarySearch(ids, 0, size, movedIds[i]);
+            locations[position] = location(active, offset + movedStarts[i]);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Read only the timestamp of a message record
+     */
+    private long readCreatedAt(long location) {
+        long offset = location & 0xffffffffL;
+        try {
+            return readFully(
+                segments.get(segmentOf(location)).channel,
+                offset + RECORD_HEADER_SIZE + 1 + 8 + 16,
+                8
+            ).getLong();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            if (segment == null) {
+                continue;
+            }
+            try {
+                segment.channel.close();
+            } catch (IOException e) {
+                LOGGER.debug("Close failed: {}", e.getMessage());
+            }
+        }
+        segments.clear();
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.craftmessage;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Consistent hash ring mapping player UUIDs to shards. Every shard owns
+ * VIRTUAL_NODES points on the ring, so adding a shard moves only about
+ * 1/n of the players and spreads the moved players over all old shards.
+ */
+public class ShardRing {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final int shardCount;
+    private final long[] points;
+    private final int[] owners;
+
+    public ShardRing(int shardCount) {
+        this.shardCount = shardCount;
+        int size = shardCount * VIRTUAL_NODES;
+        long[][] entries = new long[size][];
+        int n = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                entries[n++] = new long[] {
+                    mix(((long) shard << 32) | node),
+                    shard,
+                };
+            }
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = entries[i][0];
+            owners[i] = (int) entries[i][1];
+        }
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Shard that stores the given player's messages
+     */
+    public int shardOf(UUID player) {
+        if (shardCount == 1) {
+            return 0;
+        }
+        long hash = mix(
+            player.getMostSignificantBits() ^
+            mix(player.getLeastSignificantBits())
+        );
+        int position = Arrays.binarySearch(points, hash);
+        if (position < 0) {
+            position = -position - 1;
+        }
+        return owners[position == points.length ? 0 : position];
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+}
@@ -0,0 +1,575 @@
+package com.example.craftmessage;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Message repository spread over one or more databases.
+ *
+ * Each shard has its own EntityManagerFactory and connection pool. Writes
+ * and per-player reads go to the shard that owns the player on the
+ * {@link ShardRing}; queries over all messages run on every shard in
+ * parallel and are combined with a k-way merge on the message ID. With a
+ * single shard every call goes straight to its repository.
+ */
+public class ShardedMessageRepository implements MessageStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        ShardedMessageRepository.class
+    );
+
+    private static final int REBALANCE_CHUNK_SIZE = 1000;
+
+    private static final Comparator<MessageEntity> BY_ID_ASC =
+        Comparator.comparing(MessageEntity::getId);
+    private static final Comparator<MessageView> VIEW_BY_ID_ASC =
+        Comparator.comparingLong(MessageView::id);
+    private static final Comparator<PlayerActivity> BY_MESSAGES_DESC =
+        Comparator.comparingLong(PlayerActivity::messages).reversed();
+
+    private final List<MessageRepository> shards;
+    private final ShardRing ring;
+    private final ExecutorService fanOut;
+
+    public record Rebalance(int players, long messages) {}
+
+    public ShardedMessageRepository(List<MessageRepository> shards) {
+        this.shards = List.copyOf(shards);
+        this.ring = new ShardRing(shards.size());
+        this.fanOut = shards.size() > 1
+            ? Executors.newFixedThreadPool(shards.size(), runnable -> {
+                Thread thread = new Thread(
+                    runnable,
+                    "craftmessage-shard-query"
+                );
+                thread.setDaemon(true);
+                return thread;
+            })
+            : null;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public MessageRepository getShard(int shard) {
+        return shards.get(shard);
+    }
+
+    public MessageRepository shardFor(UUID playerUuid) {
+        return shards.get(ring.shardOf(playerUuid));
+    }
+
+    @Override
+    public Optional<MessageEntity> save(MessageEntity message) {
+        return shardFor(message.getUuid()).save(message);
+    }
+
+    /**
+     * Save a batch, split by owning shard and written to all shards in
+     * parallel. If a shard fails the others still commit; saved messages
+     * have their ID set and the first failure is rethrown. Uses one
+     * connection per shard under the caller's scheduler permit.
+     *
+     * @return number of messages saved
+     */
+    @Override
+    public int saveAll(List<MessageEntity> messages) {
+        if (shards.size() == 1) {
+            return shards.get(0).saveAll(messages);
+        }
+        List<List<MessageEntity>> parts = partition(messages);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (int shard = 0; shard < parts.size(); shard++) {
+            List<MessageEntity> part = parts.get(shard);
+            if (!part.isEmpty()) {
+                MessageRepository repository = shards.get(shard);
+                futures.add(
+                    CompletableFuture.supplyAsync(
+                        () -> repository.saveAll(part),
+                        fanOut
+                    )
+                );
+            }
+        }
+        int saved = 0;
+        RuntimeException failure = null;
+        for (CompletableFuture<Integer> future : futures) {
+            try {
+                saved += future.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = unwrap(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return saved;
+    }
+
+    @Override
+    public Optional<MessageEntity> findById(Long id) {
+        for (List<MessageEntity> found : scatter(shard ->
+            shard.findById(id).stream().toList()
+        )) {
+            if (!found.isEmpty()) {
+                return Optional.of(found.get(0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<MessageEntity> findByPlayerUuid(UUID playerUuid) {
+        return shardFor(playerUuid).findByPlayerUuid(playerUuid);
+    }
+
+    /**
+     * Find all messages, ordered by ID descending (newest first)
+     */
+    @Override
+    public List<MessageEntity> findAll() {
+        return merge(
+            scatter(MessageRepository::findAll),
+            BY_ID_ASC.reversed(),
+            Integer.MAX_VALUE
+        );
+    }
+
+    @Override
+    public Optional<MessageView> findViewById(long id) {
+        for (List<MessageView> found : scatter(shard ->
+            shard.findViewById(id).stream().toList()
+        )) {
+            if (!found.isEmpty()) {
+                return Optional.of(found.get(0));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public List<MessageView> findViewsByPlayer(UUID playerUuid) {
+        return shardFor(playerUuid).findViewsByPlayer(playerUuid);
+    }
+
+    @Override
+    public List<MessageView> findAllViews() {
+        return merge(
+            scatter(MessageRepository::findAllViews),
+            VIEW_BY_ID_ASC.reversed(),
+            Integer.MAX_VALUE
+        );
+    }
+
+    @Override
+    public boolean deleteById(Long id) {
+        if (shards.size() == 1) {
+            return shards.get(0).deleteById(id);
+        }
+        return deleteByIds(List.of(id)) > 0;
+    }
+
+    /**
+     * IDs are not routed by value, so every shard gets the whole list
+     */
+    @Override
+    public long deleteByIds(Collection<Long> ids) {
+        return sum(scatter(shard -> List.of(shard.deleteByIds(ids))));
+    }
+
+    /**
+     * Every shard gets the delete: the player's direct messages have
+     * mailbox copies on their recipients' shards
+     */
+    @Override
+    public long deleteByPlayer(UUID playerUuid) {
+        return sum(scatter(shard -> List.of(shard.deleteByPlayer(playerUuid))));
+    }
+
+    @Override
+    public long deleteOlderThan(long beforeId) {
+        return sum(scatter(shard -> List.of(shard.deleteOlderThan(beforeId))));
+    }
+
+    @Override
+    public long deleteOlderThan(Instant before) {
+        return sum(scatter(shard -> List.of(shard.deleteOlderThan(before))));
+    }
+
+    @Override
+    public long count() {
+        return sum(scatter(shard -> List.of(shard.count())));
+    }
+
+    @Override
+    public boolean existsById(Long id) {
+        for (List<Boolean> exists : scatter(shard ->
+            List.of(shard.existsById(id))
+        )) {
+            if (exists.get(0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read one chunk in ascending ID order across all shards
+     *
+     * @see MessageRepository#findRangeAfter
+     */
+    @Override
+    public List<MessageEntity> findRangeAfter(
+        long afterId,
+        long toId,
+        Instant from,
+        Instant until,
+        int limit
+    ) {
+        return merge(
+            scatter(shard ->
+                shard.findRangeAfter(afterId, toId, from, until, limit)
+            ),
+            BY_ID_ASC,
+            limit
+        );
+    }
+
+    /**
+     * Keyset page next to anchorId across all shards
+     *
+     * @see MessageRepository#findPage
+     */
+    @Override
+    public List<MessageView> findPage(
+        String channel,
+        long anchorId,
+        boolean older,
+        int limit
+    ) {
+        return merge(
+            scatter(shard -> shard.findPage(channel, anchorId, older, limit)),
+            older ? VIEW_BY_ID_ASC.reversed() : VIEW_BY_ID_ASC,
+            limit
+        );
+    }
+
+    /**
+     * Players live on one shard each, so the shards' leaderboards are merged
+     */
+    @Override
+    public List<PlayerActivity> findTopPlayers(int limit) {
+        return merge(
+            scatter(shard -> shard.findTopPlayers(limit)),
+            BY_MESSAGES_DESC,
+            limit
+        );
+    }
+
+    /**
+     * Hourly counts of all shards added up per hour
+     */
+    @Override
+    public List<HourlyActivity> findHourlyActivity(
+        Instant from,
+        Instant until
+    ) {
+        if (shards.size() == 1) {
+            return shards.get(0).findHourlyActivity(from, until);
+        }
+        Map<Instant, long[]> hours = new TreeMap<>();
+        for (List<HourlyActivity> shard : scatter(shard ->
+            shard.findHourlyActivity(from, until)
+        )) {
+            for (HourlyActivity hour : shard) {
+                long[] total = hours.computeIfAbsent(hour.hour(), start ->
+                    new long[2]
+                );
+                total[0] += hour.messages();
+                total[1] += hour.characters();
+            }
+        }
+        List<HourlyActivity> merged = new ArrayList<>(hours.size());
+        for (Map.Entry<Instant, long[]> entry : hours.entrySet()) {
+            merged.add(
+                new HourlyActivity(
+                    entry.getKey(),
+                    entry.getValue()[0],
+                    entry.getValue()[1]
+                )
+            );
+        }
+        return merged;
+    }
+
+    @Override
+    public long reconcileRollups() {
+        return sum(scatter(shard -> List.of(shard.reconcileRollups())));
+    }
+
+    /**
+     * Insert archived messages on their owning shards, keeping their IDs
+     *
+     * @return number of rows actually inserted
+     */
+    @Override
+    public int insertArchived(List<MessageEntity> messages) {
+        if (shards.size() == 1) {
+            return shards.get(0).insertArchived(messages);
+        }
+        int inserted = 0;
+        List<List<MessageEntity>> parts = partition(messages);
+        for (int shard = 0; shard < parts.size(); shard++) {
+            if (!parts.get(shard).isEmpty()) {
+                inserted += shards.get(shard).insertArchived(parts.get(shard));
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Move every shard's ID sequence past the highest ID on any shard, so
+     * IDs stay unique across shards. A second pass is needed only when a
+     * shard holds an ID above pastId.
+     */
+    @Override
+    public long advanceIds(long pastId) {
+        long highest = pastId;
+        for (MessageRepository shard : shards) {
+            highest = Math.max(highest, shard.advanceIds(pastId));
+        }
+        if (highest > pastId && shards.size() > 1) {
+            for (MessageRepository shard : shards) {
+                shard.advanceIds(highest);
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Queue direct messages on the shards owning their recipients
+     */
+    @Override
+    public int addToMailbox(List<MessageEntity> messages) {
+        if (shards.size() == 1) {
+            return shards.get(0).addToMailbox(messages);
+        }
+        List<List<MessageEntity>> parts = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (MessageEntity message : messages) {
+            parts.get(ring.shardOf(message.getRecipient())).add(message);
+        }
+        int added = 0;
+        for (int shard = 0; shard < parts.size(); shard++) {
+            if (!parts.get(shard).isEmpty()) {
+                added += shards.get(shard).addToMailbox(parts.get(shard));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Mailbox entries are read from every shard, so entries queued before a
+     * rebalance moved the recipient are still found
+     */
+    @Override
+    public List<MessageEntity> findMailbox(UUID recipient, int limit) {
+        return merge(
+            scatter(shard -> shard.findMailbox(recipient, limit)),
+            BY_ID_ASC,
+            limit
+        );
+    }
+
+    @Override
+    public int markDelivered(UUID recipient, long upToId) {
+        int marked = 0;
+        for (List<Integer> counts : scatter(shard ->
+            List.of(shard.markDelivered(recipient, upToId))
+        )) {
+            marked += counts.get(0);
+        }
+        return marked;
+    }
+
+    /**
+     * Move every player stored on a shard that no longer owns it to its
+     * owning shard. Run after adding shards; messages are copied with their
+     * IDs before they are deleted at the source, so an interrupted run can
+     * simply be repeated.
+     */
+    public Rebalance rebalance() {
+        int players = 0;
+        long messages = 0;
+        for (int source = 0; source < shards.size(); source++) {
+            MessageRepository from = shards.get(source);
+            for (UUID player : from.findPlayerUuids()) {
+                int target = ring.shardOf(player);
+                if (target == source) {
+                    continue;
+                }
+                MessageRepository to = shards.get(target);
+                long afterId = 0;
+                while (true) {
+                    List<MessageEntity> chunk = from.findByPlayerAfter(
+                        player,
+                        afterId,
+                        REBALANCE_CHUNK_SIZE
+                    );
+                    if (chunk.isEmpty()) {
+                        break;
+                    }
+                    to.insertArchived(chunk);
+                    afterId = chunk.get(chunk.size() - 1).getId();
+                    messages += chunk.size();
+                    from.deleteByPlayerUpTo(player, afterId);
+                    DatabaseScheduler.yieldToInteractive();
+                }
+                if (afterId == 0) {
+                    // Player row without messages
+                    from.deleteByPlayerUpTo(player, 0);
+                }
+                players++;
+                LOGGER.debug(
+                    "Moved player {} from shard {} to shard {}",
+                    player,
+                    source,
+                    target
+                );
+            }
+        }
+        if (messages > 0) {
+            // Deletes at the source left its rollups counting moved messages
+            reconcileRollups();
+        }
+        LOGGER.info(
+            "Rebalance moved {} messages of {} players",
+            messages,
+            players
+        );
+        return new Rebalance(players, messages);
+    }
+
+    /**
+     * Stop the fan-out threads
+     */
+    @Override
+    public void close() {
+        if (fanOut != null) {
+            fanOut.shutdown();
+        }
+    }
+
+    private List<List<MessageEntity>> partition(List<MessageEntity> messages) {
+        List<List<MessageEntity>> parts = new ArrayList<>(shards.size());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            parts.add(new ArrayList<>());
+        }
+        for (MessageEntity message : messages) {
+            parts.get(ring.shardOf(message.getUuid())).add(message);
+        }
+        return parts;
+    }
+
+    /**
+     * Run a query on every shard, in parallel when there are several. Bulk
+     * jobs go through the shards one after another so they keep a single
+     * connection and do not occupy the fan-out threads.
+     */
+    private <T> List<List<T>> scatter(
+        Function<MessageRepository, List<T>> query
+    ) {
+        if (shards.size() == 1 || DatabaseScheduler.isBulk()) {
+            List<List<T>> results = new ArrayList<>(shards.size());
+            for (MessageRepository shard : shards) {
+                results.add(query.apply(shard));
+            }
+            return results;
+        }
+        List<CompletableFuture<List<T>>> futures = new ArrayList<>();
+        for (MessageRepository shard : shards) {
+            futures.add(
+                CompletableFuture.supplyAsync(() -> query.apply(shard), fanOut)
+            );
+        }
+        List<List<T>> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<List<T>> future : futures) {
+            try {
+                results.add(future.join());
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        return results;
+    }
+
+    private static long sum(List<List<Long>> counts) {
+        long total = 0;
+        for (List<Long> count : counts) {
+            total += count.get(0);
+        }
+        return total;
+    }
+
+    /**
+     * K-way merge of lists that are each sorted by order, up to limit items
+     */
+    static <T> List<T> merge(
+        List<List<T>> sorted,
+        Comparator<? super T> order,
+        int limit
+    ) {
+        if (sorted.size() == 1) {
+            List<T> only = sorted.get(0);
+            return only.size() <= limit ? only : only.subList(0, limit);
+        }
+
+        // Heap of {list index, position}, ordered by the item at position
+        PriorityQueue<int[]> heads = new PriorityQueue<>((a, b) ->
+            order.compare(sorted.get(a[0]).get(a[1]), sorted.get(b[0]).get(b[1]))
+        );
+        int total = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            total += sorted.get(i).size();
+            if (!sorted.get(i).isEmpty()) {
+                heads.add(new int[] { i, 0 });
+            }
+        }
+        List<T> merged = new ArrayList<>(Math.min(total, limit));
+        while (!heads.isEmpty() && merged.size() < limit) {
+            int[] head = heads.poll();
+            List<T> list = sorted.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) {
+                heads.add(head);
+            }
+        }
+        return merged;
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        return e.getCause() instanceof RuntimeException runtime
+            ? runtime
+            : e;
+    }
+}
@@ -1,6 +1,12 @@
 package com.example.craftmessage;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import net.fabricmc.fabric.api.networking.v1.PayloadTypeRegistry;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.fabric.api.networking.v1.ServerPlayNetworking;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +17,39 @@ public class SimpleMessageHandler {
         SimpleMessageHandler.class
     );
 
+    /**
+     * What happened to a received message. Rate limited and queue full
+     * messages can be sent again later, blocked ones never. Duplicates were
+     * handled before in the same connection and are not stored again.
+     */
+    public enum Outcome {
+        ACCEPTED,
+        BLOCKED,
+        RATE_LIMITED,
+        QUEUE_FULL,
+        DUPLICATE;
+
+        public boolean isRetryable() {
+            return this == RATE_LIMITED || this == QUEUE_FULL;
+        }
+    }
+
+    // Per-player token buckets for messages.rateLimit.* settings
+    private static final Map<UUID, RateBucket> RATE_BUCKETS =
+        new ConcurrentHashMap<>();
+
+    // Highest client ID handled per player in the current connection, so a
+    // batch resent after a lost acknowledgement is not stored twice. Reset
+    // on disconnect: another machine or a reset clock may start lower.
+    private static final Map<UUID, Long> LAST_CLIENT_IDS =
+        new ConcurrentHashMap<>();
+
+    private static final class RateBucket {
+
+        double tokens = -1;
+        long lastRefillNanos;
+    }
+
     public static void register() {
         try {
             // Only register on server side - this should avoid client initialization issues
@@ -23,44 +62,295 @@ public class SimpleMessageHandler {
             ServerPlayNetworking.registerGlobalReceiver(
                 SimpleMessagePayload.ID,
                 (payload, context) -> {
+                    long token = TickBudget.enter();
                     try {
-                        String messageText = payload.text();
-                        String playerUuid = context.player().getUuidAsString();
-
-                        LOGGER.info(
-                            "Received message from player {}: {}",
-                            playerUuid,
-                            messageText
+                        TickBudget.countMessage();
+                        receive(
+                            context.player().getUuid(),
+                            payload.recipient(),
+                            payload.channel(),
+                            payload.text()
                         );
-
-                        // Try to save message with connection failure detection
-                        try {
-                            boolean success = DatabaseManager.saveMessage(
-                                playerUuid,
-                                messageText
-                            );
-                            if (!success) {
-                                LOGGER.warn(
-                                    "Message not saved for player {} - database unavailable",
-                                    playerUuid
-                                );
-                            }
-                        } catch (Exception e) {
-                            LOGGER.error(
-                                "Failed to save message for player {}",
-                                playerUuid,
-                                e
-                            );
-                        }
                     } catch (Exception e) {
                         LOGGER.error("Failed to process message", e);
+                    } finally {
+                        TickBudget.exit(TickBudget.Operation.RECEIVE, token);
                     }
                 }
             );
 
+            // Batches from the client outbound queue, answered with an ack
+            PayloadTypeRegistry.playC2S().register(
+                MessageBatchPayload.ID,
+                MessageBatchPayload.CODEC
+            );
+            PayloadTypeRegistry.playS2C().register(
+                MessageAckPayload.ID,
+                MessageAckPayload.CODEC
+            );
+            ServerPlayNetworking.registerGlobalReceiver(
+                MessageBatchPayload.ID,
+                (payload, context) -> {
+                    long token = TickBudget.enter();
+                    try {
+                        MessageAckPayload ack = handleBatch(
+                            context.player().getUuid(),
+                            payload.messages()
+                        );
+                        ServerPlayNetworking.send(context.player(), ack);
+                    } catch (Exception e) {
+                        LOGGER.error("Failed to process message batch", e);
+                    } finally {
+                        TickBudget.exit(TickBudget.Operation.RECEIVE, token);
+                    }
+                }
+            );
+
+            ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> {
+                UUID player = handler.player.getUuid();
+                RATE_BUCKETS.remove(player);
+                LAST_CLIENT_IDS.remove(player);
+                storeRepeats(player, DuplicateSuppressor.forget(player));
+            });
+
             LOGGER.info("Simple message handler registered successfully");
         } catch (Exception e) {
             LOGGER.error("Failed to register simple message handler", e);
         }
     }
+
+    /**
+     * Handle a batch in order. Messages already handled in this connection
+     * are acknowledged as duplicates without storing them; after the first
+     * message that may be retried, the rest are not handled and get the
+     * same outcome, so the client resends them in their original order.
+     */
+    static MessageAckPayload handleBatch(
+        UUID player,
+        List<MessageBatchPayload.Item> items
+    ) {
+        List<MessageAckPayload.Ack> acks = new ArrayList<>(items.size());
+        long lastClientId = LAST_CLIENT_IDS.getOrDefault(player, 0L);
+        Outcome stopped = null;
+        for (MessageBatchPayload.Item item : items) {
+            Outcome outcome;
+            if (stopped != null) {
+                outcome = stopped;
+            } else if (item.clientId() <= lastClientId) {
+                outcome = Outcome.DUPLICATE;
+            } else {
+                TickBudget.countMessage();
+                outcome = receive(
+                    player,
+                    item.recipient(),
+                    item.channel(),
+                    item.text()
+                );
+                if (outcome.isRetryable()) {
+                    stopped = outcome;
+                } else {
+                    lastClientId = item.clientId();
+                }
+            }
+            acks.add(new MessageAckPayload.Ack(item.clientId(), outcome));
+        }
+        LAST_CLIENT_IDS.put(player, lastClientId);
+        return new MessageAckPayload(acks);
+    }
+
+    /**
+     * Ingest path for one received message, independent of the networking
+     * layer so it can also be driven by the load test harness
+     *
+     * @return false if the message was rejected before persistence
+     */
+    public static boolean handleMessage(UUID player, String messageText) {
+        return handleMessage(player, null, messageText);
+    }
+
+    /**
+     * @see #receive
+     * @return false if the message was rejected before persistence
+     */
+    public static boolean handleMessage(
+        UUID player,
+        UUID recipient,
+        String messageText
+    ) {
+        return (
+            receive(
+                player,
+                recipient,
+                MessageEntity.DEFAULT_CHANNEL,
+                messageText
+            ) ==
+            Outcome.ACCEPTED
+        );
+    }
+
+    /**
+     * Ingest path for a public message (recipient null), which is sent to
+     * the online subscribers of its channel, or a direct message, which is
+     * delivered right away if the recipient is online. Direct messages
+     * belong to no channel and are stored under the default one.
+     */
+    public static Outcome receive(
+        UUID player,
+        UUID recipient,
+        String channel,
+        String messageText
+    ) {
+        String resolved = recipient != null
+            ? MessageEntity.DEFAULT_CHANNEL
+            : ChannelRegistry.resolve(channel);
+        if (resolved == null) {
+            LOGGER.debug(
+                "Dropped message from player {} - unknown channel {}",
+                player,
+                channel
+            );
+            AuditLog.rejected(player, channel, "unknown_channel");
+            return Outcome.BLOCKED;
+        }
+
+        if (!tryAcquire(player)) {
+            LOGGER.debug(
+                "Dropped message from player {} - rate limit exceeded",
+                player
+            );
+            AuditLog.rejected(player, resolved, "rate_limited");
+            return Outcome.RATE_LIMITED;
+        }
+
+        String filtered = MessageFilter.apply(messageText);
+        if (filtered == null) {
+            LOGGER.debug(
+                "Dropped message from player {} - blocked by word filter",
+                player
+            );
+            AuditLog.rejected(player, resolved, "filtered");
+            return Outcome.BLOCKED;
+        }
+        messageText = filtered;
+
+        DuplicateSuppressor.Verdict verdict = DuplicateSuppressor.check(
+            player,
+            recipient,
+            resolved,
+            messageText
+        );
+        if (verdict == DuplicateSuppressor.Verdict.DROP) {
+            LOGGER.debug(
+                "Dropped message from player {} - repeated message",
+                player
+            );
+            AuditLog.rejected(player, resolved, "repeat");
+            return Outcome.BLOCKED;
+        }
+        if (verdict == DuplicateSuppressor.Verdict.COLLAPSE) {
+            // Counted and stored as one summary line when the run ends
+            AuditLog.rejected(player, resolved, "repeat_collapsed");
+            return Outcome.ACCEPTED;
+        }
+        storeRepeats(player, DuplicateSuppressor.takeEnded(player));
+
+        LOGGER.debug(
+            "Received message from player {}: {}",
+            player,
+            messageText
+        );
+        Outcome outcome = store(player, recipient, resolved, messageText);
+        if (outcome.isRetryable()) {
+            // The resent message must not count as a repeat of this one
+            DuplicateSuppressor.retract(player);
+        }
+        return outcome;
+    }
+
+    /**
+     * Persist an accepted message and send it to whoever is online
+     */
+    private static Outcome store(
+        UUID player,
+        UUID recipient,
+        String channel,
+        String messageText
+    ) {
+        boolean delivered =
+            recipient != null &&
+            DirectMessageRouter.deliver(player, recipient, messageText);
+
+        // Hand off to the background writer, never block the server thread
+        if (
+            !DatabaseManager.enqueueMessage(
+                player,
+                recipient,
+                delivered,
+                channel,
+                messageText
+            )
+        ) {
+            LOGGER.warn(
+                "Message not saved for player {} - write queue full",
+                player
+            );
+            AuditLog.rejected(player, channel, "queue_full");
+            return Outcome.QUEUE_FULL;
+        }
+        AuditLog.received(player, recipient, channel, messageText);
+        // Sent after queueing, so a message the client has to resend is not
+        // shown twice
+        if (recipient == null) {
+            ChannelRegistry.broadcast(player, channel, messageText);
+        }
+        return Outcome.ACCEPTED;
+    }
+
+    /**
+     * Store the summary line of a run of collapsed repeats. It was accepted
+     * already, so a full write queue only loses the summary.
+     */
+    private static void storeRepeats(
+        UUID player,
+        DuplicateSuppressor.Repeats repeats
+    ) {
+        if (repeats != null) {
+            store(
+                player,
+                repeats.recipient(),
+                repeats.channel(),
+                repeats.summaryText()
+            );
+        }
+    }
+
+    /**
+     * Take one message token for the player, refilling at the configured rate
+     */
+    private static boolean tryAcquire(UUID playerUuid) {
+        int perSecond = DatabaseConfig.getRateLimitPerSecond();
+        if (perSecond <= 0) {
+            return true;
+        }
+        int burst = Math.max(1, DatabaseConfig.getRateLimitBurst());
+
+        RateBucket bucket = RATE_BUCKETS.computeIfAbsent(playerUuid, uuid ->
+            new RateBucket()
+        );
+        long now = System.nanoTime();
+        if (bucket.tokens < 0) {
+            bucket.tokens = burst;
+        } else {
+            double refill =
+                ((now - bucket.lastRefillNanos) / 1_000_000_000.0) * perSecond;
+            bucket.tokens = Math.min(burst, bucket.tokens + refill);
+        }
+        bucket.lastRefillNanos = now;
+
+        if (bucket.tokens < 1) {
+            return false;
+        }
+        bucket.tokens -= 1;
+        return true;
+    }
 }
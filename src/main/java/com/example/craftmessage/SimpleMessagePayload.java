@@ -1,24 +1,48 @@
 package com.example.craftmessage;
 
+import java.util.UUID;
 import net.minecraft.network.PacketByteBuf;
 import net.minecraft.network.codec.PacketCodec;
 import net.minecraft.network.packet.CustomPayload;
 import net.minecraft.util.Identifier;
 
-public record SimpleMessagePayload(String text) implements CustomPayload {
+/**
+ * Message sent by a player: public to a channel when recipient is null,
+ * otherwise a direct message to that player. The channel comes last so
+ * packets from older clients, which end after the recipient, still decode.
+ */
+public record SimpleMessagePayload(String text, UUID recipient, String channel)
+    implements CustomPayload {
     public static final CustomPayload.Id<SimpleMessagePayload> ID =
         new CustomPayload.Id<>(Identifier.of("craftmessage", "simple_message"));
 
     public static final PacketCodec<PacketByteBuf, SimpleMessagePayload> CODEC =
         PacketCodec.of(SimpleMessagePayload::write, SimpleMessagePayload::read);
 
+    public SimpleMessagePayload(String text) {
+        this(text, null);
+    }
+
+    public SimpleMessagePayload(String text, UUID recipient) {
+        this(text, recipient, MessageEntity.DEFAULT_CHANNEL);
+    }
+
     private static void write(SimpleMessagePayload payload, PacketByteBuf buf) {
         buf.writeString(payload.text);
+        buf.writeBoolean(payload.recipient != null);
+        if (payload.recipient != null) {
+            buf.writeUuid(payload.recipient);
+        }
+        buf.writeString(payload.channel, 32);
     }
 
     private static SimpleMessagePayload read(PacketByteBuf buf) {
         String text = buf.readString();
-        return new SimpleMessagePayload(text);
+        UUID recipient = buf.readBoolean() ? buf.readUuid() : null;
+        String channel = buf.isReadable()
+            ? buf.readString(32)
+            : MessageEntity.DEFAULT_CHANNEL;
+        return new SimpleMessagePayload(text, recipient, channel);
     }
 
     @Override
@@ -0,0 +1,209 @@
+package com.example.craftmessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how much of each 50 ms server tick is spent in CraftMessage code.
+ *
+ * Instrumented sections add their time to per-operation counters for the
+ * current tick. At the end of the tick the totals go into a rolling window
+ * of the last 60 seconds, a JFR event is emitted, and a warning is logged
+ * (at most every 5 seconds) when the total exceeds tick.budgetMicros.
+ * All state is owned by the server thread; work on other threads is ignored.
+ */
+public class TickBudget {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+        TickBudget.class
+    );
+
+    public enum Operation {
+        RECEIVE("receive"),
+        DATABASE("database"),
+        BROADCAST("broadcast");
+
+        private final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final int WINDOW_TICKS = 20 * 60;
+    private static final long WARN_INTERVAL_NANOS = 5_000_000_000L;
+
+    private static volatile Thread serverThread;
+
+    // Current tick
+    private static final long[] tickNanos = new long[OPERATIONS.length];
+    private static int tickMessages;
+    private static int depth;
+
+    // Rolling window, index = tick % WINDOW_TICKS
+    private static final long[] windowTotal = new long[WINDOW_TICKS];
+    private static final long[][] windowByOperation =
+        new long[OPERATIONS.length][WINDOW_TICKS];
+    private static int tick;
+    private static long overBudgetTicks;
+    private static int overBudgetSinceWarning;
+    private static long lastWarningNanos;
+    private static String lastOffender = "none";
+
+    public static void register() {
+        ServerLifecycleEvents.SERVER_STARTED.register(server ->
+            serverThread = server.getThread()
+        );
+        ServerLifecycleEvents.SERVER_STOPPED.register(server ->
+            serverThread = null
+        );
+        ServerTickEvents.START_SERVER_TICK.register(server -> startTick());
+        ServerTickEvents.END_SERVER_TICK.register(server -> endTick());
+    }
+
+    /**
+     * Start timing a section. Nested sections are only counted once.
+     *
+     * @return token for {@link #exit}, 0 when not on the server thread
+     */
+    public static long enter() {
+        if (Thread.currentThread() != serverThread) {
+            return 0L;
+        }
+        return depth++ == 0 ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Finish a section started with {@link #enter}
+     */
+    public static void exit(Operation operation, long token) {
+        if (Thread.currentThread() != serverThread) {
+            return;
+        }
+        depth--;
+        if (token != 0L) {
+            tickNanos[operation.ordinal()] += System.nanoTime() - token;
+        }
+    }
+
+    /**
+     * Count a received message for the current tick
+     */
+    public static void countMessage() {
+        if (Thread.currentThread() == serverThread) {
+            tickMessages++;
+        }
+    }
+
+    private static void startTick() {
+        Arrays.fill(tickNanos, 0L);
+        tickMessages = 0;
+        depth = 0;
+    }
+
+    private static void endTick() {
+        int slot = tick % WINDOW_TICKS;
+        long total = 0;
+        int slowest = 0;
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            total += tickNanos[i];
+            windowByOperation[i][slot] = tickNanos[i];
+            if (tickNanos[i] > tickNanos[slowest]) {
+                slowest = i;
+            }
+        }
+        windowTotal[slot] = total;
+
+        long budget = DatabaseConfig.getTickBudgetMicros() * 1_000L;
+        boolean overBudget = budget > 0 && total > budget;
+        if (overBudget) {
+            overBudgetTicks++;
+            overBudgetSinceWarning++;
+            lastOffender = OPERATIONS[slowest].label();
+            long now = System.nanoTime();
+            if (now - lastWarningNanos >= WARN_INTERVAL_NANOS) {
+                LOGGER.warn(
+                    "CraftMessage used {} us of tick {} (budget {} us), slowest operation: {} ({} us), {} ticks over budget since last warning",
+                    total / 1_000L,
+                    tick,
+                    budget / 1_000L,
+                    lastOffender,
+                    tickNanos[slowest] / 1_000L,
+                    overBudgetSinceWarning
+                );
+                lastWarningNanos = now;
+                overBudgetSinceWarning = 0;
+            }
+        }
+
+        if (total > 0) {
+            TickWorkEvent event = new TickWorkEvent();
+            if (event.shouldCommit()) {
+                event.tick = tick;
+                event.totalNanos = total;
+                event.budgetNanos = budget;
+                event.overBudget = overBudget;
+                event.slowestOperation = OPERATIONS[slowest].label();
+                event.slowestOperationNanos = tickNanos[slowest];
+                event.messages = tickMessages;
+                event.commit();
+            }
+        }
+        tick++;
+    }
+
+    /**
+     * Human-readable rolling statistics for the last 60 seconds
+     */
+    public static List<String> report() {
+        List<String> lines = new ArrayList<>();
+        int ticks = Math.min(tick, WINDOW_TICKS);
+        lines.add(
+            String.format(
+                Locale.ROOT,
+                "Last %d ticks: %s, budget %d us, %d ticks over budget since start (last: %s)",
+                ticks,
+                percentiles(windowTotal, ticks),
+                DatabaseConfig.getTickBudgetMicros(),
+                overBudgetTicks,
+                lastOffender
+            )
+        );
+        for (Operation operation : OPERATIONS) {
+            lines.add(
+                "  " +
+                operation.label() +
+                ": " +
+                percentiles(windowByOperation[operation.ordinal()], ticks)
+            );
+        }
+        return lines;
+    }
+
+    private static String percentiles(long[] window, int ticks) {
+        if (ticks == 0) {
+            return "no data";
+        }
+        long[] sorted = Arrays.copyOf(window, ticks);
+        Arrays.sort(sorted);
+        return String.format(
+            Locale.ROOT,
+            "p50=%d us p95=%d us p99=%d us max=%d us",
+            sorted[(int) (ticks * 0.50)] / 1_000L,
+            sorted[Math.min(ticks - 1, (int) (ticks * 0.95))] / 1_000L,
+            sorted[Math.min(ticks - 1, (int) (ticks * 0.99))] / 1_000L,
+            sorted[ticks - 1] / 1_000L
+        );
+    }
+}
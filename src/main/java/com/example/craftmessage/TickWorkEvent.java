@@ -0,0 +1,44 @@
+package com.example.craftmessage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JFR event with the time CraftMessage spent on the server thread in one
+ * tick. Only committed for ticks with CraftMessage work.
+ */
+@Name("craftmessage.TickWork")
+@Label("CraftMessage Tick Work")
+@Category({ "CraftMessage" })
+@Description("Time spent in CraftMessage code on the server thread per tick")
+@StackTrace(false)
+public class TickWorkEvent extends jdk.jfr.Event {
+
+    @Label("Tick")
+    public int tick;
+
+    @Label("Total")
+    @Timespan(Timespan.NANOSECONDS)
+    public long totalNanos;
+
+    @Label("Budget")
+    @Timespan(Timespan.NANOSECONDS)
+    public long budgetNanos;
+
+    @Label("Over Budget")
+    public boolean overBudget;
+
+    @Label("Slowest Operation")
+    public String slowestOperation;
+
+    @Label("Slowest Operation Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long slowestOperationNanos;
+
+    @Label("Messages Received")
+    public int messages;
+}